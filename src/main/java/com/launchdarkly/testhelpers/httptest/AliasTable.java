@@ -0,0 +1,73 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Walker's alias method, using Vose's construction: after O(n) setup, choosing an index with
+// probability proportional to its weight takes one random index and one random comparison, no
+// matter how many entries there are. Instances are immutable, so they can be shared by any
+// number of threads.
+final class AliasTable {
+  private final double[] probability;
+  private final int[] alias;
+
+  AliasTable(double[] weights) {
+    int n = weights.length;
+    double total = 0;
+    int heaviest = 0;
+    for (int i = 0; i < n; i++) {
+      double w = weights[i];
+      if (!(w >= 0) || Double.isInfinite(w)) {
+        throw new IllegalArgumentException("weights must be finite and non-negative");
+      }
+      total += w;
+      if (w > weights[heaviest]) {
+        heaviest = i;
+      }
+    }
+    if (n == 0 || !(total > 0)) {
+      throw new IllegalArgumentException("at least one weight must be greater than zero");
+    }
+
+    probability = new double[n];
+    alias = new int[n];
+    double[] scaled = new double[n];
+    ArrayDeque<Integer> small = new ArrayDeque<>(), large = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      (scaled[i] < 1 ? small : large).add(i);
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int s = small.poll(), l = large.poll();
+      probability[s] = scaled[s];
+      alias[s] = l;
+      scaled[l] = (scaled[l] + scaled[s]) - 1;
+      (scaled[l] < 1 ? small : large).add(l);
+    }
+    // Anything left over is 1 apart from rounding error, but make sure that rounding can't give
+    // a chance to an entry whose weight is zero.
+    for (Integer i: large) {
+      probability[i] = 1;
+    }
+    for (Integer i: small) {
+      probability[i] = weights[i] > 0 ? 1 : 0;
+      alias[i] = heaviest;
+    }
+  }
+
+  int size() {
+    return probability.length;
+  }
+
+  int next(ThreadLocalRandom random) {
+    int i = random.nextInt(probability.length);
+    return random.nextDouble() < probability[i] ? i : alias[i];
+  }
+
+  // Chooses an index using 64 random bits: the high 32 pick the entry (by multiplying rather than
+  // taking a remainder, so there's no modulo bias), and the low 32 are the coin toss.
+  int next(long bits) {
+    int i = (int)(((bits >>> 32) * probability.length) >>> 32);
+    return (bits & 0xFFFFFFFFL) * 0x1.0p-32 < probability[i] ? i : alias[i];
+  }
+}
@@ -0,0 +1,58 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link Handler} that can finish processing a request without holding on to a handler thread.
+ * <p>
+ * Instead of returning when it is done, an asynchronous handler returns a {@link CompletionStage}
+ * that completes when it is done. While the stage is pending, no handler thread is blocked on its
+ * behalf. {@link HttpServer} still has one thread per open connection, which stays blocked sending
+ * the response, so this halves the number of threads used by an idle or slowly streaming
+ * connection rather than eliminating them.
+ * {@link HttpServer}, {@link Handlers#all(Handler...)}, {@link Handlers#sequential(Handler...)},
+ * {@link SimpleRouter}, and {@link HandlerSwitcher} all recognize asynchronous handlers and
+ * continue with the rest of the request once the stage completes. {@link Handlers#delay(long)},
+ * {@link Handlers#waitFor(java.util.concurrent.Semaphore)}, and {@link Handlers#hang()} are
+ * implemented this way.
+ * <p>
+ * If the handler is called through the blocking {@link #apply(RequestContext)} method instead,
+ * that method waits for the stage to complete.
+ * <p>
+ * Callbacks that the handler attaches to its own stages run on whatever thread completes those
+ * stages, which may be shared with other requests, so they should not block; to write response
+ * data from a callback, use {@link RequestContext#writeAsync(byte[])}.
+ *
+ * <pre><code>
+ *     AsyncHandler handler = ctx -&gt; someFuture.thenAccept(result -&gt; {
+ *         ctx.setStatus(200);
+ *         ctx.write(result.getBytes());
+ *     });
+ * </code></pre>
+ *
+ * @since 2.1.0
+ */
+@FunctionalInterface
+public interface AsyncHandler extends Handler {
+  /**
+   * Starts processing the request.
+   *
+   * @param context a {@link RequestContext} that provides both the request information
+   *   and the ability to modify the response
+   * @return a {@link CompletionStage} that completes when the handler is done, or completes
+   *   exceptionally if the request failed
+   */
+  CompletionStage<Void> applyAsync(RequestContext context);
+
+  /**
+   * Processes the request, blocking until the stage returned by {@link #applyAsync(RequestContext)}
+   * has completed.
+   *
+   * @param context a {@link RequestContext} that provides both the request information
+   *   and the ability to modify the response
+   */
+  @Override
+  default void apply(RequestContext context) {
+    AsyncSupport.await(applyAsync(context));
+  }
+}
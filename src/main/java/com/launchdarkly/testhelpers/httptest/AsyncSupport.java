@@ -0,0 +1,98 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Shared scheduling for AsyncHandler implementations. The timer thread only ever hands tasks off
+// to the worker pool, so that a slow handler can't delay every other timer in the JVM. With a
+// 1ms tick, delays are accurate to within a millisecond; 512 slots cover about half a second per
+// revolution, so typical delays are placed directly without needing extra rounds.
+final class AsyncSupport {
+  static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+  private static final TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 512, "httptest-timer");
+
+  static final Executor workers = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("httptest-worker-%d").setDaemon(true).build());
+
+  private AsyncSupport() {}
+
+  // Runs any kind of handler, converting both thrown exceptions and a null result into a stage.
+  static CompletionStage<Void> apply(Handler handler, RequestContext context) {
+    try {
+      if (handler instanceof AsyncHandler) {
+        CompletionStage<Void> result = ((AsyncHandler)handler).applyAsync(context);
+        return result == null ? DONE : result;
+      }
+      handler.apply(context);
+      return DONE;
+    } catch (RuntimeException e) {
+      return failed(e);
+    }
+  }
+
+  // Runs handlers[start..] in order. Handlers that finish synchronously are called one after
+  // another on the current thread; after one that doesn't, the rest are called on a worker thread.
+  static CompletionStage<Void> sequence(Handler[] handlers, int start, RequestContext context) {
+    for (int i = start; i < handlers.length; i++) {
+      CompletableFuture<Void> result = apply(handlers[i], context).toCompletableFuture();
+      if (!result.isDone() || result.isCompletedExceptionally()) {
+        int next = i + 1;
+        return next == handlers.length ? result :
+          result.thenComposeAsync(v -> sequence(handlers, next, context), workers);
+      }
+    }
+    return DONE;
+  }
+
+  static CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+    if (delay <= 0) {
+      return DONE;
+    }
+    CompletableFuture<Void> f = new CompletableFuture<>();
+    schedule(() -> f.complete(null), delay, unit);
+    return f;
+  }
+
+  static void schedule(Runnable task, long delay, TimeUnit unit) {
+    timer.schedule(() -> workers.execute(task), delay, unit);
+  }
+
+  static CompletableFuture<Void> failed(Throwable e) {
+    CompletableFuture<Void> f = new CompletableFuture<>();
+    f.completeExceptionally(e);
+    return f;
+  }
+
+  // Blocks until the stage completes, rethrowing its exception as it would have been thrown by a
+  // synchronous handler.
+  static void await(CompletionStage<Void> stage) {
+    if (stage == null) {
+      return;
+    }
+    try {
+      stage.toCompletableFuture().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw asRuntimeException(e.getCause());
+    }
+  }
+
+  static RuntimeException asRuntimeException(Throwable e) {
+    if (e instanceof CompletionException && e.getCause() != null) {
+      e = e.getCause();
+    }
+    if (e instanceof Error) {
+      throw (Error)e;
+    }
+    return e instanceof RuntimeException ? (RuntimeException)e : new RuntimeException(e);
+  }
+}
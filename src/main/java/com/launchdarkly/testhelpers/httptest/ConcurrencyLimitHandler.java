@@ -0,0 +1,212 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A delegator that limits how many requests another handler can be processing at once, and keeps
+ * track of how many it has been processing.
+ * <p>
+ * Use {@link Handlers#maxConcurrent(int, Handler)} to create an instance. A request is "in flight"
+ * from when it is passed to the target handler until that handler finishes (or, if it is an
+ * {@link AsyncHandler}, until its stage completes). By default, a request that arrives while the
+ * limit is reached gets an immediate 503 status; with {@link #withQueue(int, long, TimeUnit)},
+ * it waits for a slot instead, without holding a thread, and gets a 503 only if it has waited
+ * too long.
+ * <p>
+ * The gauges make it easy to check that a client does not exceed its own concurrency limits:
+ *
+ * <pre><code>
+ *     ConcurrencyLimitHandler handler = Handlers.maxConcurrent(100,
+ *         Handlers.all(Handlers.delay(50), Handlers.status(200)));
+ *     try (HttpServer server = HttpServer.start(handler)) {
+ *         // ... run the client
+ *         assertThat(handler.getPeakInFlightCount(), lessThanOrEqualTo(clientMaxConnections));
+ *     }
+ * </code></pre>
+ *
+ * @since 2.1.0
+ */
+public final class ConcurrencyLimitHandler implements AsyncHandler {
+  private final int limit;
+  private final Handler target;
+  private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+  private volatile int maxQueued = 0;
+  private volatile long queueTimeoutNanos = 0;
+
+  // the following are guarded by queue
+  private int inFlight;
+  private int peakInFlight;
+  private long completedCount;
+  private long rejectedCount;
+
+  private static final class Waiter {
+    final RequestContext context;
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Waiter(RequestContext context) {
+      this.context = context;
+    }
+  }
+
+  ConcurrencyLimitHandler(int limit, Handler target) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("limit must be at least 1");
+    }
+    this.limit = limit;
+    this.target = target;
+  }
+
+  /**
+   * Makes requests that arrive while the limit is reached wait for a slot, instead of being
+   * rejected immediately.
+   * <p>
+   * Waiting requests are admitted in the order they arrived. A request is rejected with a 503
+   * status if it has waited longer than the timeout, or if {@code maxQueued} requests are
+   * already waiting when it arrives.
+   *
+   * @param maxQueued the maximum number of waiting requests
+   * @param timeout how long a request can wait
+   * @param timeoutUnit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public ConcurrencyLimitHandler withQueue(int maxQueued, long timeout, TimeUnit timeoutUnit) {
+    this.maxQueued = maxQueued;
+    this.queueTimeoutNanos = (timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit).toNanos(timeout);
+    return this;
+  }
+
+  /**
+   * Returns the number of requests that the target handler is currently processing.
+   *
+   * @return the in-flight count
+   */
+  public int getInFlightCount() {
+    synchronized (queue) {
+      return inFlight;
+    }
+  }
+
+  /**
+   * Returns the largest number of requests that the target handler has been processing at once,
+   * since this handler was created or {@link #resetPeakInFlightCount()} was called.
+   *
+   * @return the peak in-flight count
+   */
+  public int getPeakInFlightCount() {
+    synchronized (queue) {
+      return peakInFlight;
+    }
+  }
+
+  /**
+   * Resets the peak in-flight count to the current in-flight count.
+   */
+  public void resetPeakInFlightCount() {
+    synchronized (queue) {
+      peakInFlight = inFlight;
+    }
+  }
+
+  /**
+   * Returns the number of requests that are waiting for a slot.
+   *
+   * @return the queued count
+   */
+  public int getQueuedCount() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+  /**
+   * Returns the number of requests that the target handler has finished processing.
+   *
+   * @return the completed count
+   */
+  public long getCompletedCount() {
+    synchronized (queue) {
+      return completedCount;
+    }
+  }
+
+  /**
+   * Returns the number of requests that were rejected with a 503 status, either immediately or
+   * after waiting in the queue.
+   *
+   * @return the rejected count
+   */
+  public long getRejectedCount() {
+    synchronized (queue) {
+      return rejectedCount;
+    }
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    Waiter waiter;
+    synchronized (queue) {
+      if (inFlight < limit) {
+        inFlight++;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+        waiter = null;
+      } else if (queue.size() < maxQueued) {
+        waiter = new Waiter(context);
+        queue.add(waiter);
+      } else {
+        rejectedCount++;
+        return reject(context);
+      }
+    }
+    if (waiter == null) {
+      return run(context);
+    }
+    AsyncSupport.delay(queueTimeoutNanos, TimeUnit.NANOSECONDS).thenRun(() -> {
+      synchronized (queue) {
+        if (!queue.remove(waiter)) {
+          return; // it already got a slot
+        }
+        rejectedCount++;
+      }
+      reject(waiter.context);
+      waiter.done.complete(null);
+    });
+    return waiter.done;
+  }
+
+  private CompletionStage<Void> run(RequestContext context) {
+    return AsyncSupport.apply(target, context).whenComplete((v, e) -> release());
+  }
+
+  // When a request finishes, its slot goes straight to the next waiting request if there is one,
+  // so the in-flight count doesn't change.
+  private void release() {
+    Waiter next;
+    synchronized (queue) {
+      completedCount++;
+      next = queue.poll();
+      if (next == null) {
+        inFlight--;
+      }
+    }
+    if (next != null) {
+      // Don't run the next request on this thread; it may belong to whatever completed the
+      // previous request's stage.
+      Waiter w = next;
+      AsyncSupport.workers.execute(() -> run(w.context).whenComplete((v, e) -> {
+        if (e == null) {
+          w.done.complete(null);
+        } else {
+          w.done.completeExceptionally(e);
+        }
+      }));
+    }
+  }
+
+  private static CompletionStage<Void> reject(RequestContext context) {
+    context.setStatus(503);
+    return AsyncSupport.DONE;
+  }
+}
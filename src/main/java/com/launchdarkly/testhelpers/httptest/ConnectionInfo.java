@@ -0,0 +1,80 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Objects;
+
+/**
+ * Properties of the network connection that a request was received on.
+ * <p>
+ * Every request that arrives on the same connection has an equal {@code ConnectionInfo}, so you
+ * can use {@link RequestInfo#getConnection()} to check whether an HTTP client is reusing pooled
+ * connections, and {@link RequestInfo#getConnectionSequenceNumber()} to see how many requests it
+ * has sent on each one.
+ *
+ * @since 2.1.0
+ */
+public final class ConnectionInfo {
+  private final long id;
+  private final String remoteAddress;
+  private final String tlsSessionId;
+
+  /**
+   * Constructs an instance, specifying all properties.
+   *
+   * @param id the connection ID
+   * @param remoteAddress the client's address and port, or null if unknown
+   * @param tlsSessionId the TLS session ID, or null if the connection is not secure
+   */
+  public ConnectionInfo(long id, String remoteAddress, String tlsSessionId) {
+    this.id = id;
+    this.remoteAddress = remoteAddress;
+    this.tlsSessionId = tlsSessionId;
+  }
+
+  /**
+   * Returns the connection ID. {@link HttpServer} numbers the connections it accepts starting at 1.
+   *
+   * @return the connection ID
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Returns the client's IP address and port, such as {@code "127.0.0.1:54321"}.
+   *
+   * @return the remote address, or null if unknown
+   */
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  /**
+   * Returns the ID of the TLS session, as a hexadecimal string. If a client resumes a previous
+   * TLS session on a new connection, both connections have the same session ID.
+   *
+   * @return the session ID, or null if the connection is not secure
+   */
+  public String getTlsSessionId() {
+    return tlsSessionId;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ConnectionInfo)) {
+      return false;
+    }
+    ConnectionInfo other = (ConnectionInfo)o;
+    return id == other.id && Objects.equals(remoteAddress, other.remoteAddress) &&
+        Objects.equals(tlsSessionId, other.tlsSessionId);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, remoteAddress, tlsSessionId);
+  }
+
+  @Override
+  public String toString() {
+    return "connection " + id + (remoteAddress == null ? "" : (" from " + remoteAddress));
+  }
+}
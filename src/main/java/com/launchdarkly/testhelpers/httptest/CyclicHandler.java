@@ -0,0 +1,60 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A delegator that passes each request to the next of several handlers in turn, starting over
+ * after the last one.
+ * <p>
+ * Use {@link Handlers#cycle(Handler...)} to create an instance. Unlike
+ * {@link Handlers#sequential(Handler...)}, this never runs out of handlers, so it can be used for
+ * a load test of any length; for instance, to make every fifth request fail:
+ *
+ * <pre><code>
+ *     CyclicHandler handler = Handlers.cycle(Handlers.status(200), Handlers.status(200),
+ *         Handlers.status(200), Handlers.status(200), Handlers.status(503));
+ * </code></pre>
+ *
+ * The position is a single atomic counter, so choosing a handler does not take a lock.
+ *
+ * @since 2.1.0
+ */
+public final class CyclicHandler implements AsyncHandler {
+  private final Handler[] handlers;
+  private final LongAdder[] hits;
+  private final AtomicLong counter = new AtomicLong();
+
+  CyclicHandler(Handler[] handlers) {
+    if (handlers.length == 0) {
+      throw new IllegalArgumentException("must specify at least one handler");
+    }
+    this.handlers = Arrays.copyOf(handlers, handlers.length);
+    this.hits = new LongAdder[handlers.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    // A long counter won't wrap around in any realistic test, but floorMod keeps the index valid
+    // even if it does.
+    int i = (int)Math.floorMod(counter.getAndIncrement(), (long)handlers.length);
+    hits[i].increment();
+    return AsyncSupport.apply(handlers[i], context);
+  }
+
+  /**
+   * Returns the number of requests that have been sent to one of the handlers.
+   *
+   * @param index the index of the handler, in the same order as the parameters to
+   *   {@link Handlers#cycle(Handler...)}
+   * @return the number of requests
+   */
+  public long getHitCount(int index) {
+    return hits[index].sum();
+  }
+}
@@ -1,23 +1,57 @@
 package com.launchdarkly.testhelpers.httptest;
 
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A delegator that forwards requests to another handler, which can be changed at any time.
+ * <p>
+ * {@link #setTarget(Handler)} affects only requests that arrive after it is called; any that the
+ * old handler is still processing, such as open stream responses, are not interrupted. To find
+ * out when those have finished, use {@link #swapAndDrain(Handler, long, TimeUnit)} instead.
  */
-public final class HandlerSwitcher implements Handler {
-  private volatile Handler target;
-  
+public final class HandlerSwitcher implements AsyncHandler {
+  private volatile Slot current;
+
+  // Each target gets its own in-flight counter, so that requests still running on an old target
+  // can be counted separately from those on the new one. This is an AtomicLong rather than a
+  // LongAdder, because swapAndDrain needs to see an exact count: LongAdder.sum() can miss an
+  // increment that happened while it was adding up the cells, and report zero too early.
+  private static final class Slot {
+    final Handler handler;
+    final AtomicLong inFlight = new AtomicLong();
+    volatile boolean retired;
+
+    Slot(Handler handler) {
+      this.handler = handler;
+    }
+  }
+
   /**
    * Creates an instance with an initial target.
    * 
    * @param target the handler to delegate to initially
    */
   public HandlerSwitcher(Handler target) {
-    this.target = target;
+    this.current = new Slot(target);
   }
   
   @Override
-  public void apply(RequestContext context) {
-    target.apply(context);
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    Slot slot;
+    while (true) {
+      slot = current;
+      slot.inFlight.incrementAndGet();
+      if (slot == current) {
+        break;
+      }
+      // The target was changed before we were counted, so a drain may have already seen this
+      // slot as idle; use the new one instead.
+      finished(slot);
+    }
+    Slot s = slot;
+    return AsyncSupport.apply(s.handler, context).whenComplete((v, e) -> finished(s));
   }
   
   /**
@@ -26,7 +60,7 @@ public final class HandlerSwitcher implements Handler {
    * @return the current target
    */
   public Handler getTarget() {
-    return target;
+    return current.handler;
   }
   
   /**
@@ -35,6 +69,68 @@ public final class HandlerSwitcher implements Handler {
    * @param target the new target
    */
   public void setTarget(Handler target) {
-    this.target = target;
+    this.current = new Slot(target);
+  }
+
+  /**
+   * Returns the number of requests that the current target is processing.
+   *
+   * @return the in-flight count
+   * @since 2.1.0
+   */
+  public long getInFlightCount() {
+    return current.inFlight.get();
+  }
+
+  /**
+   * Changes the handler that will receive requests, and then waits until the previous handler
+   * has finished processing every request that it had already received.
+   * <p>
+   * New requests go to the new target as soon as this method is called. The return value is how
+   * long it took for the old target to become idle, which is a measure of how long a hot
+   * reconfiguration takes under the current load.
+   *
+   * @param target the new target
+   * @param timeout the maximum time to wait
+   * @param timeoutUnit the time unit, or null for milliseconds
+   * @return the time spent waiting, in nanoseconds
+   * @throws IllegalStateException if the timeout expires first; the target has still been changed
+   * @since 2.1.0
+   */
+  public long swapAndDrain(Handler target, long timeout, TimeUnit timeoutUnit) {
+    long start = System.nanoTime();
+    long deadline = start + (timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit).toNanos(timeout);
+    Slot old;
+    synchronized (this) { // so that two concurrent swaps can't both think they own the same old slot
+      old = current;
+      current = new Slot(target);
+    }
+    old.retired = true;
+    synchronized (old) {
+      while (old.inFlight.get() > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IllegalStateException("timed out waiting for previous handler to finish "
+              + old.inFlight.get() + " requests");
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(old, remaining);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  // The decrement happens before we check the retired flag, and swapAndDrain sets the flag
+  // before it checks the count, so one side always sees the other.
+  private static void finished(Slot slot) {
+    slot.inFlight.decrementAndGet();
+    if (slot.retired) {
+      synchronized (slot) {
+        slot.notifyAll();
+      }
+    }
   }
 }
@@ -1,7 +1,19 @@
 package com.launchdarkly.testhelpers.httptest;
 
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Factory methods for standard {@link Handler} implementations.
@@ -11,17 +23,15 @@ public abstract class Handlers {
    * Creates a {@link Handler} that calls all of the specified handlers in order.
    * <p>
    * You can use this to chain together operations like {@link #status(int)} and
-   * {@link #header(String, String)}.
+   * {@link #header(String, String)}. If any of the handlers is an {@link AsyncHandler}, the
+   * following handlers are not called until its stage has completed, but no thread is blocked
+   * while waiting for it.
    * 
    * @param handlers a series of handlers
    * @return a {@link Handler}
    */
   public static Handler all(Handler... handlers) {
-    return ctx -> {
-      for (Handler h: handlers) {
-        h.apply(ctx);
-      }
-    };
+    return (AsyncHandler)ctx -> AsyncSupport.sequence(handlers, 0, ctx);
   }
   
   /**
@@ -125,6 +135,92 @@ public abstract class Handlers {
   public static Handler bodyJson(String json, Charset encoding) {
     return bodyString("application/json", json, encoding);
   }
+
+  /**
+   * Creates a {@link Handler} that generates a JSON response body as it is being sent, using
+   * Gson's streaming {@link JsonWriter}.
+   * <p>
+   * The response uses chunked encoding, and is encoded with UTF-8. Output is buffered in
+   * blocks of a few kilobytes, so the document is never held in memory all at once.
+   * 
+   * <pre><code>
+   * Handler handler = Handlers.jsonStream(w -&gt; {
+   *     w.beginArray();
+   *     for (int i = 0; i &lt; 1000000; i++) {
+   *         w.value(i);
+   *     }
+   *     w.endArray();
+   * });
+   * </code></pre>
+   * 
+   * @param content a function that writes the JSON document
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler jsonStream(JsonContent content) {
+    return jsonStream(-1, content);
+  }
+
+  /**
+   * Creates a {@link Handler} that generates a JSON response body of a known length as it is
+   * being sent, using Gson's streaming {@link JsonWriter}.
+   * <p>
+   * This is the same as {@link #jsonStream(JsonContent)}, except that the response has a
+   * {@code Content-Length} header instead of using chunked encoding. The function must write
+   * exactly that many bytes of UTF-8.
+   * 
+   * @param contentLength the length of the document in bytes, or -1 if unknown
+   * @param content a function that writes the JSON document
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler jsonStream(long contentLength, JsonContent content) {
+    return ctx -> {
+      ctx.setHeader("Content-Type", "application/json");
+      if (contentLength >= 0) {
+        ctx.setFixedLength(contentLength);
+      } else {
+        ctx.setChunked();
+      }
+      OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+          ctx.write(new byte[] { (byte)b });
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          ctx.write(b, off, len);
+        }
+      };
+      JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+      try {
+        content.write(writer);
+        writer.flush(); // we don't call close(), because it throws an exception if the document is incomplete
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  /**
+   * A function that writes a JSON document, for use with {@link Handlers#jsonStream(JsonContent)}.
+   * <p>
+   * This is like {@code Consumer<JsonWriter>}, except that it can throw the {@code IOException}
+   * that {@link JsonWriter} methods are declared to throw.
+   *
+   * @since 2.1.0
+   */
+  @FunctionalInterface
+  public interface JsonContent {
+    /**
+     * Writes the document.
+     *
+     * @param writer the JSON writer
+     * @throws IOException if the writer throws it
+     */
+    void write(JsonWriter writer) throws IOException;
+  }
   
   /**
    * Creates a {@link Handler} that starts writing a chunked response.
@@ -172,55 +268,213 @@ public abstract class Handlers {
   public static Handler writeChunkString(String data) {
     return writeChunk(data.getBytes());
   }
+
+  /**
+   * Creates a {@link Handler} that writes each of the chunks from an iterator in a chunked response.
+   * <p>
+   * Chunks are taken from the iterator one at a time, as the previous chunk is written, so the
+   * iterator can produce an arbitrarily long stream without holding it all in memory. If the
+   * client reads more slowly than the chunks are produced, writing blocks, so the iterator is not
+   * called again until the client has caught up.
+   * <p>
+   * The iterator is consumed by the first request that uses this handler.
+   * 
+   * <pre><code>
+   * Handler handler = Handlers.all(
+   *     Handlers.startChunks("text/plain", null),
+   *     Handlers.streamChunks(someLargeListOfChunks.iterator())
+   * );
+   * </code></pre>
+   * 
+   * @param chunks the chunk data
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Iterator<byte[]> chunks) {
+    return streamChunks(chunks, 0, null);
+  }
+
+  /**
+   * Creates a {@link Handler} that writes each of the chunks from an iterator in a chunked response,
+   * at a fixed rate.
+   * <p>
+   * This is the same as {@link #streamChunks(Iterator)}, except that the chunks are written at the
+   * specified interval: the first one immediately, the second one after one interval, and so on.
+   * 
+   * @param chunks the chunk data
+   * @param interval the interval between chunks
+   * @param intervalUnit the time unit, or null for milliseconds
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Iterator<byte[]> chunks, long interval, TimeUnit intervalUnit) {
+    return streamChunks(() -> chunks.hasNext() ? chunks.next() : null, interval, intervalUnit);
+  }
+
+  /**
+   * Creates a {@link Handler} that writes each of the chunks from a {@link Stream} in a chunked
+   * response.
+   * <p>
+   * This is the same as {@link #streamChunks(Iterator)}, except that the stream is closed after the
+   * last chunk has been written, or if the client disconnects.
+   * 
+   * @param chunks the chunk data
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Stream<byte[]> chunks) {
+    return streamChunks(chunks, 0, null);
+  }
+
+  /**
+   * Creates a {@link Handler} that writes each of the chunks from a {@link Stream} in a chunked
+   * response, at a fixed rate.
+   * <p>
+   * This is the same as {@link #streamChunks(Iterator, long, TimeUnit)}, except that the stream is
+   * closed after the last chunk has been written, or if the client disconnects.
+   * 
+   * @param chunks the chunk data
+   * @param interval the interval between chunks
+   * @param intervalUnit the time unit, or null for milliseconds
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Stream<byte[]> chunks, long interval, TimeUnit intervalUnit) {
+    Handler writeAll = streamChunks(chunks.iterator(), interval, intervalUnit);
+    return (AsyncHandler)ctx -> AsyncSupport.apply(writeAll, ctx).whenComplete((v, e) -> chunks.close());
+  }
+
+  /**
+   * Creates a {@link Handler} that writes chunks in a chunked response, calling a function to get
+   * each chunk until it returns null.
+   * <p>
+   * As with {@link #streamChunks(Iterator)}, the function is not called again until the previous
+   * chunk has been written. Unlike an iterator, the function can be shared by multiple requests,
+   * as long as it is thread-safe.
+   * 
+   * @param chunks a function that returns the next chunk, or null to end the stream
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Supplier<byte[]> chunks) {
+    return streamChunks(chunks, 0, null);
+  }
+
+  /**
+   * Creates a {@link Handler} that writes chunks in a chunked response at a fixed rate, calling a
+   * function to get each chunk until it returns null.
+   * <p>
+   * This is the same as {@link #streamChunks(Supplier)}, except that the chunks are written at the
+   * specified interval: the first one immediately, the second one after one interval, and so on.
+   * If the interval is greater than zero, the returned handler is an {@link AsyncHandler} that
+   * does not hold a thread while waiting for the next chunk.
+   * 
+   * @param chunks a function that returns the next chunk, or null to end the stream
+   * @param interval the interval between chunks
+   * @param intervalUnit the time unit, or null for milliseconds
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler streamChunks(Supplier<byte[]> chunks, long interval, TimeUnit intervalUnit) {
+    long intervalNanos = (intervalUnit == null ? TimeUnit.MILLISECONDS : intervalUnit).toNanos(interval);
+    if (intervalNanos <= 0) {
+      return ctx -> {
+        for (byte[] chunk = chunks.get(); chunk != null; chunk = chunks.get()) {
+          ctx.write(chunk);
+        }
+      };
+    }
+    return (AsyncHandler)ctx -> {
+      CompletableFuture<Void> done = new CompletableFuture<>();
+      streamNextChunk(chunks, ctx, System.nanoTime(), intervalNanos, done);
+      return done;
+    };
+  }
+
+  // The schedule is based on the start time, rather than the time of the previous write, so that
+  // time spent producing and writing the chunks does not accumulate as drift.
+  private static void streamNextChunk(Supplier<byte[]> chunks, RequestContext ctx, long scheduledTime,
+      long intervalNanos, CompletableFuture<Void> done) {
+    byte[] chunk;
+    try {
+      chunk = chunks.get();
+    } catch (RuntimeException e) {
+      done.completeExceptionally(e);
+      return;
+    }
+    if (chunk == null) {
+      done.complete(null);
+      return;
+    }
+    AsyncSupport.delay(scheduledTime - System.nanoTime(), TimeUnit.NANOSECONDS)
+      .thenComposeAsync(v -> ctx.writeAsync(chunk), AsyncSupport.workers)
+      .whenCompleteAsync((v, e) -> {
+        if (e != null) {
+          done.completeExceptionally(e);
+        } else {
+          streamNextChunk(chunks, ctx, scheduledTime + intervalNanos, intervalNanos, done);
+        }
+      }, AsyncSupport.workers);
+  }
   
   /**
-   * Creates a {@link Handler} that sleeps for the specified amount of time.
+   * Creates a {@link Handler} that waits for the specified amount of time.
+   * <p>
+   * This is an {@link AsyncHandler}: the wait is scheduled on a shared timer, rather than
+   * holding a thread.
    * 
    * @param delayMillis how long to delay, in milliseconds
    * @return a {@link Handler}
    */
   public static Handler delay(long delayMillis) {
-    return ctx -> {
-      try {
-        Thread.sleep(delayMillis);
-      } catch (InterruptedException e) {}
-    };
+    return (AsyncHandler)ctx -> AsyncSupport.delay(delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a {@link Handler} that waits for a random amount of time, drawn from a distribution.
+   * <p>
+   * Like {@link #delay(long)}, this is an {@link AsyncHandler} whose waits are scheduled on a
+   * shared timer, so it can simulate slow responses for a large number of concurrent requests.
+   * 
+   * @param latency the distribution of delays
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler delay(LatencyDistribution latency) {
+    return (AsyncHandler)ctx -> AsyncSupport.delay(latency.nextNanos(), TimeUnit.NANOSECONDS);
   }
 
   /**
    * Creates a {@link Handler} that waits until the specified semaphore is available.
    * This can be used to synchronize test logic so that the HTTP response does not
    * proceed until signaled to by the test.
+   * <p>
+   * This is an {@link AsyncHandler}: rather than holding a thread for each request, it uses one
+   * thread, for as long as any requests are waiting, to acquire permits and hand them to the
+   * requests in the order they arrived. If the server is closed while a request is waiting, the
+   * request stops waiting and does not take a permit.
    * 
    * @param semaphore the semaphore to wait on
    * @return a {@link Handler}
    */
   public static Handler waitFor(Semaphore semaphore) {
-    return ctx -> {
-      try {
-        semaphore.acquire();
-      } catch (InterruptedException e) {
-        return;
-      }
-    };
+    SemaphoreWaiters waiters = new SemaphoreWaiters(semaphore);
+    return (AsyncHandler)ctx -> waiters.acquire(ctx.whenAborted());
   }
   
   /**
-   * Creates a {@link Handler} that sleeps indefinitely, holding the connection open,
+   * Creates a {@link Handler} that waits indefinitely, holding the connection open,
    * until the server is closed.
+   * <p>
+   * This is an {@link AsyncHandler} that parks the connection with {@link RequestContext#park()},
+   * so an idle connection does not hold a handler thread, although the server's own thread for the
+   * connection is still in use. You can end all such responses without closing the server by
+   * calling {@link HttpServer#releaseParkedConnections()}.
    * 
    * @return a {@link Handler}
    */
   public static Handler hang() {
-    return ctx -> {
-      while (true) {
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException e) {
-          return;
-        } 
-      }
-    };
+    return (AsyncHandler)RequestContext::park;
   }
 
   /**
@@ -229,6 +483,7 @@ public abstract class Handlers {
    * <p>
    * Any requests that happen after the last handler in the list has been used will receive a
    * 500 error.
+   * To start over from the first handler instead, use {@link #cycle(Handler...)}.
    * 
    * @param handlers a series of handlers
    * @return a {@link Handler}
@@ -237,6 +492,136 @@ public abstract class Handlers {
     return new SequentialHandler(handlers);
   }
   
+  /**
+   * Creates a stateful {@link Handler} that delegates to each of the specified handlers in turn,
+   * starting over after the last one.
+   * <p>
+   * See {@link CyclicHandler} for details.
+   * 
+   * @param handlers a series of handlers
+   * @return a {@link CyclicHandler}
+   * @throws IllegalArgumentException if no handlers are specified
+   * @since 2.1.0
+   */
+  public static CyclicHandler cycle(Handler... handlers) {
+    return new CyclicHandler(handlers);
+  }
+  
+  /**
+   * Creates a {@link Handler} that delegates each request to one of the specified handlers,
+   * chosen at random with equal probability.
+   * <p>
+   * See {@link RandomHandler} for details.
+   * 
+   * @param seed the random seed
+   * @param handlers the handlers to choose from
+   * @return a {@link RandomHandler}
+   * @throws IllegalArgumentException if no handlers are specified
+   * @since 2.1.0
+   */
+  public static RandomHandler randomOf(long seed, Handler... handlers) {
+    return new RandomHandler(seed, null, handlers);
+  }
+  
+  /**
+   * Creates a {@link Handler} that delegates each request to one of the specified handlers,
+   * chosen at random with a probability proportional to its weight.
+   * <p>
+   * See {@link RandomHandler} for details.
+   * 
+   * @param seed the random seed
+   * @param weights the relative weight of each handler, in the same order as the handlers
+   * @param handlers the handlers to choose from
+   * @return a {@link RandomHandler}
+   * @throws IllegalArgumentException if no handlers are specified, if the number of weights is
+   *   wrong, if any weight is negative, or if all the weights are zero
+   * @since 2.1.0
+   */
+  public static RandomHandler randomOf(long seed, double[] weights, Handler... handlers) {
+    return new RandomHandler(seed, weights, handlers);
+  }
+  
+  /**
+   * Creates a stateful {@link Handler} that delegates to a series of handlers, each for a fixed
+   * amount of time or a fixed number of requests.
+   * <p>
+   * The returned {@link TimelineHandler} has no phases yet; see that class for how to add them.
+   * 
+   * @return a {@link TimelineHandler}
+   * @since 2.1.0
+   */
+  public static TimelineHandler timeline() {
+    return new TimelineHandler();
+  }
+  
+  /**
+   * Creates a {@link Handler} that passes requests to another handler at no more than a fixed
+   * rate, and responds to any others with a 429 status and a {@code Retry-After} header.
+   * <p>
+   * See {@link RateLimitHandler} for details.
+   * 
+   * @param permitsPerSecond the sustained rate of requests that are allowed
+   * @param burst the number of requests that are allowed at once, after a quiet period
+   * @param handler the handler for requests that are allowed
+   * @return a {@link RateLimitHandler}
+   * @throws IllegalArgumentException if the rate is not positive or the burst is less than 1
+   * @since 2.1.0
+   */
+  public static RateLimitHandler rateLimit(double permitsPerSecond, int burst, Handler handler) {
+    return new RateLimitHandler(permitsPerSecond, burst, handler);
+  }
+  
+  /**
+   * Creates a {@link Handler} that limits how many requests another handler can be processing at
+   * once, responding to any others with a 503 status.
+   * <p>
+   * See {@link ConcurrencyLimitHandler} for details, including how to queue requests instead of
+   * rejecting them.
+   * 
+   * @param limit the maximum number of requests in flight
+   * @param handler the handler for requests that are admitted
+   * @return a {@link ConcurrencyLimitHandler}
+   * @throws IllegalArgumentException if the limit is less than 1
+   * @since 2.1.0
+   */
+  public static ConcurrencyLimitHandler maxConcurrent(int limit, Handler handler) {
+    return new ConcurrencyLimitHandler(limit, handler);
+  }
+  
+  /**
+   * Creates a {@link Handler} that forwards requests to another HTTP server.
+   * <p>
+   * The request path and query string are appended to the path of the target URI. See
+   * {@link ProxyHandler} for details.
+   * 
+   * @param target the base URI of the upstream server
+   * @return a {@link ProxyHandler}
+   * @since 2.1.0
+   */
+  public static ProxyHandler proxyTo(URI target) {
+    return new ProxyHandler(target);
+  }
+  
+  /**
+   * Creates a {@link Handler} that serves responses that were previously captured with a
+   * {@link ReplayRecorder}.
+   * <p>
+   * Requests are matched to recorded responses by their method, path, query string, and body.
+   * If the same request was recorded more than once, the recorded responses are served in order,
+   * and then the last one is repeated. A request that does not match any recorded request will
+   * receive a 500 error.
+   * <p>
+   * The file is memory-mapped rather than loaded into the heap; only an index of the recorded
+   * requests is kept in memory.
+   * 
+   * @param file a file that was written by {@link ReplayRecorder}
+   * @return a {@link Handler}
+   * @since 2.1.0
+   */
+  public static Handler replay(Path file) {
+    return new ReplayHandler(file);
+  }
+  
   /**
    * Shortcut handlers for simulating a Server-Sent Events stream.
    */
@@ -252,13 +637,14 @@ public abstract class Handlers {
     }
     
     /**
-     * Writes an SSE comment line.
+     * Writes an SSE comment line. If the text contains line breaks, each line is written as a
+     * separate comment.
      * 
      * @param text the content that should appear after the colon
      * @return a {@link Handler}
      */
     public static Handler comment(String text) {
-      return writeChunkString(":" + text + "\n");
+      return writeChunk(new SSEFrameBuilder().comment(text).toByteArray());
     }
     
     /**
@@ -268,27 +654,41 @@ public abstract class Handlers {
      * @return a {@link Handler}
      */
     public static Handler event(String content) {
-      return writeChunkString(content + "\n\n");
+      return writeChunk((content + "\n\n").getBytes(Charset.forName("UTF-8")));
     }
     
     /**
-     * Writes an SSE event created from individual fields.
+     * Writes an SSE event created from individual fields. If the data contains line breaks,
+     * each line is written as a separate "data" field.
      * 
      * @param message the "event" field
      * @param data the "data" field
      * @return a {@link Handler}
      */
     public static Handler event(String message, String data) {
-      return event("event: " + message + "\ndata: " + data);
+      return writeChunk(new SSEFrameBuilder().event(message).data(data).end().toByteArray());
     }
     
     /**
-     * Waits indefinitely without closing the stream. Equivalent to {@link Handlers#hang()}.
+     * Waits indefinitely without closing the stream. Equivalent to {@link Handlers#hang()}: the
+     * stream stays open, without using a handler thread, until the server is closed or
+     * {@link HttpServer#releaseParkedConnections()} is called.
      * 
      * @return a {@link Handler}
      */
     public static Handler leaveOpen() {
       return hang();
     }
+
+    /**
+     * Creates a handler that keeps a stream open for every request, and sends events to all of
+     * the connected clients when you call {@link SSEBroadcaster#publish(String, String)}.
+     *
+     * @return an {@link SSEBroadcaster}
+     * @since 2.1.0
+     */
+    public static SSEBroadcaster broadcaster() {
+      return new SSEBroadcaster();
+    }
   }
 }
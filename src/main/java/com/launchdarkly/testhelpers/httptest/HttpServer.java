@@ -36,6 +36,23 @@ public final class HttpServer implements Closeable {
      */
     int start() throws IOException;
     
+    /**
+     * Returns the number of requests that are parked by {@link RequestContext#park()}.
+     * 
+     * @return the number of parked requests
+     * @since 2.1.0
+     */
+    default int getParkedCount() {
+      return 0;
+    }
+    
+    /**
+     * Completes the stages returned by {@link RequestContext#park()} for all parked requests.
+     * 
+     * @since 2.1.0
+     */
+    default void releaseParked() {}
+    
     /**
      * Factory pattern for the server abstraction.
      * 
@@ -122,14 +139,13 @@ public final class HttpServer implements Closeable {
   
   private static HttpServer startInternal(int port, Handler handler, ServerTLSConfiguration tlsConfig) {
     RequestRecorder recorder = new RequestRecorder();
-    Handler rootHandler = ctx -> {
+    AsyncHandler rootHandler = ctx -> {
       recorder.apply(ctx);
-      try {
-        handler.apply(ctx);
-      } catch (Exception e) {
+      return AsyncSupport.apply(handler, ctx).exceptionally(e -> {
         ctx.setStatus(500);
-        ctx.write(e.toString().getBytes());
-      }
+        ctx.write(AsyncSupport.asRuntimeException(e).toString().getBytes());
+        return null;
+      });
     };
     
     Delegate delegate = HttpServerImpl.factory().createServerDelegate(port, rootHandler, tlsConfig);
@@ -194,8 +210,39 @@ public final class HttpServer implements Closeable {
     return recorder;
   }
   
+  /**
+   * Returns the number of connections that are currently held open by {@link Handlers#hang()},
+   * {@link Handlers.SSE#leaveOpen()}, or any other use of {@link RequestContext#park()}.
+   * <p>
+   * A parked connection does not use a handler thread, but it is not free: the server's
+   * underlying HTTP implementation has a thread for each connection, and that thread stays
+   * blocked sending the response until the response ends. Parking saves only the handler thread.
+   * 
+   * @return the number of parked connections
+   * @since 2.1.0
+   */
+  public int getParkedConnectionCount() {
+    return delegate.getParkedCount();
+  }
+  
+  /**
+   * Releases all connections that are currently held open by {@link Handlers#hang()},
+   * {@link Handlers.SSE#leaveOpen()}, or any other use of {@link RequestContext#park()}.
+   * <p>
+   * The handlers for those requests then finish normally, so a streaming response ends cleanly
+   * rather than with an error. The server keeps running, so this is a way to make many clients
+   * lose their streams at once and reconnect.
+   * 
+   * @since 2.1.0
+   */
+  public void releaseParkedConnections() {
+    delegate.releaseParked();
+  }
+  
   /**
    * Shuts down the server.
+   * <p>
+   * Any parked connections are released first, as if by {@link #releaseParkedConnections()}.
    */
   @Override
   public void close() {
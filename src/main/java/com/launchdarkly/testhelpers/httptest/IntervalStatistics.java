@@ -0,0 +1,122 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary statistics for the time intervals between a series of events, such as the arrival times
+ * of requests.
+ * <p>
+ * You can get an instance from {@link RequestRecorder#getInterArrivalStatistics()}, or create one
+ * from any set of {@link System#nanoTime()} timestamps with {@link #fromTimestamps(long...)}:
+ *
+ * <pre><code>
+ *     // ... let the client poll for a while
+ *     IntervalStatistics stats = server.getRecorder().getInterArrivalStatistics();
+ *     assertThat(stats.getMinNanos(), greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(30)));
+ * </code></pre>
+ *
+ * All values are in nanoseconds. If there were fewer than two events, there are no intervals, and
+ * all of the values are zero.
+ *
+ * @since 2.1.0
+ */
+public final class IntervalStatistics {
+  private final long[] sortedIntervals;
+  private final double mean;
+
+  private IntervalStatistics(long[] sortedIntervals) {
+    this.sortedIntervals = sortedIntervals;
+    double total = 0;
+    for (long interval: sortedIntervals) {
+      total += interval;
+    }
+    this.mean = sortedIntervals.length == 0 ? 0 : total / sortedIntervals.length;
+  }
+
+  /**
+   * Computes statistics for the intervals between consecutive timestamps. The timestamps do not
+   * need to be in order.
+   *
+   * @param timestamps {@link System#nanoTime()} values
+   * @return the statistics
+   */
+  public static IntervalStatistics fromTimestamps(long... timestamps) {
+    long[] sorted = Arrays.copyOf(timestamps, timestamps.length);
+    Arrays.sort(sorted);
+    long[] intervals = new long[Math.max(0, sorted.length - 1)];
+    for (int i = 0; i < intervals.length; i++) {
+      intervals[i] = sorted[i + 1] - sorted[i];
+    }
+    Arrays.sort(intervals);
+    return new IntervalStatistics(intervals);
+  }
+
+  /**
+   * Returns the number of intervals, which is one less than the number of events.
+   *
+   * @return the number of intervals
+   */
+  public int getCount() {
+    return sortedIntervals.length;
+  }
+
+  /**
+   * Returns the shortest interval.
+   *
+   * @return the minimum in nanoseconds
+   */
+  public long getMinNanos() {
+    return sortedIntervals.length == 0 ? 0 : sortedIntervals[0];
+  }
+
+  /**
+   * Returns the longest interval.
+   *
+   * @return the maximum in nanoseconds
+   */
+  public long getMaxNanos() {
+    return sortedIntervals.length == 0 ? 0 : sortedIntervals[sortedIntervals.length - 1];
+  }
+
+  /**
+   * Returns the mean interval.
+   *
+   * @return the mean in nanoseconds
+   */
+  public double getMeanNanos() {
+    return mean;
+  }
+
+  /**
+   * Returns a percentile of the intervals, using the nearest-rank method: the smallest interval
+   * that is greater than or equal to the given percentage of all intervals. For instance,
+   * {@code getPercentileNanos(50)} is the median, and {@code getPercentileNanos(100)} is the
+   * maximum.
+   *
+   * @param percentile a number from 0 to 100
+   * @return the percentile value in nanoseconds
+   * @throws IllegalArgumentException if the percentile is out of range
+   */
+  public long getPercentileNanos(double percentile) {
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("percentile must be from 0 to 100");
+    }
+    if (sortedIntervals.length == 0) {
+      return 0;
+    }
+    int rank = (int)Math.ceil(percentile / 100 * sortedIntervals.length);
+    return sortedIntervals[Math.max(0, rank - 1)];
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", min=" + millis(getMinNanos()) + ", mean=" + millis(mean)
+        + ", p50=" + millis(getPercentileNanos(50)) + ", p99=" + millis(getPercentileNanos(99))
+        + ", max=" + millis(getMaxNanos());
+  }
+
+  static String millis(double nanos) {
+    return String.format("%.3fms", nanos / TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
@@ -0,0 +1,266 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A random distribution of response times, for use with {@link Handlers#delay(LatencyDistribution)}.
+ * <p>
+ * Use the static factory methods to create a distribution. Each sample is drawn from a
+ * {@link Random} that is shared by all requests using the same instance; to make a test
+ * reproducible, use {@link #withSeed(long)}, which will produce the same sequence of values every
+ * time (as long as the requests arrive in the same order).
+ *
+ * <pre><code>
+ *     // mostly around 20ms, with an occasional request taking several seconds
+ *     LatencyDistribution latency = LatencyDistribution.logNormal(20, 1.5, TimeUnit.MILLISECONDS)
+ *         .withMaximum(10, TimeUnit.SECONDS)
+ *         .withSeed(12345);
+ *     HttpServer server = HttpServer.start(Handlers.all(
+ *         Handlers.delay(latency),
+ *         Handlers.bodyJson("{}")
+ *     ));
+ * </code></pre>
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @since 2.1.0
+ */
+public final class LatencyDistribution {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @FunctionalInterface
+  private interface Sampler {
+    double nextNanos(Random random);
+  }
+
+  private final Sampler sampler;
+  private final Random random;
+  private final long maxNanos;
+  private final String description;
+
+  private LatencyDistribution(Sampler sampler, Random random, long maxNanos, String description) {
+    this.sampler = sampler;
+    this.random = random;
+    this.maxNanos = maxNanos;
+    this.description = description;
+  }
+
+  private static LatencyDistribution of(Sampler sampler, String description) {
+    return new LatencyDistribution(sampler, new Random(), Long.MAX_VALUE, description);
+  }
+
+  /**
+   * Returns a distribution that always produces the same value.
+   *
+   * @param value the delay
+   * @param unit the time unit, or null for milliseconds
+   * @return a distribution
+   */
+  public static LatencyDistribution fixed(long value, TimeUnit unit) {
+    long nanos = toNanos(value, unit);
+    return of(random -> nanos, "fixed(" + nanos + "ns)");
+  }
+
+  /**
+   * Returns a distribution in which every value between the minimum and the maximum is equally
+   * likely.
+   *
+   * @param min the minimum delay
+   * @param max the maximum delay
+   * @param unit the time unit, or null for milliseconds
+   * @return a distribution
+   * @throws IllegalArgumentException if the minimum is greater than the maximum
+   */
+  public static LatencyDistribution uniform(long min, long max, TimeUnit unit) {
+    if (min > max) {
+      throw new IllegalArgumentException("minimum cannot be greater than maximum");
+    }
+    long minNanos = toNanos(min, unit), range = toNanos(max, unit) - minNanos;
+    return of(random -> minNanos + random.nextDouble() * range,
+        "uniform(" + minNanos + "ns, " + (minNanos + range) + "ns)");
+  }
+
+  /**
+   * Returns a normal (Gaussian) distribution. Negative samples are treated as zero.
+   *
+   * @param mean the mean delay
+   * @param standardDeviation the standard deviation
+   * @param unit the time unit, or null for milliseconds
+   * @return a distribution
+   */
+  public static LatencyDistribution normal(long mean, long standardDeviation, TimeUnit unit) {
+    long meanNanos = toNanos(mean, unit), sdNanos = toNanos(standardDeviation, unit);
+    return of(random -> meanNanos + random.nextGaussian() * sdNanos,
+        "normal(" + meanNanos + "ns, " + sdNanos + "ns)");
+  }
+
+  /**
+   * Returns a log-normal distribution, which is a common model for service response times: most
+   * values are close to the median, but there is a long tail of slower ones.
+   * <p>
+   * The logarithm of each value is normally distributed around the logarithm of the median, with
+   * standard deviation {@code sigma}. For instance, with a sigma of 1, about 16% of values are more
+   * than e (2.7) times the median, and about 2% are more than e<sup>2</sup> (7.4) times the median.
+   *
+   * @param median the median delay
+   * @param sigma the shape parameter; larger values make the tail longer
+   * @param unit the time unit, or null for milliseconds
+   * @return a distribution
+   */
+  public static LatencyDistribution logNormal(long median, double sigma, TimeUnit unit) {
+    long medianNanos = toNanos(median, unit);
+    return of(random -> medianNanos * Math.exp(sigma * random.nextGaussian()),
+        "logNormal(" + medianNanos + "ns, " + sigma + ")");
+  }
+
+  /**
+   * Returns a Pareto distribution, for modeling a heavy tail: no value is less than the minimum,
+   * and the probability of a value greater than {@code x} falls off as
+   * {@code (minimum / x)^alpha}.
+   * <p>
+   * With a small alpha the values can be extremely large, so you may want to use
+   * {@link #withMaximum(long, TimeUnit)} as well.
+   *
+   * @param minimum the minimum delay
+   * @param alpha the shape parameter; smaller values make the tail heavier
+   * @param unit the time unit, or null for milliseconds
+   * @return a distribution
+   * @throws IllegalArgumentException if alpha is not positive
+   */
+  public static LatencyDistribution pareto(long minimum, double alpha, TimeUnit unit) {
+    if (!(alpha > 0)) {
+      throw new IllegalArgumentException("alpha must be positive");
+    }
+    long minNanos = toNanos(minimum, unit);
+    // 1 - nextDouble() is in (0, 1], so we never divide by zero
+    return of(random -> minNanos / Math.pow(1 - random.nextDouble(), 1 / alpha),
+        "pareto(" + minNanos + "ns, " + alpha + ")");
+  }
+
+  /**
+   * Returns a distribution that reproduces measured response times, read from a file.
+   * <p>
+   * Each line of the file contains a delay, optionally followed by whitespace or a comma and a
+   * weight, which is how many times that delay was observed; the default weight is 1. So the file
+   * can either be a list of raw measurements or a histogram. Blank lines, and lines beginning with
+   * {@code #}, are ignored. Delays can have a fractional part.
+   *
+   * <pre>
+   *     # latency in ms, count
+   *     12, 5120
+   *     15, 2210
+   *     40, 96
+   *     800, 3
+   * </pre>
+   *
+   * Each sample is one of the delays in the file, chosen with a probability proportional to its
+   * weight.
+   *
+   * @param file the file path
+   * @param unit the time unit of the values in the file, or null for milliseconds
+   * @return a distribution
+   * @throws IllegalArgumentException if the file is empty or has a line that is not in this format
+   * @throws RuntimeException if the file cannot be read
+   */
+  public static LatencyDistribution empirical(Path file, TimeUnit unit) {
+    double nanosPerUnit = toNanos(1, unit);
+    List<double[]> entries = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(file, UTF8)) {
+      int lineNumber = 0;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s*,\\s*|\\s+");
+        try {
+          double value = Double.parseDouble(fields[0]);
+          double weight = fields.length > 1 ? Double.parseDouble(fields[1]) : 1;
+          if (fields.length > 2 || value < 0 || weight < 0 || Double.isNaN(value) || Double.isNaN(weight)) {
+            throw new NumberFormatException();
+          }
+          if (weight > 0) {
+            entries.add(new double[] { value * nanosPerUnit, weight });
+          }
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("invalid latency data at " + file + " line " + lineNumber);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    int n = entries.size();
+    double[] values = new double[n], cumulativeWeights = new double[n];
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      values[i] = entries.get(i)[0];
+      total += entries.get(i)[1];
+      cumulativeWeights[i] = total;
+    }
+    if (!(total > 0)) {
+      throw new IllegalArgumentException("no latency data in " + file);
+    }
+    double totalWeight = total;
+    return of(random -> {
+      int i = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * totalWeight);
+      // a miss returns (-insertionPoint - 1); the insertion point is the entry whose range we're in
+      return values[i >= 0 ? i + 1 : -i - 1];
+    }, "empirical(" + file + ")");
+  }
+
+  /**
+   * Returns a copy of this distribution that uses its own random number generator, initialized
+   * with the specified seed.
+   *
+   * @param seed the random seed
+   * @return a new distribution
+   */
+  public LatencyDistribution withSeed(long seed) {
+    return new LatencyDistribution(sampler, new Random(seed), maxNanos, description);
+  }
+
+  /**
+   * Returns a copy of this distribution in which any value greater than the maximum is replaced by
+   * the maximum.
+   *
+   * @param max the maximum delay
+   * @param unit the time unit, or null for milliseconds
+   * @return a new distribution
+   */
+  public LatencyDistribution withMaximum(long max, TimeUnit unit) {
+    return new LatencyDistribution(sampler, random, toNanos(max, unit), description);
+  }
+
+  /**
+   * Draws the next value from the distribution.
+   *
+   * @return a delay in nanoseconds; never negative
+   */
+  public long nextNanos() {
+    double value = sampler.nextNanos(random);
+    if (!(value > 0)) {
+      return 0;
+    }
+    return value >= maxNanos ? maxNanos : (long)value;
+  }
+
+  @Override
+  public String toString() {
+    return maxNanos == Long.MAX_VALUE ? description : (description + " max " + maxNanos + "ns");
+  }
+
+  private static long toNanos(long value, TimeUnit unit) {
+    return (unit == null ? TimeUnit.MILLISECONDS : unit).toNanos(value);
+  }
+}
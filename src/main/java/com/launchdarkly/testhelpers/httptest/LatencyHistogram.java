@@ -0,0 +1,172 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative values, such as latencies in nanoseconds.
+ * <p>
+ * Values are counted in logarithmic buckets that each cover a range of less than 1% of their
+ * lower bound, so the memory used is fixed (about 60KB) regardless of how many values are
+ * recorded, and any reported percentile is within 1% of the true value.
+ * <p>
+ * When measuring latency under load, a slow response also delays the requests that should have
+ * been sent while it was outstanding, so a tool that only measures the requests it actually sent
+ * will under-report the latency distribution ("coordinated omission"). If you know the interval
+ * at which requests were meant to be sent, {@link #recordValueWithExpectedInterval(long, long)}
+ * compensates for this by also recording the latencies that the missing requests would have seen.
+ *
+ * @since 2.1.0
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalSum = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   *
+   * @param value the value
+   */
+  public void recordValue(long value) {
+    long v = Math.max(0, value);
+    counts.incrementAndGet(bucketIndex(v));
+    totalCount.incrementAndGet();
+    totalSum.addAndGet(v);
+    min.accumulateAndGet(v, Math::min);
+    max.accumulateAndGet(v, Math::max);
+  }
+
+  /**
+   * Records a value, correcting for coordinated omission.
+   * <p>
+   * If the value is greater than {@code expectedInterval}, this also records the values
+   * {@code value - expectedInterval}, {@code value - 2 * expectedInterval}, and so on, down to
+   * {@code expectedInterval}: these are the latencies that would have been seen by requests that
+   * were supposed to be sent at the expected interval while this one was outstanding.
+   *
+   * @param value the value
+   * @param expectedInterval the expected interval between values; zero or negative means there
+   *   is no correction
+   */
+  public void recordValueWithExpectedInterval(long value, long expectedInterval) {
+    recordValue(value);
+    if (expectedInterval > 0) {
+      for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+        recordValue(missing);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns the smallest value recorded.
+   *
+   * @return the minimum, or zero if no values were recorded
+   */
+  public long getMin() {
+    return getCount() == 0 ? 0 : min.get();
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return the maximum, or zero if no values were recorded
+   */
+  public long getMax() {
+    return getCount() == 0 ? 0 : max.get();
+  }
+
+  /**
+   * Returns the arithmetic mean of the values recorded.
+   *
+   * @return the mean, or zero if no values were recorded
+   */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double)totalSum.get() / count;
+  }
+
+  /**
+   * Returns the value at a percentile: that is, a value such that the specified percentage of
+   * recorded values are less than or equal to it.
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the value at that percentile, or zero if no values were recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.max(getMin(), Math.min(getMax(), highestValueInBucket(i)));
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Adds all of the values from another histogram to this one.
+   *
+   * @param other the other histogram
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length(); i++) {
+      long n = other.counts.get(i);
+      if (n != 0) {
+        counts.addAndGet(i, n);
+      }
+    }
+    if (other.getCount() != 0) {
+      totalCount.addAndGet(other.getCount());
+      totalSum.addAndGet(other.totalSum.get());
+      min.accumulateAndGet(other.min.get(), Math::min);
+      max.accumulateAndGet(other.max.get(), Math::max);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d, min=%d, mean=%.1f, p50=%d, p99=%d, p99.9=%d, max=%d",
+        getCount(), getMin(), getMean(), getValueAtPercentile(50), getValueAtPercentile(99),
+        getValueAtPercentile(99.9), getMax());
+  }
+
+  // Values below SUB_BUCKET_COUNT each get their own bucket. Above that, each power of two is
+  // divided into SUB_BUCKET_COUNT / 2 equal buckets.
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int)value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS;
+    return (shift << SUB_BUCKET_HALF_BITS) + (int)(value >>> shift);
+  }
+
+  static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index >>> SUB_BUCKET_HALF_BITS) - 1;
+    long subBucket = index - ((long)shift << SUB_BUCKET_HALF_BITS);
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
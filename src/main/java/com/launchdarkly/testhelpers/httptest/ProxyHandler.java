@@ -0,0 +1,337 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.ToLongFunction;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link Handler} that forwards requests to another HTTP server and relays its responses.
+ * <p>
+ * Use {@link Handlers#proxyTo(URI)} to create an instance. Connections to the upstream server
+ * are kept alive and reused between requests. Response bodies are relayed to the client as they
+ * are received, rather than being buffered; if the upstream response had a {@code Content-Length},
+ * so does the relayed response, and otherwise it uses chunked encoding. Hop-by-hop headers such as
+ * {@code Connection} are not forwarded in either direction.
+ * <p>
+ * You can simulate a slow intermediary with {@link #withRequestDelay(ToLongFunction)} and
+ * {@link #withResponseDelay(ToLongFunction)}. If the upstream server cannot be reached, the
+ * client receives a 502 error.
+ *
+ * @since 2.1.0
+ */
+public final class ProxyHandler implements Handler, Closeable {
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 8192;
+  private static final ImmutableSet<String> HOP_BY_HOP_HEADERS = ImmutableSet.of(
+      "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "proxy-connection",
+      "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length");
+
+  private final String host;
+  private final int port;
+  private final String hostHeader;
+  private final String basePath;
+  private final SocketFactory socketFactory;
+  private final ConcurrentLinkedDeque<Connection> idleConnections = new ConcurrentLinkedDeque<>();
+  private volatile ToLongFunction<RequestInfo> requestDelay;
+  private volatile ToLongFunction<RequestInfo> responseDelay;
+
+  ProxyHandler(URI target) {
+    boolean secure = "https".equalsIgnoreCase(target.getScheme());
+    this.host = target.getHost();
+    this.port = target.getPort() > 0 ? target.getPort() : (secure ? 443 : 80);
+    this.hostHeader = target.getPort() > 0 ? host + ":" + port : host;
+    String path = target.getRawPath() == null ? "" : target.getRawPath();
+    this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    this.socketFactory = secure ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+  }
+
+  /**
+   * Specifies a delay to be applied to each request before it is forwarded.
+   *
+   * @param delayMillis a function that computes the delay in milliseconds for a request
+   * @return the same instance
+   */
+  public ProxyHandler withRequestDelay(ToLongFunction<RequestInfo> delayMillis) {
+    this.requestDelay = delayMillis;
+    return this;
+  }
+
+  /**
+   * Specifies a delay to be applied to each response after the upstream server has responded,
+   * before the response is relayed to the client.
+   *
+   * @param delayMillis a function that computes the delay in milliseconds for a request
+   * @return the same instance
+   */
+  public ProxyHandler withResponseDelay(ToLongFunction<RequestInfo> delayMillis) {
+    this.responseDelay = delayMillis;
+    return this;
+  }
+
+  /**
+   * Returns the number of upstream connections that are currently idle in the pool.
+   *
+   * @return the number of idle connections
+   */
+  public int getIdleConnectionCount() {
+    return idleConnections.size();
+  }
+
+  /**
+   * Closes any idle upstream connections.
+   */
+  @Override
+  public void close() {
+    Connection conn;
+    while ((conn = idleConnections.pollFirst()) != null) {
+      conn.close();
+    }
+  }
+
+  @Override
+  public void apply(RequestContext context) {
+    RequestInfo request = context.getRequest();
+    sleep(requestDelay, request);
+
+    byte[] requestData = serializeRequest(request);
+    Connection conn = null;
+    Response response = null;
+    for (int attempt = 0; response == null; attempt++) {
+      // Only the first attempt can use a pooled connection, since the others in the pool may be
+      // just as stale as the one that failed.
+      conn = attempt == 0 ? idleConnections.pollFirst() : null;
+      boolean reused = conn != null;
+      try {
+        if (conn == null) {
+          conn = new Connection(socketFactory.createSocket(host, port));
+        }
+        conn.out.write(requestData);
+        conn.out.flush();
+        response = conn.readResponseHead();
+      } catch (IOException e) {
+        if (conn != null) {
+          conn.close();
+        }
+        // A pooled connection may have been closed by the server while it was idle; in that
+        // case we try again with a new connection, but only once.
+        if (!reused || attempt > 0) {
+          context.setStatus(502);
+          return;
+        }
+      }
+    }
+
+    sleep(responseDelay, request);
+
+    context.setStatus(response.status);
+    for (String[] h: response.headers) {
+      if (!HOP_BY_HOP_HEADERS.contains(h[0].toLowerCase(Locale.US))) {
+        context.addHeader(h[0], h[1]);
+      }
+    }
+    boolean reusable = false;
+    try {
+      if (!response.hasBody(request.getMethod())) {
+        context.write(null);
+        reusable = response.keepAlive;
+      } else {
+        if (!response.chunked && response.contentLength >= 0) {
+          context.setFixedLength(response.contentLength);
+        } else {
+          context.setChunked();
+        }
+        reusable = relayBody(conn, response, context) && response.keepAlive;
+      }
+    } catch (IOException e) {
+      // the upstream connection failed partway through the response, so the client will see
+      // a truncated response
+    } finally {
+      if (reusable) {
+        idleConnections.addFirst(conn);
+      } else {
+        conn.close();
+      }
+    }
+  }
+
+  private byte[] serializeRequest(RequestInfo request) {
+    StringBuilder head = new StringBuilder();
+    head.append(request.getMethod()).append(' ').append(basePath).append(request.getPath());
+    if (request.getQuery() != null) {
+      head.append(request.getQuery());
+    }
+    head.append(" HTTP/1.1\r\nHost: ").append(hostHeader).append("\r\n");
+    RequestHeaders headers = request.getHeaders();
+    for (int i = 0; i < headers.size(); i++) {
+      String name = headers.getName(i);
+      if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase(Locale.US))) {
+        head.append(name).append(": ").append(headers.getValue(i)).append("\r\n");
+      }
+    }
+    byte[] body = request.bodyBytes() == null ? new byte[0] : request.bodyBytes();
+    if (body.length > 0 || request.getHeader("content-length") != null) {
+      head.append("Content-Length: ").append(body.length).append("\r\n");
+    }
+    head.append("\r\n");
+    byte[] headBytes = head.toString().getBytes(UTF8);
+    byte[] ret = new byte[headBytes.length + body.length];
+    System.arraycopy(headBytes, 0, ret, 0, headBytes.length);
+    System.arraycopy(body, 0, ret, headBytes.length, body.length);
+    return ret;
+  }
+
+  private static boolean relayBody(Connection conn, Response response, RequestContext context) throws IOException {
+    byte[] buf = new byte[BUFFER_SIZE];
+    if (response.chunked) {
+      while (true) {
+        String sizeLine = conn.readLine();
+        int semicolon = sizeLine.indexOf(';');
+        long size = Long.parseLong((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+        if (size == 0) {
+          while (!conn.readLine().isEmpty()) {} // discard any trailers
+          return true;
+        }
+        relayFixedLength(conn, size, buf, context);
+        conn.readLine(); // CRLF after chunk data
+      }
+    }
+    if (response.contentLength >= 0) {
+      relayFixedLength(conn, response.contentLength, buf, context);
+      return true;
+    }
+    // no framing information, so the body ends when the server closes the connection
+    int n;
+    while ((n = conn.in.read(buf)) > 0) {
+      context.write(copyOf(buf, n));
+    }
+    return false;
+  }
+
+  private static void relayFixedLength(Connection conn, long length, byte[] buf, RequestContext context)
+      throws IOException {
+    long remaining = length;
+    while (remaining > 0) {
+      int n = conn.in.read(buf, 0, (int)Math.min(buf.length, remaining));
+      if (n < 0) {
+        throw new IOException("unexpected end of response from upstream server");
+      }
+      context.write(copyOf(buf, n));
+      remaining -= n;
+    }
+  }
+
+  private static byte[] copyOf(byte[] buf, int n) {
+    byte[] ret = new byte[n];
+    System.arraycopy(buf, 0, ret, 0, n);
+    return ret;
+  }
+
+  private static void sleep(ToLongFunction<RequestInfo> delayFn, RequestInfo request) {
+    if (delayFn != null) {
+      long delay = delayFn.applyAsLong(request);
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private static final class Response {
+    int status;
+    final List<String[]> headers = new ArrayList<>();
+    boolean chunked;
+    long contentLength = -1;
+    boolean keepAlive = true;
+
+    boolean hasBody(String method) {
+      return !method.equals("HEAD") && status >= 200 && status != 204 && status != 304;
+    }
+  }
+
+  private static final class Connection {
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    Response readResponseHead() throws IOException {
+      Response r = new Response();
+      String statusLine;
+      do { // skip any "100 Continue" responses
+        statusLine = readLine();
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+          throw new IOException("invalid status line from upstream server: " + statusLine);
+        }
+        r.status = Integer.parseInt(parts[1]);
+        r.keepAlive = !parts[0].equals("HTTP/1.0");
+        r.headers.clear();
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+          int colon = line.indexOf(':');
+          if (colon > 0) {
+            r.headers.add(new String[] { line.substring(0, colon).trim(), line.substring(colon + 1).trim() });
+          }
+        }
+      } while (r.status == 100);
+      for (String[] h: r.headers) {
+        String name = h[0].toLowerCase(Locale.US);
+        if (name.equals("transfer-encoding") && h[1].toLowerCase(Locale.US).contains("chunked")) {
+          r.chunked = true;
+        } else if (name.equals("content-length")) {
+          r.contentLength = Long.parseLong(h[1]);
+        } else if (name.equals("connection")) {
+          r.keepAlive = !h[1].equalsIgnoreCase("close");
+        }
+      }
+      return r;
+    }
+
+    String readLine() throws IOException {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b < 0) {
+          throw new IOException("upstream server closed connection");
+        }
+        if (b != '\r') {
+          buf.write(b);
+        }
+      }
+      return new String(buf.toByteArray(), ASCII);
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {}
+    }
+  }
+}
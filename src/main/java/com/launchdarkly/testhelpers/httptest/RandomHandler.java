@@ -0,0 +1,81 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A delegator that passes each request to one of several handlers, chosen at random.
+ * <p>
+ * Use {@link Handlers#randomOf(long, Handler...)} or
+ * {@link Handlers#randomOf(long, double[], Handler...)} to create an instance. The choices come from
+ * a seeded generator, so a test that sends requests in the same order gets the same sequence of
+ * handlers every time:
+ *
+ * <pre><code>
+ *     // about 1 request in 10 fails, always the same ones
+ *     RandomHandler handler = Handlers.randomOf(12345, new double[] { 9, 1 },
+ *         Handlers.status(200), Handlers.status(503));
+ * </code></pre>
+ *
+ * If you want to change the weights while the server is running, use
+ * {@link WeightedHandlerSwitcher} instead.
+ * <p>
+ * The generator is SplitMix64, whose entire state is a counter, so each request takes the next
+ * value with a single atomic addition rather than a lock; the weights are kept in an alias table,
+ * so choosing a handler takes constant time however many there are.
+ *
+ * @since 2.1.0
+ */
+public final class RandomHandler implements AsyncHandler {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final Handler[] handlers;
+  private final LongAdder[] hits;
+  private final AliasTable table;
+  private final AtomicLong seed;
+
+  RandomHandler(long seed, double[] weights, Handler[] handlers) {
+    if (handlers.length == 0) {
+      throw new IllegalArgumentException("must specify at least one handler");
+    }
+    if (weights == null) {
+      weights = new double[handlers.length];
+      Arrays.fill(weights, 1);
+    } else if (weights.length != handlers.length) {
+      throw new IllegalArgumentException("expected " + handlers.length + " weights");
+    }
+    this.handlers = Arrays.copyOf(handlers, handlers.length);
+    this.table = new AliasTable(weights);
+    this.seed = new AtomicLong(seed);
+    this.hits = new LongAdder[handlers.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    int i = table.next(mix(seed.addAndGet(GOLDEN_GAMMA)));
+    hits[i].increment();
+    return AsyncSupport.apply(handlers[i], context);
+  }
+
+  /**
+   * Returns the number of requests that have been sent to one of the handlers.
+   *
+   * @param index the index of the handler, in the same order as the handler parameters
+   * @return the number of requests
+   */
+  public long getHitCount(int index) {
+    return hits[index].sum();
+  }
+
+  // the SplitMix64 output function
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
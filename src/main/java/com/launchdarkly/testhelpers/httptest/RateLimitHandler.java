@@ -0,0 +1,151 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A delegator that simulates server-side throttling, passing requests to another handler at no
+ * more than a fixed rate, and rejecting any others with a 429 status.
+ * <p>
+ * Use {@link Handlers#rateLimit(double, int, Handler)} to create an instance. The limit is a token
+ * bucket: it holds up to {@code burst} permits, each request uses one, and permits are added back
+ * at {@code permitsPerSecond}. A rejected response has a {@code Retry-After} header giving the
+ * number of seconds until a permit will be available, rounded up.
+ * <p>
+ * By default, all requests share one bucket. To give each client its own bucket, use
+ * {@link #withKey(Function)} or one of its shortcuts:
+ *
+ * <pre><code>
+ *     RateLimitHandler limiter = Handlers.rateLimit(10, 20, Handlers.status(200))
+ *         .withHeaderKey("Authorization");
+ *     try (HttpServer server = HttpServer.start(limiter)) {
+ *         // ... run the client
+ *         assertThat(limiter.getRejectedCount(), greaterThan(0L));
+ *     }
+ * </code></pre>
+ *
+ * The bucket is stored as a single atomic value per key (the time at which it would be full),
+ * so checking it does not take a lock.
+ *
+ * @since 2.1.0
+ */
+public final class RateLimitHandler implements AsyncHandler {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final Handler target;
+  private final long nanosPerPermit;
+  private final long burstNanos;
+  private final AtomicLong globalBucket = new AtomicLong(Long.MIN_VALUE);
+  private final ConcurrentHashMap<String, AtomicLong> keyedBuckets = new ConcurrentHashMap<>();
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private volatile Function<RequestInfo, String> key = null;
+
+  RateLimitHandler(double permitsPerSecond, int burst, Handler target) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive");
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("burst must be at least 1");
+    }
+    this.target = target;
+    this.nanosPerPermit = Math.max(1, (long)(NANOS_PER_SECOND / permitsPerSecond));
+    this.burstNanos = nanosPerPermit * burst;
+  }
+
+  /**
+   * Gives each distinct value of some request property its own bucket.
+   * <p>
+   * Requests for which the function returns null share a single bucket.
+   *
+   * @param key a function that computes the bucket key for a request
+   * @return the same instance
+   */
+  public RateLimitHandler withKey(Function<RequestInfo, String> key) {
+    this.key = key;
+    return this;
+  }
+
+  /**
+   * Gives each distinct value of a request header its own bucket. Equivalent to
+   * {@code withKey(r -> r.getHeader(name))}.
+   *
+   * @param name the header name
+   * @return the same instance
+   */
+  public RateLimitHandler withHeaderKey(String name) {
+    return withKey(r -> r.getHeader(name));
+  }
+
+  /**
+   * Gives each distinct request path its own bucket. Equivalent to
+   * {@code withKey(RequestInfo::getPath)}.
+   *
+   * @return the same instance
+   */
+  public RateLimitHandler withPathKey() {
+    return withKey(RequestInfo::getPath);
+  }
+
+  /**
+   * Returns the number of requests that have been passed to the target handler.
+   *
+   * @return the admitted count
+   */
+  public long getAdmittedCount() {
+    return admitted.get();
+  }
+
+  /**
+   * Returns the number of requests that have been rejected with a 429 status.
+   *
+   * @return the rejected count
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    long waitNanos = tryAcquire(bucketFor(context.getRequest()), System.nanoTime());
+    if (waitNanos == 0) {
+      admitted.incrementAndGet();
+      return AsyncSupport.apply(target, context);
+    }
+    rejected.incrementAndGet();
+    context.setStatus(429);
+    context.setHeader("Retry-After", String.valueOf((waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND));
+    return AsyncSupport.DONE;
+  }
+
+  private AtomicLong bucketFor(RequestInfo request) {
+    Function<RequestInfo, String> k = key;
+    String keyValue = k == null ? null : k.apply(request);
+    if (keyValue == null) {
+      return globalBucket;
+    }
+    return keyedBuckets.computeIfAbsent(keyValue, x -> new AtomicLong(Long.MIN_VALUE));
+  }
+
+  // The bucket's value is the time at which it will be full again, so the number of permits it
+  // holds at any moment is (burstNanos - (fullTime - now)) / nanosPerPermit. Taking a permit moves
+  // that time forward by one permit's worth. Returns 0 if a permit was taken, or else how long
+  // until one will be available.
+  private long tryAcquire(AtomicLong bucket, long now) {
+    while (true) {
+      long fullTime = bucket.get();
+      long base = fullTime == Long.MIN_VALUE || fullTime - now < 0 ? now : fullTime;
+      long newFullTime = base + nanosPerPermit;
+      long excess = newFullTime - now - burstNanos;
+      if (excess > 0) {
+        return excess;
+      }
+      if (bucket.compareAndSet(fullTime, newFullTime)) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ReplayHandler implements Handler {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final MappedByteBuffer data;
+  private final Map<Long, List<Slot>> index;
+
+  // All the recorded exchanges for one request. If the same request was recorded more than once,
+  // the responses are replayed in the order they were recorded, and then the last one is repeated.
+  private static final class Slot {
+    final int requestOffset;
+    final int requestLength;
+    int[] offsets = new int[1];
+    int count = 0;
+    final AtomicInteger next = new AtomicInteger(0);
+
+    Slot(int requestOffset, int requestLength) {
+      this.requestOffset = requestOffset;
+      this.requestLength = requestLength;
+    }
+
+    void add(int offset) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = offset;
+    }
+
+    int nextOffset() {
+      int i = next.getAndIncrement();
+      return offsets[i < count && i >= 0 ? i : count - 1];
+    }
+  }
+
+  ReplayHandler(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("replay files larger than 2GB are not supported");
+      }
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    if (data.remaining() < 8 || data.getInt(0) != ReplayRecorder.MAGIC) {
+      throw new IllegalArgumentException("not a replay file: " + path);
+    }
+    if (data.getInt(4) != ReplayRecorder.VERSION) {
+      throw new IllegalArgumentException("unsupported replay file version: " + data.getInt(4));
+    }
+    index = new HashMap<>();
+    int pos = 8;
+    while (pos + 4 <= data.limit()) {
+      int length = data.getInt(pos);
+      if (pos + 4 + length > data.limit()) {
+        break; // incomplete record at end of file
+      }
+      long key = data.getLong(pos + 4);
+      int requestLength = data.getInt(pos + 12);
+      int requestOffset = pos + 16;
+      // Different requests can have the same hash, so each one gets its own slot.
+      List<Slot> slots = index.get(key);
+      if (slots == null) {
+        slots = new ArrayList<>(1);
+        index.put(key, slots);
+      }
+      Slot slot = findSlot(slots, bytesAt(requestOffset, requestLength));
+      if (slot == null) {
+        slot = new Slot(requestOffset, requestLength);
+        slots.add(slot);
+      }
+      slot.add(requestOffset + requestLength);
+      pos += 4 + length;
+    }
+  }
+
+  @Override
+  public void apply(RequestContext context) {
+    RequestInfo r = context.getRequest();
+    byte[] request = ReplayRecorder.encodeRequest(r);
+    List<Slot> slots = index.get(ReplayRecorder.requestKey(request));
+    Slot slot = slots == null ? null : findSlot(slots, ByteBuffer.wrap(request));
+    if (slot == null) {
+      throw new RuntimeException("no recorded response for " + r.getMethod() + " " + r.getPath());
+    }
+    ByteBuffer record = data.duplicate();
+    record.position(slot.nextOffset());
+    int status = record.getShort();
+    boolean chunked = record.get() != 0;
+    int headerCount = record.getShort() & 0xffff;
+    context.setStatus(status);
+    for (int i = 0; i < headerCount; i++) {
+      context.addHeader(readString(record), readString(record));
+    }
+    byte[] body = new byte[record.getInt()];
+    record.get(body);
+    if (chunked) {
+      context.setChunked();
+    }
+    context.write(body);
+  }
+
+  private Slot findSlot(List<Slot> slots, ByteBuffer request) {
+    for (Slot slot: slots) {
+      if (bytesAt(slot.requestOffset, slot.requestLength).equals(request)) {
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  private ByteBuffer bytesAt(int offset, int length) {
+    ByteBuffer b = data.duplicate();
+    b.limit(offset + length).position(offset);
+    return b;
+  }
+
+  // See ReplayRecorder.writeString().
+  private static String readString(ByteBuffer buf) {
+    int length = buf.getInt();
+    byte[] bytes = new byte[length];
+    buf.get(bytes);
+    return new String(bytes, UTF8);
+  }
+}
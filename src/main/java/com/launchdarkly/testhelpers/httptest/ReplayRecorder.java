@@ -0,0 +1,270 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Records the requests and responses that pass through a handler, so that they can be served
+ * again later by {@link Handlers#replay(Path)}.
+ * <p>
+ * Each exchange is written to the file when the wrapped handler returns. The file uses a compact
+ * binary format: the request's method, path, query string, and body, along with a hash of them
+ * for looking it up quickly, followed by the response status, headers, and body.
+ *
+ * <pre><code>
+ *     try (ReplayRecorder recorder = ReplayRecorder.create(file)) {
+ *         try (HttpServer server = HttpServer.start(recorder.wrap(someRealisticHandler))) {
+ *             // ... do requests ...
+ *         }
+ *     }
+ *     try (HttpServer server = HttpServer.start(Handlers.replay(file))) {
+ *         // ... do the same requests again ...
+ *     }
+ * </code></pre>
+ *
+ * Responses from handlers that never return, such as {@link Handlers#hang()}, are not recorded.
+ * <p>
+ * All IOExceptions are rethrown as RuntimeExceptions so that the test code does
+ * not need to catch or declare them.
+ *
+ * @since 2.1.0
+ */
+public final class ReplayRecorder implements Closeable {
+  static final int MAGIC = 0x4c445250; // "LDRP"
+  static final int VERSION = 3;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final DataOutputStream out;
+  private boolean closed = false;
+
+  private ReplayRecorder(DataOutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Creates a recorder that writes to the specified file. The file is created if it does not
+   * exist, or truncated if it does.
+   *
+   * @param path the file path
+   * @return a {@link ReplayRecorder}
+   */
+  public static ReplayRecorder create(Path path) {
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      return new ReplayRecorder(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns a {@link Handler} that delegates to another handler, recording each request and the
+   * response that the other handler produced.
+   *
+   * @param target the handler that will produce the responses
+   * @return a {@link Handler}
+   */
+  public Handler wrap(Handler target) {
+    return (AsyncHandler)ctx -> {
+      CapturingContext capture = new CapturingContext(ctx);
+      return AsyncSupport.apply(target, capture).thenRun(() -> {
+        write(ctx.getRequest(), capture);
+      });
+    };
+  }
+
+  /**
+   * Writes any buffered data and closes the file.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      try {
+        out.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  // The request fields that identify an exchange, in the same form as they are stored in the file,
+  // so that ReplayHandler can compare them byte for byte.
+  static byte[] encodeRequest(RequestInfo request) {
+    try {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(buf);
+      writeString(out, request.getMethod());
+      writeString(out, request.getPath() == null ? "" : request.getPath());
+      writeString(out, request.getQuery() == null ? "" : request.getQuery());
+      byte[] body = request.bodyBytes() == null ? new byte[0] : request.bodyBytes();
+      out.writeInt(body.length);
+      out.write(body);
+      out.flush();
+      return buf.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Strings are written as UTF-8 with an int length, like the body; DataOutputStream.writeUTF
+  // can't write more than 64KB, which a query string or header value could exceed.
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  // FNV-1a; the fields in the encoded request are length-prefixed, so "ab"+"c" differs from "a"+"bc".
+  static long requestKey(byte[] encodedRequest) {
+    long h = FNV_OFFSET_BASIS;
+    for (byte b: encodedRequest) {
+      h = (h ^ (b & 0xff)) * FNV_PRIME;
+    }
+    return h;
+  }
+
+  private synchronized void write(RequestInfo request, CapturingContext capture) {
+    if (closed) {
+      return;
+    }
+    try {
+      byte[] encodedRequest = encodeRequest(request);
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      DataOutputStream record = new DataOutputStream(buf);
+      record.writeLong(requestKey(encodedRequest));
+      record.writeInt(encodedRequest.length);
+      record.write(encodedRequest);
+      record.writeShort(capture.status);
+      record.writeBoolean(capture.chunked);
+      int headerCount = 0;
+      for (List<String> values: capture.headers.values()) {
+        headerCount += values.size();
+      }
+      record.writeShort(headerCount);
+      for (Map.Entry<String, List<String>> h: capture.headers.entrySet()) {
+        for (String value: h.getValue()) {
+          writeString(record, h.getKey());
+          writeString(record, value);
+        }
+      }
+      record.writeInt(capture.body.size());
+      capture.body.writeTo(record);
+      record.flush();
+      out.writeInt(buf.size());
+      buf.writeTo(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static final class CapturingContext implements RequestContext {
+    private final RequestContext wrapped;
+    final Map<String, List<String>> headers = new LinkedHashMap<>();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int status = 200;
+    boolean chunked = false;
+
+    CapturingContext(RequestContext wrapped) {
+      this.wrapped = wrapped;
+    }
+
+    @Override
+    public RequestInfo getRequest() {
+      return wrapped.getRequest();
+    }
+
+    @Override
+    public void setStatus(int status) {
+      this.status = status;
+      wrapped.setStatus(status);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      headers.remove(name.toLowerCase());
+      addCapturedHeader(name, value);
+      wrapped.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      addCapturedHeader(name, value);
+      wrapped.addHeader(name, value);
+    }
+
+    @Override
+    public void setChunked() {
+      chunked = true;
+      wrapped.setChunked();
+    }
+
+    // The whole body is recorded, so it can be replayed as an ordinary response.
+    @Override
+    public void setFixedLength(long contentLength) {
+      wrapped.setFixedLength(contentLength);
+    }
+
+    @Override
+    public void write(byte[] data) {
+      if (data != null) {
+        body.write(data, 0, data.length);
+      }
+      wrapped.write(data);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      body.write(data, offset, length);
+      wrapped.write(data, offset, length);
+    }
+
+    @Override
+    public CompletionStage<Void> writeAsync(byte[] data) {
+      if (data != null) {
+        body.write(data, 0, data.length);
+      }
+      return wrapped.writeAsync(data);
+    }
+
+    @Override
+    public CompletionStage<Void> park() {
+      return wrapped.park();
+    }
+
+    @Override
+    public CompletionStage<Void> whenAborted() {
+      return wrapped.whenAborted();
+    }
+
+    @Override
+    public String getPathParam(int i) {
+      return wrapped.getPathParam(i);
+    }
+
+    private void addCapturedHeader(String name, String value) {
+      List<String> values = headers.get(name.toLowerCase());
+      if (values == null) {
+        values = new ArrayList<>();
+        headers.put(name.toLowerCase(), values);
+      }
+      values.add(value);
+    }
+  }
+}
@@ -1,5 +1,9 @@
 package com.launchdarkly.testhelpers.httptest;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * An abstraction used by {@link Handler} implementations to hide the details of
  * the underlying HTTP server framework.
@@ -40,8 +44,28 @@ public interface RequestContext {
    * <p>
    * It's only valid to call this when {@link #write(byte[])} has not yet been called. After
    * {@link #write(byte[])} is called, the behavior of {@link #setChunked()} is undefined.
+   * <p>
+   * A chunked response cannot have a {@code Content-Length} header, so any such header that was
+   * set is not sent. To stream a response of a known length, use {@link #setFixedLength(long)}.
    */
   void setChunked();
+
+  /**
+   * Turns on streaming of a response with a known length.
+   * <p>
+   * This is like {@link #setChunked()}, in that data is sent as it is written, but the response
+   * has a {@code Content-Length} header instead of using chunked encoding. The handler must write
+   * exactly that many bytes. The same restrictions apply as for {@link #setChunked()}.
+   * <p>
+   * The default implementation calls {@link #setChunked()}, so the response is streamed with
+   * chunked encoding instead.
+   * 
+   * @param contentLength the length of the response body in bytes
+   * @since 2.1.0
+   */
+  default void setFixedLength(long contentLength) {
+    setChunked();
+  }
   
   /**
    * Writes data to the output stream.
@@ -49,6 +73,83 @@ public interface RequestContext {
    * @param data the data to write; null or zero-length data means to only flush the stream
    */
   void write(byte[] data);
+
+  /**
+   * Writes part of a byte array to the output stream.
+   * <p>
+   * This is equivalent to calling {@link #write(byte[])} with a copy of the specified range, but
+   * implementations may be able to avoid making the copy, so that the caller can reuse the array.
+   * 
+   * @param data the data to write
+   * @param offset the starting position in the array
+   * @param length the number of bytes to write
+   * @since 2.1.0
+   */
+  default void write(byte[] data, int offset, int length) {
+    write(offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length));
+  }
+  
+  /**
+   * Writes data to the output stream without waiting for the client to catch up.
+   * <p>
+   * {@link #write(byte[])} blocks if the client has not yet read enough of the earlier output.
+   * This method always accepts the data immediately, and returns a stage that completes once the
+   * buffered output has dropped back below the server's limit, so an {@link AsyncHandler} can wait
+   * for the stage before producing more data without tying up a thread.
+   * <p>
+   * The default implementation calls {@link #write(byte[])}.
+   * 
+   * @param data the data to write; null or zero-length data means to only flush the stream
+   * @return a {@link CompletionStage} that completes when more data can be written, or completes
+   *   exceptionally if the response stream has been closed
+   * @since 2.1.0
+   */
+  default CompletionStage<Void> writeAsync(byte[] data) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    try {
+      write(data);
+      result.complete(null);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+  
+  /**
+   * Holds the connection open until the server releases it, without using a handler thread.
+   * <p>
+   * An {@link AsyncHandler} can return this stage to leave a response, typically a stream,
+   * open indefinitely; {@link Handlers#hang()} does exactly that. The stage completes when
+   * {@link HttpServer#releaseParkedConnections()} is called, or when the server is closed. In
+   * the first case, the handler then finishes normally, so a streaming response is ended cleanly.
+   * <p>
+   * The server's own thread for the connection is still blocked sending the response while it is
+   * parked; see {@link HttpServer#getParkedConnectionCount()}.
+   * <p>
+   * The default implementation returns a stage that never completes.
+   * 
+   * @return a {@link CompletionStage} that completes when the connection is released
+   * @since 2.1.0
+   */
+  default CompletionStage<Void> park() {
+    return new CompletableFuture<>();
+  }
+  
+  /**
+   * Returns a stage that completes if the server gives up on the request before the handler has
+   * finished, because the server was closed.
+   * <p>
+   * An {@link AsyncHandler} that is waiting for something outside of the server, as
+   * {@link Handlers#waitFor(java.util.concurrent.Semaphore)} does, can use this to stop waiting.
+   * <p>
+   * The default implementation returns a stage that never completes.
+   * 
+   * @return a {@link CompletionStage} that completes when the request is aborted
+   * @since 2.1.0
+   */
+  default CompletionStage<Void> whenAborted() {
+    return new CompletableFuture<>();
+  }
   
   /**
    * Returns a path parameter, if any path parameters were captured.
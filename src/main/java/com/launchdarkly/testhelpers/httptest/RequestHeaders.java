@@ -0,0 +1,254 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The headers of a request received by {@link HttpServer}.
+ * <p>
+ * Unlike a map, this keeps every header line in the order that it was received, so if a header
+ * was repeated, all of its values are available from {@link #getAll(String)}. Header names keep
+ * the case that the client sent, and lookups by name are case-insensitive.
+ * <p>
+ * Headers received by {@link HttpServer} are kept as the raw bytes from the request until
+ * something reads them, so a request whose headers are never examined does not pay for parsing
+ * them. After that, the table is a single array of alternating names and values, which is
+ * searched in order; since requests rarely have more than a few dozen headers, this is faster
+ * than hashing and does not need to create a lowercase copy of every name.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @since 2.1.0
+ */
+public final class RequestHeaders {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String[] NO_HEADERS = new String[0];
+  private static final RequestHeaders EMPTY = new RequestHeaders(NO_HEADERS);
+
+  private volatile String[] table; // alternating names and values; null until parsed
+  private byte[] raw; // cleared once parsed
+  private final int rawOffset;
+  private final int rawLength;
+
+  private RequestHeaders(String[] table) {
+    this.table = table;
+    this.rawOffset = 0;
+    this.rawLength = 0;
+  }
+
+  private RequestHeaders(byte[] raw, int offset, int length) {
+    this.raw = raw;
+    this.rawOffset = offset;
+    this.rawLength = length;
+  }
+
+  /**
+   * Returns an instance with no headers.
+   *
+   * @return an empty instance
+   */
+  public static RequestHeaders empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Creates an instance from a list of names and values.
+   *
+   * @param namesAndValues alternating header names and values
+   * @return an instance
+   * @throws IllegalArgumentException if there is an odd number of parameters, or any of them is null
+   */
+  public static RequestHeaders of(String... namesAndValues) {
+    if (namesAndValues.length % 2 != 0) {
+      throw new IllegalArgumentException("must have a value for every name");
+    }
+    for (String s: namesAndValues) {
+      if (s == null) {
+        throw new IllegalArgumentException("header names and values cannot be null");
+      }
+    }
+    return namesAndValues.length == 0 ? EMPTY : new RequestHeaders(namesAndValues.clone());
+  }
+
+  /**
+   * Creates an instance from a map, which can only have one value per header name.
+   *
+   * @param headers a map of header names to values, or null
+   * @return an instance
+   */
+  public static RequestHeaders fromMap(Map<String, String> headers) {
+    if (headers == null || headers.isEmpty()) {
+      return EMPTY;
+    }
+    String[] t = new String[headers.size() * 2];
+    int i = 0;
+    for (Map.Entry<String, String> h: headers.entrySet()) {
+      t[i++] = h.getKey();
+      t[i++] = h.getValue();
+    }
+    return new RequestHeaders(t);
+  }
+
+  /**
+   * Creates an instance from the raw header lines of an HTTP request, which will be parsed only
+   * when they are first accessed.
+   * <p>
+   * Each line is {@code name: value}, and lines end with either CRLF or LF. Parsing stops at
+   * the first empty line. A line that begins with a space or tab is treated as a continuation of
+   * the previous header's value, and any other line without a colon is ignored. The data is
+   * decoded as UTF-8. The array is not copied, so it must not be modified afterward.
+   *
+   * @param data the raw data, not including the request line
+   * @param offset the starting offset in the array
+   * @param length the length of the data
+   * @return an instance
+   */
+  public static RequestHeaders parse(byte[] data, int offset, int length) {
+    return length == 0 ? EMPTY : new RequestHeaders(data, offset, length);
+  }
+
+  /**
+   * Returns the number of header lines.
+   *
+   * @return the number of headers, counting each value of a repeated header separately
+   */
+  public int size() {
+    return table().length / 2;
+  }
+
+  /**
+   * Returns the name of the header at the specified position, in the order received.
+   *
+   * @param index an index from 0 to {@code size() - 1}
+   * @return the header name
+   */
+  public String getName(int index) {
+    return table()[index * 2];
+  }
+
+  /**
+   * Returns the value of the header at the specified position, in the order received.
+   *
+   * @param index an index from 0 to {@code size() - 1}
+   * @return the header value
+   */
+  public String getValue(int index) {
+    return table()[index * 2 + 1];
+  }
+
+  /**
+   * Returns the first value of a header.
+   *
+   * @param name a case-insensitive header name
+   * @return the header value, or null if not found
+   */
+  public String get(String name) {
+    String[] t = table();
+    for (int i = 0; i < t.length; i += 2) {
+      if (t[i].equalsIgnoreCase(name)) {
+        return t[i + 1];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns all values of a header, in the order received.
+   *
+   * @param name a case-insensitive header name
+   * @return the header values; an empty list if not found
+   */
+  public List<String> getAll(String name) {
+    String[] t = table();
+    List<String> ret = null;
+    for (int i = 0; i < t.length; i += 2) {
+      if (t[i].equalsIgnoreCase(name)) {
+        if (ret == null) {
+          ret = new ArrayList<>(2);
+        }
+        ret.add(t[i + 1]);
+      }
+    }
+    return ret == null ? Collections.<String>emptyList() : Collections.unmodifiableList(ret);
+  }
+
+  /**
+   * Returns the distinct header names, in the order that each first appeared.
+   *
+   * @return the header names
+   */
+  public List<String> getNames() {
+    String[] t = table();
+    List<String> ret = new ArrayList<>(t.length / 2);
+    outer: for (int i = 0; i < t.length; i += 2) {
+      for (int j = 0; j < i; j += 2) {
+        if (t[j].equalsIgnoreCase(t[i])) {
+          continue outer;
+        }
+      }
+      ret.add(t[i]);
+    }
+    return Collections.unmodifiableList(ret);
+  }
+
+  @Override
+  public String toString() {
+    String[] t = table();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < t.length; i += 2) {
+      sb.append(t[i]).append(": ").append(t[i + 1]).append("\n");
+    }
+    return sb.toString();
+  }
+
+  private String[] table() {
+    String[] t = table;
+    if (t == null) {
+      synchronized (this) {
+        t = table;
+        if (t == null) {
+          t = parseLines(raw, rawOffset, rawLength);
+          table = t;
+          raw = null;
+        }
+      }
+    }
+    return t;
+  }
+
+  private static String[] parseLines(byte[] data, int offset, int length) {
+    List<String> ret = new ArrayList<>();
+    int end = offset + length;
+    for (int pos = offset; pos < end;) {
+      int lineEnd = pos;
+      while (lineEnd < end && data[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      int next = lineEnd + 1;
+      if (lineEnd > pos && data[lineEnd - 1] == '\r') {
+        lineEnd--;
+      }
+      if (lineEnd == pos) {
+        break; // end of headers
+      }
+      if ((data[pos] == ' ' || data[pos] == '\t') && !ret.isEmpty()) {
+        String more = new String(data, pos, lineEnd - pos, UTF8).trim();
+        ret.set(ret.size() - 1, ret.get(ret.size() - 1) + " " + more);
+      } else {
+        int colon = pos;
+        while (colon < lineEnd && data[colon] != ':') {
+          colon++;
+        }
+        if (colon < lineEnd) {
+          ret.add(new String(data, pos, colon - pos, UTF8).trim());
+          ret.add(new String(data, colon + 1, lineEnd - colon - 1, UTF8).trim());
+        }
+      }
+      pos = next;
+    }
+    return ret.isEmpty() ? NO_HEADERS : ret.toArray(new String[ret.size()]);
+  }
+}
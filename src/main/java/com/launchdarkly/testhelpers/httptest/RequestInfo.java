@@ -2,40 +2,107 @@ package com.launchdarkly.testhelpers.httptest;
 
 import com.google.common.collect.ImmutableMap;
 
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Properties of a request received by {@link HttpServer}.
  * <p>
  * We capture all of the request properties, including the request body, before passing the request
- * to the configured handler, because tests often need to record and inspect the request.
+ * to the configured handler, because tests often need to record and inspect the request. The body
+ * is kept as bytes, and is only decoded into a string if something calls {@link #getBody()};
+ * likewise, the URI and the query parameters are only parsed when they are first requested.
  */
 public final class RequestInfo {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   private final String method;
-  private final URI uri;
+  private final String uriString;
+  private volatile URI uri; // parsed from uriString when first requested
   private final String path;
   private final String query;
-  private final ImmutableMap<String, String> headers;
-  private final String body;
+  private volatile Map<String, List<String>> queryParameters; // parsed when first requested
+  private final RequestHeaders headers;
+  private final byte[] bodyBytes;
+  private volatile String body; // decoded from bodyBytes when first requested
+  private final ConnectionInfo connection;
+  private final int connectionSequenceNumber;
+  private final long arrivalTime;
+  private final long headersCompleteTime;
+  private final long bodyCompleteTime;
   
   /**
-   * Constructs an instance, specifying all properties.
+   * Constructs an instance, specifying all properties except the connection and timing.
    * 
    * @param method the HTTP method
    * @param uri the URI
    * @param path the request path
    * @param query the query string
    * @param headers the headers
-   * @param body the body, or null
+   * @param body the body, or null; it will be encoded with the charset from the
+   *   {@code Content-Type} header if any, or UTF-8
    */
   public RequestInfo(String method, URI uri, String path, String query,
       ImmutableMap<String, String> headers, String body) {
+    this(method, uri, null, path, query, RequestHeaders.fromMap(headers), null, null, 0, 0, 0, 0,
+        body);
+  }
+  
+  /**
+   * Constructs an instance, specifying all properties.
+   * 
+   * @param method the HTTP method
+   * @param uri the full request URI, or null; it will be parsed only if {@link #getUri()} is called
+   * @param path the request path
+   * @param query the query string
+   * @param headers the headers
+   * @param body the body, or null; the array is not copied, so it must not be modified afterward
+   * @param connection the connection the request was received on, or null if unknown
+   * @param connectionSequenceNumber the position of this request among all requests on the same
+   *   connection, starting at 1; or 0 if unknown
+   * @param arrivalTime the {@link System#nanoTime()} value when the request started to arrive,
+   *   or 0 if unknown
+   * @param headersCompleteTime the {@link System#nanoTime()} value when all of the headers had
+   *   been received, or 0 if unknown
+   * @param bodyCompleteTime the {@link System#nanoTime()} value when all of the body had been
+   *   received, or 0 if unknown
+   * @since 2.1.0
+   */
+  public RequestInfo(String method, String uri, String path, String query,
+      RequestHeaders headers, byte[] body,
+      ConnectionInfo connection, int connectionSequenceNumber,
+      long arrivalTime, long headersCompleteTime, long bodyCompleteTime) {
+    this(method, null, uri, path, query, headers, body, connection, connectionSequenceNumber,
+        arrivalTime, headersCompleteTime, bodyCompleteTime, null);
+  }
+
+  private RequestInfo(String method, URI uri, String uriString, String path, String query,
+      RequestHeaders headers, byte[] bodyBytes,
+      ConnectionInfo connection, int connectionSequenceNumber,
+      long arrivalTime, long headersCompleteTime, long bodyCompleteTime, String body) {
     this.method = method.toUpperCase();
     this.uri = uri;
+    this.uriString = uri == null ? uriString : uri.toString();
     this.path = path;
     this.query = query;
-    this.headers = headers == null ? ImmutableMap.of() : headers;
+    this.headers = headers == null ? RequestHeaders.empty() : headers;
+    this.bodyBytes = body == null ? bodyBytes : body.getBytes(getBodyCharset());
     this.body = body;
+    this.connection = connection;
+    this.connectionSequenceNumber = connectionSequenceNumber;
+    this.arrivalTime = arrivalTime;
+    this.headersCompleteTime = headersCompleteTime;
+    this.bodyCompleteTime = bodyCompleteTime;
   }
   
   /**
@@ -53,7 +120,17 @@ public final class RequestInfo {
    * @return the request URI
    */
   public URI getUri() {
-    return uri;
+    URI u = uri;
+    if (u == null && uriString != null) {
+      u = URI.create(uriString);
+      uri = u;
+    }
+    return u;
+  }
+
+  // Same as getUri().toString(), without parsing the URI.
+  String uriString() {
+    return uriString;
   }
   
   /**
@@ -73,32 +150,237 @@ public final class RequestInfo {
   public String getQuery() {
     return query;
   }
+
+  /**
+   * Returns the first value of a query parameter. See {@link #getQueryParameters()}.
+   * 
+   * @param name the parameter name, which is case-sensitive
+   * @return the decoded value, or null if there is no such parameter
+   * @since 2.1.0
+   */
+  public String getQueryParameter(String name) {
+    List<String> values = getQueryParameters().get(name);
+    return values == null ? null : values.get(0);
+  }
+
+  /**
+   * Returns all of the query parameters.
+   * <p>
+   * The query string is parsed the first time this is called. Names and values are decoded as
+   * {@code application/x-www-form-urlencoded} in UTF-8, so {@code +} is a space; a parameter with
+   * no {@code =} has an empty value. If a parameter is repeated, its values are in the order they
+   * appeared.
+   * 
+   * @return an immutable map of parameter names to values, in the order that each name first
+   *   appeared; an empty map if there is no query string
+   * @since 2.1.0
+   */
+  public Map<String, List<String>> getQueryParameters() {
+    Map<String, List<String>> params = queryParameters;
+    if (params == null) {
+      params = parseQuery(query);
+      queryParameters = params;
+    }
+    return params;
+  }
   
   /**
-   * Returns a request header by name.
+   * Returns a request header by name. If the header was repeated, this is the last value, as it
+   * was in earlier versions; use {@link #getHeaderValues(String)} to get all of them.
    * 
    * @param name a case-insensitive header name
    * @return the header value, or null if not found
    */
   public String getHeader(String name) {
-    return headers.get(name.toLowerCase()); 
+    for (int i = headers.size() - 1; i >= 0; i--) {
+      if (headers.getName(i).equalsIgnoreCase(name)) {
+        return headers.getValue(i);
+      }
+    }
+    return null;
   }
 
   /**
-   * Returns all request header names.
+   * Returns all values of a request header, in the order they were received.
+   * 
+   * @param name a case-insensitive header name
+   * @return the header values; an empty list if not found
+   * @since 2.1.0
+   */
+  public List<String> getHeaderValues(String name) {
+    return headers.getAll(name);
+  }
+
+  /**
+   * Returns all request header names, in lowercase, as in earlier versions. To get the names with
+   * the case that the client sent, use {@link #getHeaders()}.
    * 
    * @return the header names
    */
   public Iterable<String> getHeaderNames() {
-    return headers.keySet();
+    Set<String> names = new LinkedHashSet<>();
+    for (int i = 0; i < headers.size(); i++) {
+      names.add(headers.getName(i).toLowerCase(Locale.US));
+    }
+    return names;
+  }
+
+  /**
+   * Returns all request headers, in the order they were received.
+   * 
+   * @return the headers
+   * @since 2.1.0
+   */
+  public RequestHeaders getHeaders() {
+    return headers;
   }
   
   /**
    * Returns the request body as a string.
+   * <p>
+   * The body is decoded with the charset from the {@code Content-Type} header, or UTF-8 if there
+   * is none or it is not supported. This is done the first time the method is called.
    * 
    * @return the request body, or null if there is none
    */
   public String getBody() {
-    return body;
+    String s = body;
+    if (s == null && bodyBytes != null) {
+      s = new String(bodyBytes, getBodyCharset());
+      body = s; // if two threads get here at once, they will both compute the same value
+    }
+    return s;
+  }
+
+  /**
+   * Returns the request body as bytes, exactly as it was received.
+   * 
+   * @return a copy of the request body, or null if there is none
+   * @since 2.1.0
+   */
+  public byte[] getBodyBytes() {
+    return bodyBytes == null ? null : bodyBytes.clone();
+  }
+
+  // Same as getBodyBytes(), without the copy, for our own code that won't modify it.
+  byte[] bodyBytes() {
+    return bodyBytes;
+  }
+
+  Charset getBodyCharset() {
+    return charsetOf(headers);
+  }
+
+  // Returns the charset parameter of the Content-Type header, or UTF-8.
+  static Charset charsetOf(RequestHeaders headers) {
+    String contentType = headers.get("Content-Type");
+    if (contentType != null) {
+      for (String param: contentType.split(";")) {
+        int eq = param.indexOf('=');
+        if (eq > 0 && param.substring(0, eq).trim().toLowerCase(Locale.US).equals("charset")) {
+          String name = param.substring(eq + 1).trim().replace("\"", "");
+          try {
+            return Charset.forName(name);
+          } catch (IllegalArgumentException e) { // illegal or unsupported charset name
+            break;
+          }
+        }
+      }
+    }
+    return UTF8;
+  }
+
+  /**
+   * Returns the connection that the request was received on.
+   * 
+   * @return the connection properties, or null if unknown
+   * @since 2.1.0
+   */
+  public ConnectionInfo getConnection() {
+    return connection;
+  }
+  
+  /**
+   * Returns the position of this request among all the requests that were received on the same
+   * connection, starting at 1. A value greater than 1 means that the client reused a connection.
+   * 
+   * @return the sequence number, or 0 if unknown
+   * @since 2.1.0
+   */
+  public int getConnectionSequenceNumber() {
+    return connectionSequenceNumber;
+  }
+
+  /**
+   * Returns the time when the request started to arrive: that is, when the server first read
+   * any of its data from the connection.
+   * <p>
+   * All of the timestamps are {@link System#nanoTime()} values, so they are only meaningful
+   * relative to each other, and cannot be compared between different JVMs. For instance, the
+   * time between two requests is {@code r2.getArrivalTime() - r1.getArrivalTime()}.
+   * 
+   * @return the arrival time in nanoseconds, or 0 if unknown
+   * @since 2.1.0
+   */
+  public long getArrivalTime() {
+    return arrivalTime;
+  }
+  
+  /**
+   * Returns the time when the server had received all of the request headers. See
+   * {@link #getArrivalTime()}.
+   * 
+   * @return the time in nanoseconds, or 0 if unknown
+   * @since 2.1.0
+   */
+  public long getHeadersCompleteTime() {
+    return headersCompleteTime;
+  }
+  
+  /**
+   * Returns the time when the server had received all of the request body. If there is no body,
+   * this is the same as {@link #getHeadersCompleteTime()}. See {@link #getArrivalTime()}.
+   * 
+   * @return the time in nanoseconds, or 0 if unknown
+   * @since 2.1.0
+   */
+  public long getBodyCompleteTime() {
+    return bodyCompleteTime;
+  }
+
+  private static Map<String, List<String>> parseQuery(String query) {
+    if (query == null || query.length() <= 1) {
+      return Collections.emptyMap();
+    }
+    Map<String, List<String>> ret = new LinkedHashMap<>();
+    for (String param: query.substring(query.startsWith("?") ? 1 : 0).split("&")) {
+      if (param.isEmpty()) {
+        continue;
+      }
+      int eq = param.indexOf('=');
+      String name = decodeQueryComponent(eq < 0 ? param : param.substring(0, eq));
+      String value = eq < 0 ? "" : decodeQueryComponent(param.substring(eq + 1));
+      List<String> values = ret.get(name);
+      if (values == null) {
+        values = new ArrayList<>(1);
+        ret.put(name, values);
+      }
+      values.add(value);
+    }
+    for (Map.Entry<String, List<String>> e: ret.entrySet()) {
+      e.setValue(Collections.unmodifiableList(e.getValue()));
+    }
+    return Collections.unmodifiableMap(ret);
+  }
+
+  private static String decodeQueryComponent(String s) {
+    if (s.indexOf('%') < 0 && s.indexOf('+') < 0) {
+      return s;
+    }
+    try {
+      return URLDecoder.decode(s, "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return s; // UTF-8 is always supported, but the string may have an invalid escape sequence
+    }
   }
 }
@@ -0,0 +1,387 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Handler} that appends every request it receives to a file, instead of keeping
+ * it in memory like {@link RequestRecorder}.
+ * <p>
+ * This is meant for long-running tests that may see a very large number of requests. Each
+ * request is written as one line of JSON (the "NDJSON" format) to an append-only file; writes
+ * are buffered and flushed in batches. The only per-request state kept in memory is the file
+ * offset of each entry, so you can still access entries by index with {@link #get(int)}, or
+ * read them back sequentially with {@link #iterator()}, which reads them in batches.
+ * <p>
+ * Since {@link HttpServer} records all requests in memory by default, you should disable its
+ * built-in recorder when using this class:
+ *
+ * <pre><code>
+ *     try (TempDir dir = TempDir.create();
+ *          RequestLog log = RequestLog.create(dir.getPath().resolve("requests.ndjson"));
+ *          HttpServer server = HttpServer.start(Handlers.all(log, Handlers.status(200)))) {
+ *         server.getRecorder().setEnabled(false);
+ *         // ... do requests ...
+ *         for (RequestInfo r: log) {
+ *             // ...
+ *         }
+ *     }
+ * </code></pre>
+ *
+ * All IOExceptions are rethrown as RuntimeExceptions so that the test code does
+ * not need to catch or declare them.
+ *
+ * @since 2.1.0
+ */
+public final class RequestLog implements Handler, Closeable, Iterable<RequestInfo> {
+  /**
+   * The size of the write buffer. Entries are written to the file whenever this much data
+   * has accumulated, or when {@link #flush()} or {@link #close()} is called.
+   */
+  public static final int BATCH_SIZE_BYTES = 64 * 1024;
+
+  private static final Gson gson = new Gson();
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE_BYTES);
+  private final AtomicBoolean enabled = new AtomicBoolean(true);
+  private long[] offsets = new long[1024];
+  private int count = 0;
+  private long size;
+  private boolean closed = false;
+
+  private RequestLog(Path path, FileChannel channel) throws IOException {
+    this.path = path;
+    this.channel = channel;
+    this.size = channel.size();
+  }
+
+  /**
+   * Creates a log that writes to the specified file. The file is created if it does not exist,
+   * or truncated if it does.
+   *
+   * @param path the file path
+   * @return a {@link RequestLog}
+   */
+  public static RequestLog create(Path path) {
+    try {
+      return new RequestLog(path, FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void apply(RequestContext context) {
+    if (enabled.get()) {
+      append(context.getRequest());
+    }
+  }
+
+  /**
+   * Returns the file path.
+   *
+   * @return the file path
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns true if the log is capturing requests. This is true by default.
+   *
+   * @return true if enabled
+   */
+  public boolean isEnabled() {
+    return enabled.get();
+  }
+
+  /**
+   * Sets whether the log should capture requests. This is true by default.
+   *
+   * @param enabled true to enable the log, false to disable
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled.set(enabled);
+  }
+
+  /**
+   * Returns the number of requests that have been logged.
+   *
+   * @return the number of requests
+   */
+  public synchronized int count() {
+    return count;
+  }
+
+  /**
+   * Reads a logged request by index.
+   *
+   * @param index the zero-based index, in the order that requests were received
+   * @return the request information
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public RequestInfo get(int index) {
+    long start, end;
+    synchronized (this) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      flush();
+      start = offsets[index];
+      end = endOffset(index);
+    }
+    return fromJson(readRange(start, end));
+  }
+
+  /**
+   * Returns an iterator that reads the logged requests from the file in order.
+   * <p>
+   * The iterator covers all requests that were logged before this method was called. It reads
+   * entries in batches of up to {@link #BATCH_SIZE_BYTES}, and only has the file open while it is
+   * reading a batch, so there is nothing to close if you stop iterating early. Only one batch at a
+   * time is held in memory.
+   *
+   * @return an iterator
+   */
+  @Override
+  public Iterator<RequestInfo> iterator() {
+    int total;
+    synchronized (this) {
+      flush();
+      total = count;
+    }
+    return new Iterator<RequestInfo>() {
+      private final List<String> batch = new ArrayList<>();
+      private int batchPos = 0;
+      private int nextIndex = 0;
+
+      @Override
+      public boolean hasNext() {
+        return batchPos < batch.size() || nextIndex < total;
+      }
+
+      @Override
+      public RequestInfo next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (batchPos == batch.size()) {
+          batch.clear();
+          batchPos = 0;
+          nextIndex = readBatch(nextIndex, total, batch);
+        }
+        return fromJson(batch.get(batchPos++));
+      }
+    };
+  }
+
+  /**
+   * Writes any buffered entries to the file.
+   */
+  public synchronized void flush() {
+    if (buffer.position() == 0 || closed) {
+      return;
+    }
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Flushes any buffered entries and closes the file. The file is not deleted, and can still be
+   * read with {@link #get(int)} or {@link #iterator()}.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Reads the lines of the entries starting at the specified index, stopping after
+  // BATCH_SIZE_BYTES unless that would be less than one entry. Returns the index of the next entry.
+  private int readBatch(int index, int total, List<String> lines) {
+    long start, end;
+    int next = index + 1;
+    synchronized (this) {
+      start = offsets[index];
+      while (next < total && endOffset(next) - start <= BATCH_SIZE_BYTES) {
+        next++;
+      }
+      end = endOffset(next - 1);
+    }
+    String data = readRange(start, end);
+    for (int pos = 0; pos < data.length();) {
+      int lineEnd = data.indexOf('\n', pos);
+      if (lineEnd < 0) {
+        lineEnd = data.length();
+      }
+      lines.add(data.substring(pos, lineEnd));
+      pos = lineEnd + 1;
+    }
+    return next;
+  }
+
+  // Called while synchronized.
+  private long endOffset(int index) {
+    return index + 1 < count ? offsets[index + 1] : size;
+  }
+
+  private String readRange(long start, long end) {
+    try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer data = ByteBuffer.allocate((int)(end - start));
+      while (data.hasRemaining()) {
+        if (reader.read(data, start + data.position()) < 0) {
+          break;
+        }
+      }
+      return new String(data.array(), 0, data.position(), UTF8);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private synchronized void append(RequestInfo request) {
+    if (closed) {
+      return;
+    }
+    byte[] line = (toJson(request) + "\n").getBytes(UTF8);
+    if (count == offsets.length) {
+      offsets = Arrays.copyOf(offsets, count * 2);
+    }
+    offsets[count++] = size;
+    size += line.length;
+    if (line.length > buffer.remaining()) {
+      flush();
+    }
+    if (line.length > buffer.capacity()) {
+      try {
+        ByteBuffer b = ByteBuffer.wrap(line);
+        while (b.hasRemaining()) {
+          channel.write(b);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    } else {
+      buffer.put(line);
+    }
+  }
+
+  private static String toJson(RequestInfo request) {
+    JsonObject o = new JsonObject();
+    o.addProperty("method", request.getMethod());
+    o.addProperty("uri", request.uriString());
+    o.addProperty("path", request.getPath());
+    o.addProperty("query", request.getQuery());
+    // an array of [name, value] pairs, since a header can be repeated
+    JsonArray headers = new JsonArray();
+    RequestHeaders h = request.getHeaders();
+    for (int i = 0; i < h.size(); i++) {
+      JsonArray pair = new JsonArray();
+      pair.add(h.getName(i));
+      pair.add(h.getValue(i));
+      headers.add(pair);
+    }
+    o.add("headers", headers);
+    // a body that isn't valid text in its charset, such as gzipped data, is written as base64
+    byte[] body = request.bodyBytes();
+    if (body != null) {
+      String text = request.getBody();
+      if (Arrays.equals(text.getBytes(request.getBodyCharset()), body)) {
+        o.addProperty("body", text);
+      } else {
+        o.addProperty("bodyBase64", BaseEncoding.base64().encode(body));
+      }
+    }
+    ConnectionInfo connection = request.getConnection();
+    if (connection != null) {
+      JsonObject c = new JsonObject();
+      c.addProperty("id", connection.getId());
+      c.addProperty("remoteAddress", connection.getRemoteAddress());
+      c.addProperty("tlsSessionId", connection.getTlsSessionId());
+      o.add("connection", c);
+      o.addProperty("connectionSequenceNumber", request.getConnectionSequenceNumber());
+    }
+    if (request.getArrivalTime() != 0) {
+      o.addProperty("arrivalTime", request.getArrivalTime());
+      o.addProperty("headersCompleteTime", request.getHeadersCompleteTime());
+      o.addProperty("bodyCompleteTime", request.getBodyCompleteTime());
+    }
+    return gson.toJson(o);
+  }
+
+  private static RequestInfo fromJson(String json) {
+    JsonObject o = gson.fromJson(json, JsonObject.class);
+    List<String> headers = new ArrayList<>();
+    for (JsonElement pair: o.getAsJsonArray("headers")) {
+      headers.add(pair.getAsJsonArray().get(0).getAsString());
+      headers.add(pair.getAsJsonArray().get(1).getAsString());
+    }
+    RequestHeaders requestHeaders = RequestHeaders.of(headers.toArray(new String[headers.size()]));
+    String body = stringProperty(o, "body");
+    String bodyBase64 = stringProperty(o, "bodyBase64");
+    JsonObject c = o.getAsJsonObject("connection");
+    ConnectionInfo connection = c == null ? null :
+      new ConnectionInfo(c.get("id").getAsLong(), stringProperty(c, "remoteAddress"), stringProperty(c, "tlsSessionId"));
+    return new RequestInfo(
+        stringProperty(o, "method"),
+        stringProperty(o, "uri"),
+        stringProperty(o, "path"),
+        stringProperty(o, "query"),
+        requestHeaders,
+        bodyBase64 != null ? BaseEncoding.base64().decode(bodyBase64) :
+          body == null ? null : body.getBytes(RequestInfo.charsetOf(requestHeaders)),
+        connection,
+        connection == null ? 0 : o.get("connectionSequenceNumber").getAsInt(),
+        longProperty(o, "arrivalTime"),
+        longProperty(o, "headersCompleteTime"),
+        longProperty(o, "bodyCompleteTime")
+        );
+  }
+
+  private static String stringProperty(JsonObject o, String name) {
+    JsonElement value = o.get(name);
+    return value == null || value.isJsonNull() ? null : value.getAsString();
+  }
+
+  private static long longProperty(JsonObject o, String name) {
+    JsonElement value = o.get(name);
+    return value == null || value.isJsonNull() ? 0 : value.getAsLong();
+  }
+}
@@ -1,10 +1,22 @@
 package com.launchdarkly.testhelpers.httptest;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import org.hamcrest.Matcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * An object that records all requests.
@@ -12,97 +24,494 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Normally you won't need to use this class directly, because {@link HttpServer} has a
  * built-in instance that captures all requests. You can use it if you need to capture
  * only a subset of requests.
+ * <p>
+ * Requests can be consumed either in the order they were received, with {@link #requireRequest()},
+ * or selectively, with methods such as {@link #requireRequest(Matcher, long, TimeUnit)} or
+ * {@link #requireRequestWithPath(String, long, TimeUnit)}. The recorder keeps indexes by path
+ * and method, and optionally by the values of headers specified with {@link #indexHeader(String)},
+ * so that selective lookups do not need to scan every stored request. A caller that is blocked
+ * waiting for a specific kind of request is only woken up when a matching request arrives.
+ * <p>
+ * The recorder also counts how many requests arrived on each network connection, with
+ * {@link #getConnectionCount()} and {@link #getRequestCountsByConnection()}; these do not change
+ * when requests are consumed. They are useful for checking that an HTTP client reuses
+ * connections:
+ *
+ * <pre><code>
+ *     // ... make 100 requests with the client
+ *     assertThat(server.getRecorder().getConnectionCount(), lessThanOrEqualTo(clientPoolSize));
+ * </code></pre>
+ *
+ * Similarly, it keeps the arrival time of every request, for checking how often a client sends
+ * requests; see {@link #getInterArrivalStatistics()}.
  */
 public final class RequestRecorder implements Handler {
   /**
    * The default timeout for {@link #requireRequest()}: 5 seconds.
    */
   public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
-  
-  private final BlockingQueue<RequestInfo> requests = new LinkedBlockingQueue<>();
+
   private final AtomicBoolean enabled = new AtomicBoolean(true);
-  
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+  private final Map<String, ArrayDeque<Entry>> byPath = new HashMap<>();
+  private final Map<String, ArrayDeque<Entry>> byMethod = new HashMap<>();
+  private final Map<String, Map<String, ArrayDeque<Entry>>> byHeader = new HashMap<>();
+  private final List<Waiter> waiters = new ArrayList<>();
+  private final Map<Long, Integer> requestsByConnection = new LinkedHashMap<>();
+  private long[] arrivalTimes = new long[64];
+  private int arrivalCount = 0;
+  private int pendingCount = 0;
+
+  private static final class Entry {
+    final RequestInfo request;
+    boolean consumed;
+
+    Entry(RequestInfo request) {
+      this.request = request;
+    }
+  }
+
+  private static final class Waiter {
+    final Predicate<RequestInfo> filter;
+    final Condition signal;
+    RequestInfo result;
+
+    Waiter(Predicate<RequestInfo> filter, Condition signal) {
+      this.filter = filter;
+      this.signal = signal;
+    }
+  }
+
   @Override
   public void apply(RequestContext context) {
     if (enabled.get()) {
-      requests.add(context.getRequest());
+      add(context.getRequest());
     }
   }
 
   /**
    * The number of requests currently in the queue.
-   * 
+   *
    * @return the number of stored requests that have not been consumed
    */
   public int count() {
-    return requests.size();
+    lock.lock();
+    try {
+      return pendingCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
    * Returns true if the recorder is capturing requests. This is true by default.
-   * 
+   *
    * @return true if enabled
    */
   public boolean isEnabled() {
     return enabled.get();
   }
-  
+
   /**
    * Sets whether the recorder should capture requests. This is true by default.
-   * 
+   *
    * @param enabled true to enable the recorder, false to disable
    */
   public void setEnabled(boolean enabled) {
     this.enabled.set(enabled);
   }
-  
+
+  /**
+   * Returns the number of distinct connections that recorded requests have been received on.
+   * <p>
+   * Requests whose connection is unknown (see {@link RequestInfo#getConnection()}) are not
+   * counted.
+   *
+   * @return the number of connections
+   * @since 2.1.0
+   */
+  public int getConnectionCount() {
+    lock.lock();
+    try {
+      return requestsByConnection.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of recorded requests that have been received on each connection.
+   *
+   * @return a map of connection IDs (see {@link ConnectionInfo#getId()}) to request counts, in
+   *   the order that the connections were first seen
+   * @since 2.1.0
+   */
+  public Map<Long, Integer> getRequestCountsByConnection() {
+    lock.lock();
+    try {
+      return new LinkedHashMap<>(requestsByConnection);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the arrival times of all recorded requests, in order. These do not change when
+   * requests are consumed. Requests whose arrival time is unknown (see
+   * {@link RequestInfo#getArrivalTime()}) are not included.
+   *
+   * @return an array of {@link System#nanoTime()} values
+   * @since 2.1.0
+   */
+  public long[] getArrivalTimes() {
+    long[] ret;
+    lock.lock();
+    try {
+      ret = Arrays.copyOf(arrivalTimes, arrivalCount);
+    } finally {
+      lock.unlock();
+    }
+    // requests are recorded when their handlers run, which isn't always the order they arrived in
+    Arrays.sort(ret);
+    return ret;
+  }
+
+  /**
+   * Returns statistics for the time between the arrivals of consecutive recorded requests; for
+   * instance, to check that a client does not poll more often than it should. This is based on
+   * the same data as {@link #getArrivalTimes()}.
+   *
+   * @return the statistics
+   * @since 2.1.0
+   */
+  public IntervalStatistics getInterArrivalStatistics() {
+    return IntervalStatistics.fromTimestamps(getArrivalTimes());
+  }
+
+  /**
+   * Tells the recorder to maintain an index of the values of the specified request header,
+   * so that {@link #requireRequestWithHeader(String, String, long, TimeUnit)} can find
+   * matching requests without scanning the queue.
+   * <p>
+   * Requests that are already in the queue are added to the new index.
+   *
+   * @param name a case-insensitive header name
+   * @return the same instance
+   */
+  public RequestRecorder indexHeader(String name) {
+    String lowerName = name.toLowerCase();
+    lock.lock();
+    try {
+      if (!byHeader.containsKey(lowerName)) {
+        Map<String, ArrayDeque<Entry>> index = new HashMap<>();
+        byHeader.put(lowerName, index);
+        for (Entry e: entries) {
+          if (!e.consumed) {
+            addToIndex(index, e.request.getHeader(lowerName), e);
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return this;
+  }
+
   /**
    * Consumes and returns the first request in the queue, blocking until one is available,
    * using {@link #DEFAULT_TIMEOUT_MILLIS}.
-   * 
+   *
    * @return the request information
    * @throws IllegalStateException if the timeout expires
    */
   public RequestInfo requireRequest() {
     return requireRequest(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
   }
-  
+
   /**
    * Consumes and returns the first request in the queue, blocking until one is available.
-   * 
+   *
    * @param timeout the maximum length of time to wait
    * @param timeoutUnit the time unit for the timeout
    * @return the request information
    * @throws RuntimeException if the timeout expires
    */
   public RequestInfo requireRequest(long timeout, TimeUnit timeoutUnit) {
-    try {
-      RequestInfo ret = requests.poll(timeout, timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit);
-      if (ret == null) {
-        throw new IllegalStateException(new TimeoutException());
-      }
-      return ret;
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
+    RequestInfo ret = awaitRequest(null, () -> firstLive(entries), timeout, timeoutUnit);
+    if (ret == null) {
+      throw new IllegalStateException(new TimeoutException());
     }
+    return ret;
   }
-  
+
+  /**
+   * Consumes and returns the first request in the queue that satisfies a Hamcrest matcher,
+   * blocking until one is available. Any non-matching requests that were received earlier
+   * remain in the queue.
+   *
+   * @param matcher a matcher for {@link RequestInfo}
+   * @param timeout the maximum length of time to wait
+   * @param timeoutUnit the time unit for the timeout (null defaults to milliseconds)
+   * @return the request information
+   * @throws IllegalStateException if the timeout expires
+   */
+  public RequestInfo requireRequest(Matcher<? super RequestInfo> matcher, long timeout, TimeUnit timeoutUnit) {
+    return requireRequest(matcher::matches, timeout, timeoutUnit);
+  }
+
+  /**
+   * Consumes and returns the first request in the queue that satisfies a condition,
+   * blocking until one is available. Any non-matching requests that were received earlier
+   * remain in the queue.
+   *
+   * @param filter a condition for {@link RequestInfo}
+   * @param timeout the maximum length of time to wait
+   * @param timeoutUnit the time unit for the timeout (null defaults to milliseconds)
+   * @return the request information
+   * @throws IllegalStateException if the timeout expires
+   */
+  public RequestInfo requireRequest(Predicate<RequestInfo> filter, long timeout, TimeUnit timeoutUnit) {
+    return requireIndexed(filter, () -> firstLive(entries, filter), timeout, timeoutUnit);
+  }
+
+  /**
+   * Consumes and returns the first request in the queue that has the specified path,
+   * blocking until one is available. This uses an index rather than scanning the queue.
+   *
+   * @param path the request path
+   * @param timeout the maximum length of time to wait
+   * @param timeoutUnit the time unit for the timeout (null defaults to milliseconds)
+   * @return the request information
+   * @throws IllegalStateException if the timeout expires
+   */
+  public RequestInfo requireRequestWithPath(String path, long timeout, TimeUnit timeoutUnit) {
+    return requireIndexed(r -> path.equals(r.getPath()), () -> firstLive(byPath.get(path)),
+        timeout, timeoutUnit);
+  }
+
+  /**
+   * Consumes and returns the first request in the queue that has the specified HTTP method,
+   * blocking until one is available. This uses an index rather than scanning the queue.
+   *
+   * @param method the HTTP method (case-insensitive)
+   * @param timeout the maximum length of time to wait
+   * @param timeoutUnit the time unit for the timeout (null defaults to milliseconds)
+   * @return the request information
+   * @throws IllegalStateException if the timeout expires
+   */
+  public RequestInfo requireRequestWithMethod(String method, long timeout, TimeUnit timeoutUnit) {
+    String upperMethod = method.toUpperCase();
+    return requireIndexed(r -> upperMethod.equals(r.getMethod()), () -> firstLive(byMethod.get(upperMethod)),
+        timeout, timeoutUnit);
+  }
+
+  /**
+   * Consumes and returns the first request in the queue that has the specified header value,
+   * blocking until one is available.
+   * <p>
+   * If {@link #indexHeader(String)} was called for this header name, this uses an index;
+   * otherwise it scans the queue.
+   *
+   * @param name a case-insensitive header name
+   * @param value the exact header value
+   * @param timeout the maximum length of time to wait
+   * @param timeoutUnit the time unit for the timeout (null defaults to milliseconds)
+   * @return the request information
+   * @throws IllegalStateException if the timeout expires
+   */
+  public RequestInfo requireRequestWithHeader(String name, String value, long timeout, TimeUnit timeoutUnit) {
+    String lowerName = name.toLowerCase();
+    Predicate<RequestInfo> filter = r -> value.equals(r.getHeader(lowerName));
+    return requireIndexed(filter, () -> {
+      Map<String, ArrayDeque<Entry>> index = byHeader.get(lowerName);
+      return index == null ? firstLive(entries, filter) : firstLive(index.get(value));
+    }, timeout, timeoutUnit);
+  }
+
   /**
    * Asserts that there are no requests in the queue and none are received within
    * the specified timeout.
-   * 
+   *
    * @param timeout the maximum length of time to wait
    * @param timeoutUnit the time unit for the timeout
    * @throws IllegalStateException if a request was received
    */
   public void requireNoRequests(long timeout, TimeUnit timeoutUnit) {
+    RequestInfo ret = awaitRequest(null, () -> firstLive(entries), timeout, timeoutUnit);
+    if (ret != null) {
+      throw new IllegalStateException("received an unexpected request");
+    }
+  }
+
+  private RequestInfo requireIndexed(Predicate<RequestInfo> filter, Supplier<Entry> lookup,
+      long timeout, TimeUnit timeoutUnit) {
+    RequestInfo ret = awaitRequest(filter, lookup, timeout, timeoutUnit);
+    if (ret == null) {
+      throw new IllegalStateException(new TimeoutException());
+    }
+    return ret;
+  }
+
+  private void add(RequestInfo request) {
+    lock.lock();
+    try {
+      if (request.getConnection() != null) {
+        requestsByConnection.merge(request.getConnection().getId(), 1, Integer::sum);
+      }
+      if (request.getArrivalTime() != 0) {
+        if (arrivalCount == arrivalTimes.length) {
+          arrivalTimes = Arrays.copyOf(arrivalTimes, arrivalCount * 2);
+        }
+        arrivalTimes[arrivalCount++] = request.getArrivalTime();
+      }
+      for (Iterator<Waiter> it = waiters.iterator(); it.hasNext();) {
+        Waiter w = it.next();
+        if (w.filter == null || w.filter.test(request)) {
+          // hand the request directly to the first caller that was waiting for it
+          it.remove();
+          w.result = request;
+          w.signal.signal();
+          return;
+        }
+      }
+      Entry e = new Entry(request);
+      entries.add(e);
+      addToIndex(byPath, request.getPath(), e);
+      addToIndex(byMethod, request.getMethod(), e);
+      for (Map.Entry<String, Map<String, ArrayDeque<Entry>>> h: byHeader.entrySet()) {
+        addToIndex(h.getValue(), request.getHeader(h.getKey()), e);
+      }
+      pendingCount++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private RequestInfo awaitRequest(Predicate<RequestInfo> filter, Supplier<Entry> lookup,
+      long timeout, TimeUnit timeoutUnit) {
+    lock.lock();
     try {
-      RequestInfo ret = requests.poll(timeout, timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit);
-      if (ret != null) {
-         throw new IllegalStateException("received an unexpected request");
+      Entry found = lookup.get();
+      if (found != null) {
+        consume(found);
+        return found.request;
+      }
+      Waiter w = new Waiter(filter, lock.newCondition());
+      waiters.add(w);
+      try {
+        long remaining = (timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit).toNanos(timeout);
+        while (w.result == null && remaining > 0) {
+          remaining = w.signal.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (w.result != null) {
+          return w.result; // add() already gave it to us, so it isn't in the queue any more
+        }
+        throw new RuntimeException(e);
+      } finally {
+        if (w.result == null) {
+          waiters.remove(w);
+        }
+      }
+      return w.result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void consume(Entry e) {
+    e.consumed = true;
+    pendingCount--;
+    // Consumed entries are dropped from the head of each queue that the entry is in, which covers
+    // the usual case of consuming requests in order. Any that are behind an unconsumed entry in
+    // one of the indexes are also behind it in the main queue, since every queue is in arrival
+    // order; so if too many of those have accumulated there, sweep them all out at once.
+    firstLive(entries);
+    trimIndex(byPath, e.request.getPath());
+    trimIndex(byMethod, e.request.getMethod());
+    for (Map.Entry<String, Map<String, ArrayDeque<Entry>>> h: byHeader.entrySet()) {
+      trimIndex(h.getValue(), e.request.getHeader(h.getKey()));
+    }
+    if (entries.size() > pendingCount * 2 + 64) {
+      entries.removeIf(x -> x.consumed);
+      purgeIndex(byPath);
+      purgeIndex(byMethod);
+      for (Map<String, ArrayDeque<Entry>> index: byHeader.values()) {
+        purgeIndex(index);
+      }
+    }
+  }
+
+  private static void addToIndex(Map<String, ArrayDeque<Entry>> index, String key, Entry e) {
+    if (key != null) {
+      ArrayDeque<Entry> q = index.get(key);
+      if (q == null) {
+        q = new ArrayDeque<>();
+        index.put(key, q);
+      }
+      q.add(e);
+    }
+  }
+
+  private static void trimIndex(Map<String, ArrayDeque<Entry>> index, String key) {
+    ArrayDeque<Entry> q = key == null ? null : index.get(key);
+    if (q != null && firstLive(q) == null) {
+      index.remove(key);
+    }
+  }
+
+  // Returns the number of entries, consumed or not, that are still referenced by the queue and
+  // the indexes. Used in tests.
+  int storedEntryCount() {
+    lock.lock();
+    try {
+      int n = entries.size() + countEntries(byPath) + countEntries(byMethod);
+      for (Map<String, ArrayDeque<Entry>> index: byHeader.values()) {
+        n += countEntries(index);
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static int countEntries(Map<String, ArrayDeque<Entry>> index) {
+    int n = 0;
+    for (ArrayDeque<Entry> q: index.values()) {
+      n += q.size();
+    }
+    return n;
+  }
+
+  private static void purgeIndex(Map<String, ArrayDeque<Entry>> index) {
+    for (Iterator<ArrayDeque<Entry>> it = index.values().iterator(); it.hasNext();) {
+      ArrayDeque<Entry> q = it.next();
+      q.removeIf(x -> x.consumed);
+      if (q.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  private static Entry firstLive(ArrayDeque<Entry> q) {
+    if (q == null) {
+      return null;
+    }
+    while (!q.isEmpty() && q.peekFirst().consumed) {
+      q.pollFirst();
+    }
+    return q.peekFirst();
+  }
+
+  private static Entry firstLive(ArrayDeque<Entry> q, Predicate<RequestInfo> filter) {
+    for (Entry e: q) {
+      if (!e.consumed && filter.test(e.request)) {
+        return e;
       }
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
     }
+    return null;
   }
 }
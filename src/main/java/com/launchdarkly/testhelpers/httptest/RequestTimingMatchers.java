@@ -0,0 +1,192 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeDiagnosingMatcher;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.IntervalStatistics.millis;
+
+/**
+ * Hamcrest matchers for the timing of the requests that a {@link RequestRecorder} has received.
+ * <p>
+ * These check properties that are hard to assert reliably with hand-written loops, such as that a
+ * client never polls faster than some rate, or that its retries back off as they should:
+ *
+ * <pre><code>
+ *     // ... let the client retry against a server that always returns 503
+ *     assertThat(server.getRecorder(),
+ *         requestsFollowExponentialBackoff(1000, 2, 0.5, 30000, TimeUnit.MILLISECONDS));
+ *
+ *     // ... let the client poll for a while
+ *     assertThat(server.getRecorder(), requestRateAtMost(1, 30, TimeUnit.SECONDS));
+ * </code></pre>
+ *
+ * Each matcher makes a single pass over the arrival times of every request that the recorder has
+ * received (see {@link RequestRecorder#getArrivalTimes()}), whether or not they have been
+ * consumed, so it can be used along with the recorder's other methods. Requests whose arrival
+ * time is unknown are ignored.
+ *
+ * @since 2.1.0
+ */
+public abstract class RequestTimingMatchers {
+  /**
+   * Returns a matcher that verifies that no more than the specified number of requests arrived
+   * within any period of the specified length.
+   * <p>
+   * This uses a sliding window, so it is stricter than counting requests in fixed intervals:
+   * for instance, with a limit of 1 per second, two requests that arrive 0.9 seconds apart do not
+   * match, even if one was at the end of a clock second and the other at the start of the next.
+   *
+   * @param count the maximum number of requests
+   * @param per the length of the period
+   * @param unit the time unit, or null for milliseconds
+   * @return a matcher
+   * @throws IllegalArgumentException if {@code count} is negative or {@code per} is not positive
+   */
+  public static Matcher<RequestRecorder> requestRateAtMost(int count, long per, TimeUnit unit) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count cannot be negative");
+    }
+    if (per <= 0) {
+      throw new IllegalArgumentException("per must be positive");
+    }
+    long perNanos = toNanos(per, unit);
+    return new TypeSafeDiagnosingMatcher<RequestRecorder>() {
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("at most " + count + " requests in any " + millis(perNanos));
+      }
+
+      @Override
+      protected boolean matchesSafely(RequestRecorder recorder, Description mismatchDescription) {
+        long[] times = recorder.getArrivalTimes();
+        for (int start = 0, end = 0; end < times.length; end++) {
+          while (times[end] - times[start] >= perNanos) {
+            start++;
+          }
+          if (end - start + 1 > count) {
+            mismatchDescription.appendText("requests " + start + " to " + end + " arrived within "
+                + millis(times[end] - times[start]));
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher that verifies that requests arrived in batches: bursts that each lasted no
+   * longer than the specified window, separated by quiet periods at least that long.
+   * <p>
+   * Consecutive requests that arrive less than {@code window} apart are counted as part of the
+   * same batch. The matcher fails if a batch lasted longer than {@code window} from its first
+   * request to its last; that is, if the client sent requests continuously instead of grouping
+   * them. For instance, a client that sends all of its queued analytics events at once every
+   * 5 seconds would match {@code batchedWithin(1, TimeUnit.SECONDS)}.
+   *
+   * @param window the maximum duration of a batch
+   * @param unit the time unit, or null for milliseconds
+   * @return a matcher
+   * @throws IllegalArgumentException if {@code window} is not positive
+   */
+  public static Matcher<RequestRecorder> batchedWithin(long window, TimeUnit unit) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive");
+    }
+    long windowNanos = toNanos(window, unit);
+    return new TypeSafeDiagnosingMatcher<RequestRecorder>() {
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("requests in batches lasting at most " + millis(windowNanos));
+      }
+
+      @Override
+      protected boolean matchesSafely(RequestRecorder recorder, Description mismatchDescription) {
+        long[] times = recorder.getArrivalTimes();
+        int batchStart = 0;
+        for (int i = 1; i < times.length; i++) {
+          if (times[i] - times[i - 1] >= windowNanos) {
+            batchStart = i;
+          } else if (times[i] - times[batchStart] > windowNanos) {
+            mismatchDescription.appendText("requests " + batchStart + " to " + i + " were a batch lasting "
+                + millis(times[i] - times[batchStart]));
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher that verifies that the intervals between requests grew exponentially,
+   * as they should for a client that is retrying with backoff.
+   * <p>
+   * Equivalent to {@link #requestsFollowExponentialBackoff(long, double, double, long, TimeUnit)}
+   * with no maximum.
+   *
+   * @param base the expected interval between the first and second requests
+   * @param factor the amount that each interval is multiplied by
+   * @param jitter how far each interval may be from its expected value, as a fraction of that value
+   * @param unit the time unit, or null for milliseconds
+   * @return a matcher
+   */
+  public static Matcher<RequestRecorder> requestsFollowExponentialBackoff(long base, double factor,
+      double jitter, TimeUnit unit) {
+    return requestsFollowExponentialBackoff(base, factor, jitter, Long.MAX_VALUE, unit);
+  }
+
+  /**
+   * Returns a matcher that verifies that the intervals between requests grew exponentially up to
+   * a maximum, as they should for a client that is retrying with bounded backoff.
+   * <p>
+   * The expected value of the interval after request {@code n} (counting from 0) is
+   * {@code min(base * factor^n, max)}. Each actual interval must be within {@code jitter} times
+   * that value of it: for instance, with a jitter of 0.5, an expected interval of 4 seconds
+   * matches anything from 2 to 6 seconds. Since timers and networks are never exact, the jitter
+   * should be greater than zero even if the client does not add any jitter of its own.
+   *
+   * @param base the expected interval between the first and second requests
+   * @param factor the amount that each interval is multiplied by
+   * @param jitter how far each interval may be from its expected value, as a fraction of that value
+   * @param max the maximum interval
+   * @param unit the time unit for {@code base} and {@code max}, or null for milliseconds
+   * @return a matcher
+   */
+  public static Matcher<RequestRecorder> requestsFollowExponentialBackoff(long base, double factor,
+      double jitter, long max, TimeUnit unit) {
+    double baseNanos = toNanos(base, unit);
+    double maxNanos = max == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : toNanos(max, unit);
+    return new TypeSafeDiagnosingMatcher<RequestRecorder>() {
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("requests with intervals starting at " + millis(baseNanos) + ", multiplied by "
+            + factor + " each time" + (maxNanos == Double.POSITIVE_INFINITY ? "" : (" up to " + millis(maxNanos)))
+            + ", within " + (jitter * 100) + "%");
+      }
+
+      @Override
+      protected boolean matchesSafely(RequestRecorder recorder, Description mismatchDescription) {
+        long[] times = recorder.getArrivalTimes();
+        double expected = baseNanos;
+        for (int i = 1; i < times.length; i++) {
+          long actual = times[i] - times[i - 1];
+          if (actual < expected * (1 - jitter) || actual > expected * (1 + jitter)) {
+            mismatchDescription.appendText("interval between requests " + (i - 1) + " and " + i + " was "
+                + millis(actual) + ", expected " + millis(expected));
+            return false;
+          }
+          expected = Math.min(expected * factor, maxNanos);
+        }
+        return true;
+      }
+    };
+  }
+
+  private static long toNanos(long value, TimeUnit unit) {
+    return (unit == null ? TimeUnit.MILLISECONDS : unit).toNanos(value);
+  }
+}
@@ -0,0 +1,540 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Handler} that holds open a Server-Sent Events stream for every request it receives,
+ * and sends each published event to all of the connected clients.
+ * <p>
+ * Use {@link Handlers.SSE#broadcaster()} to create an instance. Each event is encoded only once,
+ * and the same byte array is queued for every subscriber; it is only copied into each connection's
+ * output buffer as it is written. Every subscriber has its own bounded queue of events waiting to
+ * be written, so a slow client does not hold up the others; what happens when a queue is full is
+ * determined by the {@link SlowConsumerPolicy}.
+ * <p>
+ * This is an {@link AsyncHandler}: the queues are written with
+ * {@link RequestContext#writeAsync(byte[])} by worker threads when there is something to send,
+ * so a connected client does not hold a handler thread while it waits for events.
+ *
+ * <pre><code>
+ *     SSEBroadcaster broadcaster = Handlers.SSE.broadcaster();
+ *     try (HttpServer server = HttpServer.start(broadcaster)) {
+ *         // ... start some clients ...
+ *         broadcaster.awaitSubscribers(10, 5, TimeUnit.SECONDS);
+ *         broadcaster.publish("put", "{}");
+ *     }
+ * </code></pre>
+ *
+ * The stream for each client stays open until the client disconnects, or until the client is
+ * disconnected by {@link SlowConsumerPolicy#DISCONNECT} or {@link #close()}.
+ * <p>
+ * If you enable the event log with {@link #withEventLog(int)}, each event is given a sequential
+ * {@code id}, and the most recent events are kept in memory. A client that reconnects with a
+ * {@code Last-Event-ID} header then receives the events it missed, if they are still in the log,
+ * before any new ones. If the header is not a valid ID, the client is treated like a new one and
+ * receives only new events.
+ *
+ * @since 2.1.0
+ */
+public final class SSEBroadcaster implements AsyncHandler, Closeable {
+  /**
+   * The default capacity of each subscriber's queue.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+  private static final Frame END_OF_STREAM = new Frame(new byte[0]);
+  private static final Frame[] NO_FRAMES = new Frame[0];
+
+  /**
+   * Describes what {@link SSEBroadcaster} does when a subscriber's queue is full.
+   */
+  public enum SlowConsumerPolicy {
+    /**
+     * The event is discarded for that subscriber.
+     */
+    DROP,
+
+    /**
+     * The subscriber's stream is closed.
+     */
+    DISCONNECT,
+
+    /**
+     * The publisher waits until there is room in the queue. Any other publishers wait for it as
+     * well, so that events stay in order, but new subscribers can still connect.
+     */
+    BLOCK
+  }
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+  private final AtomicLong publishedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong disconnectedCount = new AtomicLong();
+  private final AtomicLong replayedCount = new AtomicLong();
+  private final Object publishLock = new Object();
+  private final Object fanOutLock = new Object();
+  private Frame[] eventLog; // guarded by publishLock
+  private long fanOutsStarted; // guarded by publishLock
+  private long fanOutsFinished; // guarded by fanOutLock
+  private volatile long lastEventId; // written only while holding publishLock
+  private volatile long retryMillis = -1;
+  private final SSEFrameBuilder frameBuilder = new SSEFrameBuilder(); // guarded by publishLock
+  private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+  private volatile SlowConsumerPolicy policy = SlowConsumerPolicy.BLOCK;
+  private volatile boolean closed;
+
+  SSEBroadcaster() {}
+
+  /**
+   * Sets the maximum number of events that can be waiting to be written to each subscriber. This
+   * only affects subscribers that connect after it is set. The default is
+   * {@link #DEFAULT_QUEUE_CAPACITY}.
+   *
+   * @param queueCapacity the queue capacity
+   * @return the same instance
+   */
+  public SSEBroadcaster withQueueCapacity(int queueCapacity) {
+    this.queueCapacity = Math.max(1, queueCapacity);
+    return this;
+  }
+
+  /**
+   * Sets what to do when a subscriber's queue is full. The default is
+   * {@link SlowConsumerPolicy#BLOCK}.
+   *
+   * @param policy the slow consumer policy
+   * @return the same instance
+   */
+  public SSEBroadcaster withSlowConsumerPolicy(SlowConsumerPolicy policy) {
+    this.policy = policy == null ? SlowConsumerPolicy.BLOCK : policy;
+    return this;
+  }
+
+  /**
+   * Enables the event log, which keeps the specified number of most recent events so they can be
+   * sent again to clients that reconnect. This should be called before any events are published.
+   *
+   * @param capacity the maximum number of events to keep
+   * @return the same instance
+   */
+  public SSEBroadcaster withEventLog(int capacity) {
+    synchronized (publishLock) {
+      eventLog = new Frame[Math.max(1, capacity)];
+    }
+    return this;
+  }
+
+  /**
+   * Specifies a reconnection delay to send to each client, in a {@code retry} field at the start
+   * of the stream. By default, no {@code retry} field is sent.
+   *
+   * @param delay the reconnection delay
+   * @param unit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public SSEBroadcaster withRetry(long delay, TimeUnit unit) {
+    this.retryMillis = (unit == null ? TimeUnit.MILLISECONDS : unit).toMillis(delay);
+    return this;
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    Handlers.SSE.start().apply(context);
+    Subscriber s = new Subscriber(context, queueCapacity);
+    Frame[] missed;
+    // Holding the publish lock here means that every event is either in the missed events or
+    // in the subscriber's queue, but not both.
+    synchronized (publishLock) {
+      missed = missedEvents(context.getRequest().getHeader("Last-Event-ID"));
+      subscribers.add(s);
+    }
+    synchronized (subscribers) {
+      subscribers.notifyAll();
+    }
+    if (closed) {
+      s.end();
+      return s.done;
+    }
+    long retry = retryMillis;
+    if (retry >= 0) {
+      s.backlog.add(new Frame(new SSEFrameBuilder().retry(retry).end().toByteArray()));
+    }
+    for (Frame frame: missed) {
+      s.backlog.add(frame);
+    }
+    replayedCount.addAndGet(missed.length);
+    context.whenAborted().thenRun(s::end); // the server is shutting down
+    s.wake();
+    return s.done;
+  }
+
+  /**
+   * Sends an event to all subscribers.
+   *
+   * @param message the "event" field
+   * @param data the "data" field; if it contains line breaks, it is split into multiple fields
+   * @return the number of subscribers that the event was queued for
+   */
+  public int publish(String message, String data) {
+    FanOut f;
+    synchronized (publishLock) {
+      f = prepareFanOut(logEvent(startEvent().event(message).data(data).end()));
+    }
+    return fanOut(f);
+  }
+
+  /**
+   * Sends an event to all subscribers, with content that has already been formatted.
+   *
+   * @param content the full event, not including the two newlines that terminate it
+   * @return the number of subscribers that the event was queued for
+   */
+  public int publish(String content) {
+    FanOut f;
+    synchronized (publishLock) {
+      f = prepareFanOut(logEvent(startEvent().raw(content).raw("\n\n")));
+    }
+    return fanOut(f);
+  }
+
+  /**
+   * Sends a comment line to all subscribers.
+   *
+   * @param text the content that should appear after the colon
+   * @return the number of subscribers that the comment was queued for
+   */
+  public int publishComment(String text) {
+    FanOut f;
+    synchronized (publishLock) {
+      f = prepareFanOut(new Frame(frameBuilder.reset().comment(text).toByteArray()));
+    }
+    return fanOut(f);
+  }
+
+  /**
+   * Waits until at least the specified number of clients are connected.
+   *
+   * @param count the number of subscribers to wait for
+   * @param timeout the maximum time to wait
+   * @param timeoutUnit the time unit, or null for milliseconds
+   * @throws IllegalStateException if the timeout expires first
+   */
+  public void awaitSubscribers(int count, long timeout, TimeUnit timeoutUnit) {
+    long deadline = System.nanoTime() +
+        (timeoutUnit == null ? TimeUnit.MILLISECONDS : timeoutUnit).toNanos(timeout);
+    synchronized (subscribers) {
+      while (subscribers.size() < count) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IllegalStateException("timed out waiting for " + count + " subscribers, had "
+              + subscribers.size());
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(subscribers, remaining);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of clients that are currently connected.
+   *
+   * @return the number of subscribers
+   */
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  /**
+   * Returns the distribution of times, in nanoseconds, from when an event was published to when
+   * it had been written to each subscriber's stream.
+   *
+   * @return the fan-out latency histogram
+   */
+  public LatencyHistogram getFanOutLatency() {
+    return fanOutLatency;
+  }
+
+  /**
+   * Returns the number of events that have been published.
+   *
+   * @return the number of events
+   */
+  public long getPublishedCount() {
+    return publishedCount.get();
+  }
+
+  /**
+   * Returns the {@code id} of the most recently published event, if the event log is enabled.
+   *
+   * @return the last event ID, or zero if no events have been published with an ID
+   */
+  public long getLastEventId() {
+    return lastEventId;
+  }
+
+  /**
+   * Returns the total number of events that were sent again to reconnecting clients from the
+   * event log.
+   *
+   * @return the number of replayed events
+   */
+  public long getReplayedCount() {
+    return replayedCount.get();
+  }
+
+  /**
+   * Returns the number of times an event was discarded for a subscriber because of
+   * {@link SlowConsumerPolicy#DROP}.
+   *
+   * @return the number of dropped events
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Returns the number of subscribers that were disconnected because of
+   * {@link SlowConsumerPolicy#DISCONNECT}.
+   *
+   * @return the number of disconnected subscribers
+   */
+  public long getDisconnectedCount() {
+    return disconnectedCount.get();
+  }
+
+  /**
+   * Ends the streams of all current subscribers, and causes any new requests to receive an empty
+   * stream that is closed immediately.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (Subscriber s: subscribers) {
+      s.end();
+    }
+  }
+
+  // The following methods, up to missedEvents(), are called while holding publishLock.
+
+  private SSEFrameBuilder startEvent() {
+    frameBuilder.reset();
+    if (eventLog != null) {
+      frameBuilder.id(lastEventId + 1);
+    }
+    return frameBuilder;
+  }
+
+  private Frame logEvent(SSEFrameBuilder builder) {
+    Frame frame = new Frame(builder.toByteArray());
+    if (eventLog != null) {
+      long id = lastEventId + 1;
+      eventLog[(int)((id - 1) % eventLog.length)] = frame;
+      lastEventId = id;
+    }
+    return frame;
+  }
+
+  // The subscribers that get an event are the ones that were connected when it was published; a
+  // subscriber that connects later gets it from the event log instead, if at all.
+  private FanOut prepareFanOut(Frame frame) {
+    publishedCount.incrementAndGet();
+    return new FanOut(frame, subscribers.toArray(new Subscriber[0]), fanOutsStarted++);
+  }
+
+  // Returns the events after the one with the specified ID that are still in the log. A client
+  // that did not send Last-Event-ID is starting a new stream, so it does not get any; neither does
+  // one whose Last-Event-ID isn't one of our IDs, since we can't tell which events it has seen.
+  private Frame[] missedEvents(String lastEventIdHeader) {
+    if (eventLog == null || lastEventIdHeader == null) {
+      return NO_FRAMES;
+    }
+    long lastSeen;
+    try {
+      lastSeen = Long.parseLong(lastEventIdHeader.trim());
+    } catch (NumberFormatException e) {
+      return NO_FRAMES;
+    }
+    long first = Math.max(lastSeen + 1, Math.max(1, lastEventId - eventLog.length + 1));
+    if (first > lastEventId) {
+      return NO_FRAMES;
+    }
+    Frame[] ret = new Frame[(int)(lastEventId - first + 1)];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = eventLog[(int)((first + i - 1) % eventLog.length)];
+    }
+    return ret;
+  }
+
+  // This is not called while holding publishLock, since with SlowConsumerPolicy.BLOCK it can wait
+  // indefinitely for a subscriber that isn't reading, and that shouldn't stop other threads from
+  // publishing or new clients from connecting. Fan-outs still take turns in the order they were
+  // prepared, so that every subscriber receives events in the order they were published.
+  private int fanOut(FanOut f) {
+    boolean interrupted = false;
+    synchronized (fanOutLock) {
+      while (fanOutsFinished != f.sequence) {
+        try {
+          fanOutLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true; // we can't give up our turn, or every later publish would wait forever
+        }
+      }
+    }
+    try {
+      if (interrupted) {
+        throw new RuntimeException(new InterruptedException());
+      }
+      return deliver(f.frame, f.targets);
+    } finally {
+      synchronized (fanOutLock) {
+        fanOutsFinished++;
+        fanOutLock.notifyAll();
+      }
+    }
+  }
+
+  private int deliver(Frame frame, Subscriber[] targets) {
+    SlowConsumerPolicy policy = this.policy;
+    int queued = 0;
+    for (Subscriber s: targets) {
+      if (policy == SlowConsumerPolicy.BLOCK) {
+        try {
+          // the subscriber may disconnect while we are waiting, so we check periodically
+          boolean added;
+          while (!(added = s.queue.offer(frame, 100, TimeUnit.MILLISECONDS)) && subscribers.contains(s)) {}
+          if (added) {
+            queued++;
+            s.wake();
+          }
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      } else if (s.queue.offer(frame)) {
+        queued++;
+        s.wake();
+      } else if (policy == SlowConsumerPolicy.DROP) {
+        droppedCount.incrementAndGet();
+      } else if (subscribers.remove(s)) {
+        disconnectedCount.incrementAndGet();
+        s.end();
+      }
+    }
+    return queued;
+  }
+
+  private static final class Frame {
+    final byte[] data;
+    final long publishedTime = System.nanoTime();
+
+    Frame(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  private static final class FanOut {
+    final Frame frame;
+    final Subscriber[] targets;
+    final long sequence;
+
+    FanOut(Frame frame, Subscriber[] targets, long sequence) {
+      this.frame = frame;
+      this.targets = targets;
+      this.sequence = sequence;
+    }
+  }
+
+  // Each subscriber's stream is written by a chain of asynchronous writes, rather than by a thread
+  // of its own. Whenever something is queued and no one is writing, a worker thread takes frames
+  // from the queue and writes them, until the queue is empty or the client has fallen behind; in
+  // that case, the write's stage resumes draining once the client has caught up.
+  private final class Subscriber {
+    final RequestContext context;
+    final BlockingQueue<Frame> queue;
+    final ArrayDeque<Frame> backlog = new ArrayDeque<>(); // written before anything in the queue
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    Subscriber(RequestContext context, int capacity) {
+      this.context = context;
+      queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void end() {
+      do {
+        queue.clear();
+      } while (!queue.offer(END_OF_STREAM));
+      wake();
+    }
+
+    void wake() {
+      if (draining.compareAndSet(false, true)) {
+        AsyncSupport.workers.execute(this::drain);
+      }
+    }
+
+    // Only one thread at a time runs this, the one that set the draining flag. Once the stream has
+    // ended, the flag is left set, so nothing more is written.
+    private void drain() {
+      while (true) {
+        boolean replayed = !backlog.isEmpty();
+        Frame frame = replayed ? backlog.poll() : queue.poll();
+        if (frame == null) {
+          draining.set(false);
+          // a frame may have been queued after we looked, by a publisher that saw the flag set
+          if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        if (frame == END_OF_STREAM) {
+          finish();
+          return;
+        }
+        CompletableFuture<Void> written;
+        try {
+          written = context.writeAsync(frame.data).toCompletableFuture();
+        } catch (RuntimeException e) {
+          finish(); // the client has disconnected
+          return;
+        }
+        if (!replayed) {
+          fanOutLatency.recordValue(System.nanoTime() - frame.publishedTime);
+        }
+        if (!written.isDone()) {
+          written.whenComplete((v, e) -> {
+            if (e == null) {
+              drain();
+            } else {
+              finish();
+            }
+          });
+          return;
+        }
+        if (written.isCompletedExceptionally()) {
+          finish();
+          return;
+        }
+      }
+    }
+
+    private void finish() {
+      subscribers.remove(this);
+      queue.clear(); // unblocks the publisher if it was waiting for this subscriber
+      done.complete(null);
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Arrays;
+
+/**
+ * Builds Server-Sent Events frames directly as UTF-8 bytes.
+ * <p>
+ * Each method appends one or more field lines to an internal buffer, which grows as needed and
+ * is kept when you call {@link #reset()}, so a handler that sends many events can reuse the same
+ * builder without allocating anything per event:
+ *
+ * <pre><code>
+ *     Handler handler = Handlers.all(
+ *         Handlers.SSE.start(),
+ *         ctx -&gt; {
+ *             SSEFrameBuilder frame = new SSEFrameBuilder();
+ *             for (int i = 0; i &lt; 1000000; i++) {
+ *                 frame.reset().id(i).event("put").data(someJson).end().writeTo(ctx);
+ *             }
+ *         }
+ *     );
+ * </code></pre>
+ *
+ * Data and comments that contain line breaks are split into multiple lines as the SSE format
+ * requires. Instances are not thread-safe.
+ *
+ * @since 2.1.0
+ */
+public final class SSEFrameBuilder {
+  private static final byte[] EVENT = ascii("event: ");
+  private static final byte[] DATA = ascii("data: ");
+  private static final byte[] ID = ascii("id: ");
+  private static final byte[] RETRY = ascii("retry: ");
+  private static final byte[] COMMENT = ascii(":");
+
+  private byte[] buf;
+  private int size;
+
+  /**
+   * Creates an empty builder.
+   */
+  public SSEFrameBuilder() {
+    buf = new byte[256];
+  }
+
+  /**
+   * Discards the contents of the buffer, without releasing its memory.
+   *
+   * @return the same instance
+   */
+  public SSEFrameBuilder reset() {
+    size = 0;
+    return this;
+  }
+
+  /**
+   * Adds an {@code event} field.
+   *
+   * @param name the event name, which cannot contain line breaks
+   * @return the same instance
+   * @throws IllegalArgumentException if the name contains a line break
+   */
+  public SSEFrameBuilder event(String name) {
+    return singleLineField(EVENT, name);
+  }
+
+  /**
+   * Adds one {@code data} field for each line of the data.
+   *
+   * @param data the event data; CR, LF, and CRLF are all treated as line breaks
+   * @return the same instance
+   */
+  public SSEFrameBuilder data(String data) {
+    return multiLineField(DATA, data);
+  }
+
+  /**
+   * Adds an {@code id} field.
+   *
+   * @param id the event ID, which cannot contain line breaks
+   * @return the same instance
+   * @throws IllegalArgumentException if the ID contains a line break
+   */
+  public SSEFrameBuilder id(String id) {
+    return singleLineField(ID, id);
+  }
+
+  /**
+   * Adds a numeric {@code id} field.
+   *
+   * @param id the event ID
+   * @return the same instance
+   */
+  public SSEFrameBuilder id(long id) {
+    appendBytes(ID);
+    appendLong(id);
+    appendByte('\n');
+    return this;
+  }
+
+  /**
+   * Adds a {@code retry} field.
+   *
+   * @param millis the reconnection delay in milliseconds
+   * @return the same instance
+   */
+  public SSEFrameBuilder retry(long millis) {
+    appendBytes(RETRY);
+    appendLong(millis);
+    appendByte('\n');
+    return this;
+  }
+
+  /**
+   * Adds one comment line for each line of the text.
+   *
+   * @param text the content that should appear after the colon
+   * @return the same instance
+   */
+  public SSEFrameBuilder comment(String text) {
+    return multiLineField(COMMENT, text);
+  }
+
+  // Appends text without any formatting, for content that is already in SSE format.
+  SSEFrameBuilder raw(String text) {
+    appendUtf8(text, 0, text.length());
+    return this;
+  }
+
+  /**
+   * Adds the blank line that marks the end of an event.
+   *
+   * @return the same instance
+   */
+  public SSEFrameBuilder end() {
+    appendByte('\n');
+    return this;
+  }
+
+  /**
+   * Returns the number of bytes in the buffer.
+   *
+   * @return the size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a copy of the buffer contents.
+   *
+   * @return a new byte array
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, size);
+  }
+
+  /**
+   * Writes the buffer contents to a response, using {@link RequestContext#write(byte[], int, int)}.
+   *
+   * @param context the request context
+   * @return the same instance
+   */
+  public SSEFrameBuilder writeTo(RequestContext context) {
+    context.write(buf, 0, size);
+    return this;
+  }
+
+  private SSEFrameBuilder singleLineField(byte[] prefix, String value) {
+    if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("SSE field value cannot contain line breaks");
+    }
+    appendBytes(prefix);
+    appendUtf8(value, 0, value.length());
+    appendByte('\n');
+    return this;
+  }
+
+  private SSEFrameBuilder multiLineField(byte[] prefix, String value) {
+    int start = 0, n = value.length();
+    for (int i = 0; i < n; i++) {
+      char c = value.charAt(i);
+      if (c == '\n' || c == '\r') {
+        appendBytes(prefix);
+        appendUtf8(value, start, i);
+        appendByte('\n');
+        if (c == '\r' && i + 1 < n && value.charAt(i + 1) == '\n') {
+          i++;
+        }
+        start = i + 1;
+      }
+    }
+    appendBytes(prefix);
+    appendUtf8(value, start, n);
+    appendByte('\n');
+    return this;
+  }
+
+  private void appendUtf8(String s, int start, int end) {
+    ensureCapacity((end - start) * 3);
+    byte[] b = buf;
+    int pos = size;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        b[pos++] = (byte)c;
+      } else if (c < 0x800) {
+        b[pos++] = (byte)(0xc0 | (c >> 6));
+        b[pos++] = (byte)(0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+        // a surrogate pair takes 4 bytes, which is no more than the 6 we reserved for the two chars
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        b[pos++] = (byte)(0xf0 | (cp >> 18));
+        b[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+        b[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+        b[pos++] = (byte)(0x80 | (cp & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        b[pos++] = '?'; // unpaired surrogate, same as String.getBytes
+      } else {
+        b[pos++] = (byte)(0xe0 | (c >> 12));
+        b[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+        b[pos++] = (byte)(0x80 | (c & 0x3f));
+      }
+    }
+    size = pos;
+  }
+
+  private void appendLong(long value) {
+    if (value < 0) {
+      appendByte('-');
+      if (value == Long.MIN_VALUE) {
+        appendBytes(ascii("9223372036854775808"));
+        return;
+      }
+      value = -value;
+    }
+    ensureCapacity(19);
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int i = size + digits - 1; i >= size; i--) {
+      buf[i] = (byte)('0' + value % 10);
+      value /= 10;
+    }
+    size += digits;
+  }
+
+  private void appendBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buf, size, bytes.length);
+    size += bytes.length;
+  }
+
+  private void appendByte(char c) {
+    ensureCapacity(1);
+    buf[size++] = (byte)c;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+    }
+  }
+
+  private static byte[] ascii(String s) {
+    byte[] ret = new byte[s.length()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = (byte)s.charAt(i);
+    }
+    return ret;
+  }
+}
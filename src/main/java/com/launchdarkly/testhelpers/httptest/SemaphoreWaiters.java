@@ -0,0 +1,85 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+
+// Hands out permits from a Semaphore to asynchronous waiters, in the order they started waiting.
+// A Semaphore can't tell anyone when it has been released, so a single thread blocks in acquire()
+// on behalf of all of the waiters, and completes each waiter as soon as it gets a permit for it.
+// The thread only exists while someone is waiting.
+//
+// A waiter whose request has been aborted is removed; if the thread was already acquiring a permit
+// for it, the thread is interrupted, and if a permit arrived anyway, it goes back to the semaphore.
+final class SemaphoreWaiters {
+  private final Semaphore semaphore;
+
+  // the following are guarded by this
+  private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+  private CompletableFuture<Void> current; // the waiter that the thread is acquiring a permit for
+  private Thread thread;
+
+  SemaphoreWaiters(Semaphore semaphore) {
+    this.semaphore = semaphore;
+  }
+
+  CompletableFuture<Void> acquire(CompletionStage<Void> aborted) {
+    CompletableFuture<Void> f = new CompletableFuture<>();
+    synchronized (this) {
+      if (current == null && waiters.isEmpty() && semaphore.tryAcquire()) {
+        return AsyncSupport.DONE;
+      }
+      waiters.add(f);
+      if (thread == null) {
+        thread = new Thread(this::run, "httptest-semaphore-waiter");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+    aborted.whenComplete((v, e) -> cancel(f));
+    return f;
+  }
+
+  private void cancel(CompletableFuture<Void> f) {
+    synchronized (this) {
+      if (current == f) {
+        current = null;
+        thread.interrupt();
+      } else if (!waiters.remove(f)) {
+        return; // it already has its permit
+      }
+    }
+    f.completeExceptionally(new CancellationException("request was aborted"));
+  }
+
+  private void run() {
+    while (true) {
+      CompletableFuture<Void> f;
+      synchronized (this) {
+        f = waiters.poll();
+        current = f;
+        if (f == null) {
+          thread = null;
+          return;
+        }
+      }
+      try {
+        semaphore.acquire();
+      } catch (InterruptedException e) {
+        continue; // the waiter was cancelled
+      }
+      synchronized (this) {
+        if (current != f) {
+          // the waiter was cancelled just as we got the permit
+          Thread.interrupted();
+          semaphore.release();
+          continue;
+        }
+        current = null;
+      }
+      AsyncSupport.workers.execute(() -> f.complete(null));
+    }
+  }
+}
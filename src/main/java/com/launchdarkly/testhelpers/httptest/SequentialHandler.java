@@ -1,9 +1,10 @@
 package com.launchdarkly.testhelpers.httptest;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicInteger;
 
-final class SequentialHandler implements Handler {
+final class SequentialHandler implements AsyncHandler {
   private final Handler[] handlers;
   private final AtomicInteger index = new AtomicInteger(0);
   
@@ -12,11 +13,11 @@ final class SequentialHandler implements Handler {
   }
   
   @Override
-  public void apply(RequestContext context) {
+  public CompletionStage<Void> applyAsync(RequestContext context) {
     int i = index.getAndIncrement();
     if (i >= handlers.length) {
       throw new RuntimeException("server received unexpected request");
     }
-    handlers[i].apply(context);
+    return AsyncSupport.apply(handlers[i], context);
   }
 }
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,7 +14,7 @@ import java.util.regex.Pattern;
  * The request is sent to the handler for the first matching path. If there is no matching path, it
  * returns a 404. If there is a matching path but only for a different HTTP method, it returns a 405.
  */
-public final class SimpleRouter implements Handler {
+public final class SimpleRouter implements AsyncHandler {
   private final List<Route> routes = new ArrayList<>();
   
   private static class Route {
@@ -29,7 +30,7 @@ public final class SimpleRouter implements Handler {
   }
   
   @Override
-  public void apply(RequestContext context) {
+  public CompletionStage<Void> applyAsync(RequestContext context) {
     boolean matchedPath = false;
     for (Route r: routes) {
       Matcher m = r.pattern.matcher(context.getRequest().getPath());
@@ -45,11 +46,11 @@ public final class SimpleRouter implements Handler {
           }
           context = new RequestContextWithPathParams(context, params.build());
         }
-        r.handler.apply(context);
-        return;
+        return AsyncSupport.apply(r.handler, context);
       }
     }
     context.setStatus(matchedPath ? 405 : 404);
+    return AsyncSupport.DONE;
   }
   
   /**
@@ -139,11 +140,36 @@ public final class SimpleRouter implements Handler {
       wrapped.setChunked();
     }
 
+    @Override
+    public void setFixedLength(long contentLength) {
+      wrapped.setFixedLength(contentLength);
+    }
+
     @Override
     public void write(byte[] data) {
       wrapped.write(data);
     }
 
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      wrapped.write(data, offset, length);
+    }
+
+    @Override
+    public CompletionStage<Void> writeAsync(byte[] data) {
+      return wrapped.writeAsync(data);
+    }
+
+    @Override
+    public CompletionStage<Void> park() {
+      return wrapped.park();
+    }
+
+    @Override
+    public CompletionStage<Void> whenAborted() {
+      return wrapped.whenAborted();
+    }
+
     @Override
     public String getPathParam(int i) {
       return i < 0 || i >= pathParams.size() ? null : pathParams.get(i);
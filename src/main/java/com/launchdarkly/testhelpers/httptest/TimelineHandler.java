@@ -0,0 +1,191 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A delegator that changes its behavior over time according to a script, for simulating outages
+ * and recoveries while a client is under load.
+ * <p>
+ * Use {@link Handlers#timeline()} to create an instance, and then add phases in order. Each phase
+ * passes requests to one handler, and lasts either for a fixed time or for a fixed number of
+ * requests. The last phase lasts indefinitely.
+ *
+ * <pre><code>
+ *     WeightedHandlerSwitcher flaky = new WeightedHandlerSwitcher(Handlers.status(200), Handlers.status(500));
+ *     flaky.setWeights(70, 30);
+ *     TimelineHandler timeline = Handlers.timeline()
+ *         .during(10, TimeUnit.SECONDS, Handlers.status(200))  // healthy
+ *         .during(5, TimeUnit.SECONDS, flaky)                  // 30% errors
+ *         .forRequests(100, Handlers.status(503))              // outage
+ *         .thereafter(Handlers.status(200));                   // recovery
+ *     try (HttpServer server = HttpServer.start(timeline)) {
+ *         // ... run the load generator
+ *     }
+ * </code></pre>
+ *
+ * The timeline starts when the first request arrives, or when {@link #start()} is called. Phases
+ * that have a time limit end on a shared timer, so nothing needs to drive the timeline but the
+ * requests themselves. The end of each timed phase is measured from the scheduled end of the
+ * previous phase, rather than from when the timer actually fired, so the timing does not drift
+ * over a long script. Phases cannot be added once the timeline has started.
+ *
+ * @since 2.1.0
+ */
+public final class TimelineHandler implements AsyncHandler {
+  private static final long UNLIMITED = -1;
+
+  private final List<Phase> phaseList = new ArrayList<>();
+  private volatile Phase[] phases = null;
+  private final AtomicInteger currentPhase = new AtomicInteger(-1);
+
+  private static final class Phase {
+    final Handler handler;
+    final long durationNanos;
+    final long requestLimit;
+    final AtomicInteger requests = new AtomicInteger();
+
+    Phase(Handler handler, long durationNanos, long requestLimit) {
+      this.handler = handler;
+      this.durationNanos = durationNanos;
+      this.requestLimit = requestLimit;
+    }
+  }
+
+  TimelineHandler() {}
+
+  /**
+   * Adds a phase that lasts for a fixed amount of time.
+   *
+   * @param duration how long the phase lasts
+   * @param durationUnit the time unit, or null for milliseconds
+   * @param handler the handler for requests during this phase
+   * @return the same instance
+   * @throws IllegalStateException if the timeline has already started
+   */
+  public TimelineHandler during(long duration, TimeUnit durationUnit, Handler handler) {
+    return addPhase(new Phase(handler,
+        Math.max(0, (durationUnit == null ? TimeUnit.MILLISECONDS : durationUnit).toNanos(duration)), UNLIMITED));
+  }
+
+  /**
+   * Adds a phase that lasts for a fixed number of requests.
+   *
+   * @param count the number of requests
+   * @param handler the handler for requests during this phase
+   * @return the same instance
+   * @throws IllegalStateException if the timeline has already started
+   */
+  public TimelineHandler forRequests(int count, Handler handler) {
+    return addPhase(new Phase(handler, UNLIMITED, Math.max(0, count)));
+  }
+
+  /**
+   * Adds a final phase that lasts indefinitely.
+   * <p>
+   * This is only for readability: whatever phase is last never ends, so if you do not call this
+   * method, the handler from the last phase you added will continue to be used.
+   *
+   * @param handler the handler for all remaining requests
+   * @return the same instance
+   * @throws IllegalStateException if the timeline has already started
+   */
+  public TimelineHandler thereafter(Handler handler) {
+    return addPhase(new Phase(handler, UNLIMITED, UNLIMITED));
+  }
+
+  /**
+   * Starts the timeline now, if it has not already started, rather than waiting for the first
+   * request. Use this if the durations should be measured from the start of the test.
+   *
+   * @return the same instance
+   * @throws IllegalStateException if no phases have been added
+   */
+  public TimelineHandler start() {
+    synchronized (phaseList) {
+      if (phases != null) {
+        return this;
+      }
+      if (phaseList.isEmpty()) {
+        throw new IllegalStateException("timeline has no phases");
+      }
+      phases = phaseList.toArray(new Phase[phaseList.size()]);
+      currentPhase.set(0);
+    }
+    enterPhase(0, System.nanoTime());
+    return this;
+  }
+
+  /**
+   * Returns the index of the current phase, in the order the phases were added.
+   *
+   * @return the phase index, or -1 if the timeline has not started
+   */
+  public int getCurrentPhase() {
+    return currentPhase.get();
+  }
+
+  /**
+   * Returns the number of requests that have been passed to the handler for a phase.
+   *
+   * @param index the phase index, in the order the phases were added
+   * @return the number of requests
+   */
+  public int getRequestCount(int index) {
+    Phase[] ps = phases;
+    if (ps == null) {
+      return 0;
+    }
+    Phase p = ps[index];
+    int n = p.requests.get();
+    // requests that found a phase already used up are counted, but went on to the next phase
+    return p.requestLimit == UNLIMITED || index == ps.length - 1 ? n : (int)Math.min(n, p.requestLimit);
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    if (phases == null) {
+      start();
+    }
+    Phase[] ps = phases;
+    while (true) {
+      int i = currentPhase.get();
+      Phase p = ps[i];
+      int n = p.requests.getAndIncrement();
+      if (p.requestLimit != UNLIMITED && n >= p.requestLimit && i < ps.length - 1) {
+        advance(i, System.nanoTime());
+        continue;
+      }
+      return AsyncSupport.apply(p.handler, context);
+    }
+  }
+
+  private TimelineHandler addPhase(Phase phase) {
+    synchronized (phaseList) {
+      if (phases != null) {
+        throw new IllegalStateException("cannot add phases after the timeline has started");
+      }
+      phaseList.add(phase);
+    }
+    return this;
+  }
+
+  // Only one caller can move past a given phase, whether it's the timer or a request that found
+  // the phase used up, so a phase is never skipped.
+  private void advance(int from, long nominalStart) {
+    if (currentPhase.compareAndSet(from, from + 1)) {
+      enterPhase(from + 1, nominalStart);
+    }
+  }
+
+  private void enterPhase(int index, long nominalStart) {
+    Phase p = phases[index];
+    if (p.durationNanos != UNLIMITED && index < phases.length - 1) {
+      long end = nominalStart + p.durationNanos;
+      AsyncSupport.schedule(() -> advance(index, end), end - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  }
+}
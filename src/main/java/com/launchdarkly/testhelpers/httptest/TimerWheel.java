@@ -0,0 +1,109 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A hashed timer wheel, as described by Varghese and Lauck: timers are put in one of a fixed number
+// of slots according to their deadline, and a single thread visits one slot per tick, so scheduling
+// a timer and expiring one are both constant-time no matter how many timers are pending. The cost
+// is that deadlines are rounded up to the next tick.
+//
+// Any thread can schedule a timer; it goes on a lock-free queue that the timer thread drains
+// before each tick. Tasks run on the timer thread, so they must be short; AsyncSupport only uses
+// this to hand work to its thread pool. When nothing is scheduled, the thread parks until
+// something is, rather than waking up on every tick.
+final class TimerWheel {
+  private final long tickNanos;
+  private final int mask;
+  private final List<List<Timer>> slots;
+  private final ConcurrentLinkedQueue<Timer> incoming = new ConcurrentLinkedQueue<>();
+  private final long startTime;
+  private final Thread thread;
+
+  // the following are only accessed by the timer thread
+  private long currentTick;
+  private int timerCount;
+
+  private static final class Timer {
+    final Runnable task;
+    final long deadline; // relative to startTime
+    long remainingRounds;
+
+    Timer(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+  }
+
+  TimerWheel(long tick, TimeUnit tickUnit, int slotCount, String threadName) {
+    if (Integer.bitCount(slotCount) != 1) {
+      throw new IllegalArgumentException("slot count must be a power of two");
+    }
+    this.tickNanos = tickUnit.toNanos(tick);
+    this.mask = slotCount - 1;
+    this.slots = new ArrayList<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      slots.add(new ArrayList<>());
+    }
+    this.startTime = System.nanoTime();
+    this.thread = new Thread(this::run, threadName);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void schedule(Runnable task, long delay, TimeUnit unit) {
+    long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+    incoming.add(new Timer(task, deadline));
+    LockSupport.unpark(thread);
+  }
+
+  private void run() {
+    while (true) {
+      if (timerCount == 0 && incoming.isEmpty()) {
+        LockSupport.park(this);
+        // nothing was in the wheel, so we can skip over the ticks that went by while we were idle
+        currentTick = Math.max(currentTick, (System.nanoTime() - startTime) / tickNanos);
+        continue;
+      }
+      long tickEnd = (currentTick + 1) * tickNanos;
+      long wait;
+      while ((wait = tickEnd - (System.nanoTime() - startTime)) > 0) {
+        LockSupport.parkNanos(this, wait);
+      }
+      addIncomingTimers();
+      expireTimers(slots.get((int)(currentTick & mask)));
+      currentTick++;
+    }
+  }
+
+  private void addIncomingTimers() {
+    for (Timer t = incoming.poll(); t != null; t = incoming.poll()) {
+      // A deadline that falls before the end of the current tick belongs to the current slot;
+      // otherwise it expires at the end of the tick that contains it.
+      long tick = Math.max(currentTick, (t.deadline + tickNanos - 1) / tickNanos - 1);
+      t.remainingRounds = (tick - currentTick) / slots.size();
+      slots.get((int)(tick & mask)).add(t);
+      timerCount++;
+    }
+  }
+
+  private void expireTimers(List<Timer> slot) {
+    int kept = 0;
+    for (int i = 0; i < slot.size(); i++) {
+      Timer t = slot.get(i);
+      if (t.remainingRounds > 0) {
+        t.remainingRounds--;
+        slot.set(kept++, t);
+        continue;
+      }
+      timerCount--;
+      try {
+        t.task.run();
+      } catch (RuntimeException e) {} // a failed task must not stop the timer thread
+    }
+    slot.subList(kept, slot.size()).clear();
+  }
+}
@@ -0,0 +1,176 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A delegator that splits requests among several handlers according to weights, which can be
+ * changed at any time, either all at once or gradually.
+ * <p>
+ * This is like {@link HandlerSwitcher}, but for simulating a gradual rollout: for instance, to
+ * send 90% of requests to the current version of a service and 10% to a new one, and then shift
+ * the rest over the next minute:
+ *
+ * <pre><code>
+ *     WeightedHandlerSwitcher switcher = new WeightedHandlerSwitcher(oldBackend, newBackend);
+ *     switcher.setWeights(90, 10);
+ *     // ... later:
+ *     switcher.rampWeights(1, TimeUnit.MINUTES, 0, 100);
+ * </code></pre>
+ *
+ * Weights are relative, so they do not need to add up to 100. Initially, all requests go to the
+ * first handler.
+ * <p>
+ * Choosing a handler does not take a lock: the weights are kept in an immutable lookup table
+ * (an alias table) that is replaced whenever they change, and each request uses a thread-local
+ * random number generator. During a ramp, each request goes to the handler chosen by either the
+ * old or the new table, with the probability of using the new one rising linearly over time, so
+ * the effective weights move smoothly from the old values to the new ones.
+ *
+ * @since 2.1.0
+ */
+public final class WeightedHandlerSwitcher implements AsyncHandler {
+  private final Handler[] handlers;
+  private final LongAdder[] hits;
+  private volatile State state;
+
+  private static final class State {
+    final double[] fromWeights;
+    final double[] toWeights;
+    final AliasTable from;
+    final AliasTable to;
+    final long rampStart;
+    final long rampNanos;
+
+    State(double[] fromWeights, double[] toWeights, long rampStart, long rampNanos) {
+      this.fromWeights = fromWeights;
+      this.toWeights = toWeights;
+      this.from = new AliasTable(fromWeights);
+      this.to = toWeights == fromWeights ? from : new AliasTable(toWeights);
+      this.rampStart = rampStart;
+      this.rampNanos = rampNanos;
+    }
+
+    // how far along the ramp we are, from 0 to 1
+    double progress(long now) {
+      if (rampNanos <= 0) {
+        return 1;
+      }
+      long elapsed = now - rampStart;
+      return elapsed >= rampNanos ? 1 : (double)elapsed / rampNanos;
+    }
+
+    double[] weightsAt(long now) {
+      double p = progress(now);
+      double fromTotal = sum(fromWeights), toTotal = sum(toWeights);
+      double[] ret = new double[toWeights.length];
+      for (int i = 0; i < ret.length; i++) {
+        ret[i] = (1 - p) * fromWeights[i] / fromTotal + p * toWeights[i] / toTotal;
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param handlers the handlers that can receive requests
+   * @throws IllegalArgumentException if no handlers are specified
+   */
+  public WeightedHandlerSwitcher(Handler... handlers) {
+    if (handlers.length == 0) {
+      throw new IllegalArgumentException("must specify at least one handler");
+    }
+    this.handlers = Arrays.copyOf(handlers, handlers.length);
+    this.hits = new LongAdder[handlers.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new LongAdder();
+    }
+    double[] initial = new double[handlers.length];
+    initial[0] = 1;
+    this.state = new State(initial, initial, 0, 0);
+  }
+
+  @Override
+  public CompletionStage<Void> applyAsync(RequestContext context) {
+    State s = state;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    AliasTable table = s.rampNanos <= 0 || random.nextDouble() < s.progress(System.nanoTime()) ? s.to : s.from;
+    int i = table.next(random);
+    hits[i].increment();
+    return AsyncSupport.apply(handlers[i], context);
+  }
+
+  /**
+   * Changes the weights immediately.
+   *
+   * @param weights the relative weight of each handler, in the same order as the constructor
+   *   parameters
+   * @throws IllegalArgumentException if the number of weights is wrong, if any weight is negative,
+   *   or if all the weights are zero
+   */
+  public void setWeights(double... weights) {
+    double[] w = validateWeights(weights);
+    state = new State(w, w, 0, 0);
+  }
+
+  /**
+   * Changes the weights gradually, starting from the current weights and reaching the new ones
+   * after the specified time.
+   * <p>
+   * If a ramp is already in progress, the new one starts from wherever that one had reached.
+   *
+   * @param duration how long the change should take
+   * @param durationUnit the time unit, or null for milliseconds
+   * @param weights the relative weight of each handler, in the same order as the constructor
+   *   parameters
+   * @throws IllegalArgumentException if the number of weights is wrong, if any weight is negative,
+   *   or if all the weights are zero
+   */
+  public void rampWeights(long duration, TimeUnit durationUnit, double... weights) {
+    double[] w = validateWeights(weights);
+    long now = System.nanoTime();
+    synchronized (this) { // only to keep two concurrent changes from starting at the same point
+      state = new State(state.weightsAt(now), w, now,
+          (durationUnit == null ? TimeUnit.MILLISECONDS : durationUnit).toNanos(duration));
+    }
+  }
+
+  /**
+   * Returns the current weights, as fractions that add up to 1. During a ramp, these are the
+   * effective weights at this moment.
+   *
+   * @return the weight of each handler
+   */
+  public double[] getWeights() {
+    return state.weightsAt(System.nanoTime());
+  }
+
+  /**
+   * Returns the number of requests that have been sent to one of the handlers.
+   *
+   * @param index the index of the handler, in the same order as the constructor parameters
+   * @return the number of requests
+   */
+  public long getHitCount(int index) {
+    return hits[index].sum();
+  }
+
+  private double[] validateWeights(double[] weights) {
+    if (weights.length != handlers.length) {
+      throw new IllegalArgumentException("expected " + handlers.length + " weights");
+    }
+    return Arrays.copyOf(weights, weights.length); // AliasTable will check the values
+  }
+
+  private static double sum(double[] values) {
+    double total = 0;
+    for (double v: values) {
+      total += v;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,223 @@
+package com.launchdarkly.testhelpers.httptest.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Watches the raw bytes that NanoHTTPD reads from a connection, to note when each request started
+// to arrive and to keep a copy of its header block. NanoHTTPD itself only gives us the headers as
+// a map with lowercased names, in which a repeated header keeps only its last value.
+//
+// To find where each request starts, we follow the HTTP/1.1 framing: the headers end with an empty
+// line, and then we skip Content-Length bytes of body. If a request uses any other framing (such as
+// a chunked request body, which NanoHTTPD doesn't support anyway), or the header block gets too
+// big, or a header block doesn't match the request NanoHTTPD parsed, we give up on this connection
+// and the server falls back to NanoHTTPD's headers.
+//
+// Only accessed from the connection's thread.
+final class ConnectionInputStream extends FilterInputStream {
+  private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+  static final class RequestHead {
+    final long arrivalTime;
+    final byte[] data; // the request line and header lines, ending with an empty line
+    final int headersOffset; // where the header lines start
+
+    RequestHead(long arrivalTime, byte[] data) {
+      this.arrivalTime = arrivalTime;
+      this.data = data;
+      int i = 0;
+      while (i < data.length && data[i] != '\n') {
+        i++;
+      }
+      this.headersOffset = Math.min(i + 1, data.length);
+    }
+
+    boolean isForMethod(String method) {
+      if (data.length <= method.length() || data[method.length()] != ' ') {
+        return false;
+      }
+      for (int i = 0; i < method.length(); i++) {
+        if (data[i] != method.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final ArrayDeque<RequestHead> completed = new ArrayDeque<>();
+  private byte[] buf = new byte[1024];
+  private int len;
+  private int lineStart;
+  private long arrivalTime;
+  private long bodyRemaining;
+  private boolean lostSync;
+
+  ConnectionInputStream(InputStream in) {
+    super(in);
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0 && !lostSync) {
+      if (bodyRemaining > 0) {
+        bodyRemaining--;
+      } else {
+        addByte((byte)b);
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      scan(b, off, n);
+    }
+    return n;
+  }
+
+  // FilterInputStream would pass this through to the socket stream, so the skipped bytes would
+  // bypass scan().
+  @Override
+  public long skip(long n) throws IOException {
+    byte[] scratch = new byte[(int)Math.min(n, 8192)];
+    long total = 0;
+    while (total < n) {
+      int count = read(scratch, 0, (int)Math.min(n - total, scratch.length));
+      if (count < 0) {
+        break;
+      }
+      total += count;
+    }
+    return total;
+  }
+
+  // Returns the header block of the next request, or null if we don't know it. The method is the
+  // one NanoHTTPD parsed from the request line, which we check to make sure we're still in sync.
+  RequestHead nextRequest(String method) {
+    RequestHead head = completed.poll();
+    if (head != null && !head.isForMethod(method)) {
+      giveUp();
+      completed.clear();
+      return null;
+    }
+    return head;
+  }
+
+  private void scan(byte[] b, int off, int n) {
+    int end = off + n;
+    for (int i = off; i < end && !lostSync;) {
+      if (bodyRemaining > 0) {
+        int skip = (int)Math.min(bodyRemaining, end - i);
+        i += skip;
+        bodyRemaining -= skip;
+      } else {
+        addByte(b[i++]);
+      }
+    }
+  }
+
+  private void addByte(byte b) {
+    if (len == 0) {
+      arrivalTime = System.nanoTime();
+    }
+    if (len == buf.length) {
+      if (len >= MAX_HEADER_SIZE) {
+        giveUp();
+        return;
+      }
+      buf = Arrays.copyOf(buf, len * 2);
+    }
+    buf[len++] = b;
+    if (b != '\n') {
+      return;
+    }
+    int lineLength = len - 1 - lineStart;
+    if (lineLength > 0 && buf[len - 2] == '\r') {
+      lineLength--;
+    }
+    if (lineLength > 0) {
+      lineStart = len;
+      return;
+    }
+    if (lineStart > 0) {
+      finishRequestHead();
+    }
+    len = 0; // an empty line before a request line is allowed, and ignored
+    lineStart = 0;
+  }
+
+  private void finishRequestHead() {
+    RequestHead head = new RequestHead(arrivalTime, Arrays.copyOf(buf, len));
+    completed.add(head);
+    // This request's headers are fine, but if we can't tell where its body ends, we can't find
+    // the next request.
+    if (findHeader(head, "transfer-encoding") >= 0) {
+      giveUp();
+      return;
+    }
+    int pos = findHeader(head, "content-length");
+    if (pos >= 0) {
+      bodyRemaining = parseLong(head.data, pos);
+      if (bodyRemaining < 0) {
+        giveUp();
+      }
+    }
+  }
+
+  // Requests whose headers we've already captured are still valid.
+  private void giveUp() {
+    lostSync = true;
+    buf = null;
+  }
+
+  // Returns the position just after the colon of the first header with this name, or -1.
+  private static int findHeader(RequestHead head, String lowerName) {
+    byte[] data = head.data;
+    for (int pos = head.headersOffset; pos + lowerName.length() < data.length;) {
+      int i = 0;
+      while (i < lowerName.length() && Character.toLowerCase((char)data[pos + i]) == lowerName.charAt(i)) {
+        i++;
+      }
+      if (i == lowerName.length()) {
+        int colon = pos + i;
+        while (colon < data.length && (data[colon] == ' ' || data[colon] == '\t')) {
+          colon++;
+        }
+        if (colon < data.length && data[colon] == ':') {
+          return colon + 1;
+        }
+      }
+      while (pos < data.length && data[pos] != '\n') {
+        pos++;
+      }
+      pos++;
+    }
+    return -1;
+  }
+
+  // Parses a non-negative decimal value that may have surrounding spaces; returns -1 if invalid.
+  private static long parseLong(byte[] data, int pos) {
+    while (pos < data.length && (data[pos] == ' ' || data[pos] == '\t')) {
+      pos++;
+    }
+    long value = 0;
+    int digits = 0;
+    for (; pos < data.length && data[pos] >= '0' && data[pos] <= '9'; pos++, digits++) {
+      if (digits >= 18) {
+        return -1;
+      }
+      value = value * 10 + (data[pos] - '0');
+    }
+    while (pos < data.length && (data[pos] == ' ' || data[pos] == '\t' || data[pos] == '\r')) {
+      pos++;
+    }
+    return digits == 0 || (pos < data.length && data[pos] != '\n') ? -1 : value;
+  }
+}
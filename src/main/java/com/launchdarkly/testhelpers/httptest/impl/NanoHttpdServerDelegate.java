@@ -1,12 +1,17 @@
 package com.launchdarkly.testhelpers.httptest.impl;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.launchdarkly.testhelpers.httptest.AsyncHandler;
+import com.launchdarkly.testhelpers.httptest.ConnectionInfo;
 import com.launchdarkly.testhelpers.httptest.Handler;
 import com.launchdarkly.testhelpers.httptest.HttpServer;
 import com.launchdarkly.testhelpers.httptest.RequestContext;
+import com.launchdarkly.testhelpers.httptest.RequestHeaders;
 import com.launchdarkly.testhelpers.httptest.RequestInfo;
 import com.launchdarkly.testhelpers.httptest.ServerTLSConfiguration;
 
+import org.nanohttpd.protocols.http.ClientHandler;
 import org.nanohttpd.protocols.http.IHTTPSession;
 import org.nanohttpd.protocols.http.NanoHTTPD;
 import org.nanohttpd.protocols.http.response.IStatus;
@@ -16,20 +21,27 @@ import org.nanohttpd.protocols.http.response.Status;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.net.URI;
-import java.nio.charset.Charset;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLSocket;
 
 class NanoHttpdServerDelegate implements HttpServer.Delegate {
   private final ServerImpl server;
@@ -40,8 +52,20 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
   
   @Override
   public void close() throws IOException {
+    server.releaseParked();
     server.closeAllConnections();
     server.stop();
+    server.abortActiveRequests();
+  }
+
+  @Override
+  public int getParkedCount() {
+    return server.parked.size();
+  }
+
+  @Override
+  public void releaseParked() {
+    server.releaseParked();
   }
 
   @Override
@@ -51,7 +75,16 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
   }
 
   private static final class ServerImpl extends NanoHTTPD {
+    private static final byte[] NO_BODY = new byte[0];
+    
     private final Handler handler;
+    private final ExecutorService handlerThreads = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("httptest-handler-%d").setDaemon(true).build());
+    private final Set<RequestContextImpl> activeRequests = ConcurrentHashMap.newKeySet();
+    final Set<CompletableFuture<Void>> parked = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastConnectionId = new AtomicLong();
+    private final ThreadLocal<ConnectionState> currentConnection = new ThreadLocal<>();
+    private volatile String baseUri;
     
     ServerImpl(int port, Handler handler, ServerTLSConfiguration tlsConfig) {
       super(port);
@@ -75,23 +108,58 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
       }
     }
     
+    // NanoHTTPD reads every request on a connection, and calls serve(), on the connection's own
+    // thread, so a thread-local is enough to tell serve() which connection it's on.
+    @Override
+    protected ClientHandler createClientHandler(Socket socket, InputStream inputStream) {
+      ConnectionState conn = new ConnectionState(lastConnectionId.incrementAndGet(), socket,
+          new ConnectionInputStream(inputStream));
+      return new ClientHandler(this, conn.input, socket) {
+        @Override
+        public void run() {
+          currentConnection.set(conn);
+          try {
+            super.run();
+          } finally {
+            currentConnection.remove();
+          }
+        }
+      };
+    }
+    
     @Override
     public Response serve(IHTTPSession session) {
       // We need to call the handler on a separate thread so that we can support chunked streaming.
       // NanoHTTPD doesn't have an imperative "start writing the response" method; instead, we need
       // to return the response to it, and *then* if there is additional streaming content, the
-      // handler will continue writing it.
+      // handler will continue writing it. The thread comes from a pool, and an AsyncHandler gives
+      // it back as soon as it returns its CompletionStage, rather than when the request is done.
       CompletableFuture<Response> responseReceiver = new CompletableFuture<>();
-      RequestContextImpl ctx = new RequestContextImpl(makeRequestInfo(session), responseReceiver);
+      RequestContextImpl ctx = new RequestContextImpl(makeRequestInfo(session), responseReceiver,
+          handlerThreads, parked);
+      activeRequests.add(ctx);
       
-      new Thread(() -> {
+      handlerThreads.execute(() -> {
+        CompletionStage<Void> done = null;
         try {
-          handler.apply(ctx);
-          ctx.commit();
-        } catch (Exception e) {
-          responseReceiver.completeExceptionally(e);
+          if (handler instanceof AsyncHandler) {
+            done = ((AsyncHandler)handler).applyAsync(ctx);
+          } else {
+            handler.apply(ctx);
+          }
+        } catch (Throwable e) {
+          activeRequests.remove(ctx);
+          ctx.finish(e);
+          return;
+        }
+        if (done == null) {
+          done = CompletableFuture.completedFuture(null);
         }
-      }).start();
+        done.whenComplete((result, error) -> {
+          activeRequests.remove(ctx);
+          ctx.finish(error);
+        });
+      });
       
       try {
         Response response = responseReceiver.get();
@@ -104,66 +172,170 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
     }
    
     private RequestInfo makeRequestInfo(IHTTPSession session) {
+      // NanoHTTPD has parsed the headers by the time it calls serve(), but hasn't read the body.
+      long headersCompleteTime = System.nanoTime();
       String path = session.getUri(); // NanoHTTPD calls this the URI but it's really the path
       String query = session.getQueryParameterString();
       String queryWithPrefix = query == null || query.isEmpty() ? "" : ("?" + query); 
-      URI requestUri = URI.create(getBaseUri() + path + queryWithPrefix);
-      ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
-      String body = "";
-      int contentLength = 0;
-      
-      for (Map.Entry<String, String> h: session.getHeaders().entrySet()) {
-        headers.put(h.getKey().toLowerCase(), h.getValue());
-        if (h.getKey().equalsIgnoreCase("content-length")) {
-          contentLength = Integer.parseInt(h.getValue());           
-        }
-      }
+      String requestUri = getBaseUri() + path + queryWithPrefix; // RequestInfo parses it if needed
+      byte[] body = NO_BODY;
+      String contentLengthHeader = session.getHeaders().get("content-length");
+      int contentLength = contentLengthHeader == null ? 0 : Integer.parseInt(contentLengthHeader.trim());
       if (contentLength > 0) {
+        // A single read() may return only part of the body, if the rest hasn't arrived yet.
         try {
           InputStream bodyStream = session.getInputStream();
-          byte[] data = new byte[contentLength];
-          int n = bodyStream.read(data);
-          body = new String(data, 0, n, Charset.forName("UTF-8"));
+          body = new byte[contentLength];
+          int n = 0;
+          while (n < contentLength) {
+            int count = bodyStream.read(body, n, contentLength - n);
+            if (count < 0) {
+              body = Arrays.copyOf(body, n);
+              break;
+            }
+            n += count;
+          }
         } catch (Exception e) {
           throw new RuntimeException(e);
         }
       }
       
-      return new RequestInfo(session.getMethod().toString(), requestUri, path,
+      long bodyCompleteTime = contentLength > 0 ? System.nanoTime() : headersCompleteTime;
+      
+      // NanoHTTPD's header map has lowercased names and only one value per name, so we use the
+      // header block that ConnectionInputStream captured if we have it; it won't be parsed unless
+      // something asks for the headers.
+      ConnectionState conn = currentConnection.get();
+      String method = session.getMethod().toString();
+      ConnectionInputStream.RequestHead head = conn == null ? null : conn.input.nextRequest(method);
+      RequestHeaders headers = head == null ? RequestHeaders.fromMap(session.getHeaders()) :
+        RequestHeaders.parse(head.data, head.headersOffset, head.data.length - head.headersOffset);
+      long arrivalTime = head == null ? headersCompleteTime : head.arrivalTime;
+      return new RequestInfo(method, requestUri, path,
           queryWithPrefix.isEmpty() ? null : queryWithPrefix,
-          headers.build(), body);
+          headers, body,
+          conn == null ? null : conn.getInfo(), conn == null ? 0 : ++conn.requestCount,
+          arrivalTime, headersCompleteTime, bodyCompleteTime);
+    }
+    
+    // Parked requests don't have a handler thread; they are just a CompletableFuture that we
+    // complete here, which lets the handler finish normally. NanoHTTPD's thread for the connection
+    // is still blocked in StreamingBody, waiting for the rest of the response.
+    void releaseParked() {
+      for (CompletableFuture<Void> f: parked) {
+        f.complete(null);
+      }
     }
     
+    // Ends any requests whose handlers are still running, or waiting on a CompletionStage that
+    // will never complete, such as Handlers.hang(); otherwise their NanoHTTPD threads would wait
+    // forever for the rest of the response.
+    void abortActiveRequests() {
+      for (RequestContextImpl ctx: activeRequests) {
+        ctx.abort();
+      }
+      activeRequests.clear();
+      handlerThreads.shutdownNow();
+    }
+    
+    // The hostname and port can't change once the server has started, which it has by the time
+    // this is called, so we only need to build the string once.
     private String getBaseUri() {
-      return "http://" + (this.getHostname() == null ? "localhost" : this.getHostname())
-          + ":" + this.getListeningPort();
+      String s = baseUri;
+      if (s == null) {
+        s = "http://" + (this.getHostname() == null ? "localhost" : this.getHostname())
+            + ":" + this.getListeningPort();
+        baseUri = s;
+      }
+      return s;
+    }
+  }
+  
+  // Only accessed from the connection's thread.
+  private static final class ConnectionState {
+    final long id;
+    final Socket socket;
+    final ConnectionInputStream input;
+    ConnectionInfo info;
+    int requestCount;
+    
+    ConnectionState(long id, Socket socket, ConnectionInputStream input) {
+      this.id = id;
+      this.socket = socket;
+      this.input = input;
+    }
+    
+    // We don't build this until the first request has been read, because before that a TLS
+    // handshake may not have happened yet.
+    ConnectionInfo getInfo() {
+      if (info == null) {
+        SocketAddress address = socket.getRemoteSocketAddress();
+        String remoteAddress = address == null ? null : address.toString();
+        if (address instanceof InetSocketAddress) {
+          InetSocketAddress inet = (InetSocketAddress)address;
+          remoteAddress = (inet.getAddress() == null ? inet.getHostString() : inet.getAddress().getHostAddress())
+              + ":" + inet.getPort();
+        }
+        String tlsSessionId = null;
+        if (socket instanceof SSLSocket) {
+          byte[] sessionId = ((SSLSocket)socket).getSession().getId();
+          if (sessionId != null && sessionId.length != 0) {
+            tlsSessionId = BaseEncoding.base16().lowerCase().encode(sessionId);
+          }
+        }
+        info = new ConnectionInfo(id, remoteAddress, tlsSessionId);
+      }
+      return info;
     }
   }
   
   private static final class RequestContextImpl implements RequestContext {
     private final RequestInfo requestInfo;
     private final CompletableFuture<Response> responseReceiver;
+    private final ExecutorService executor;
+    private final Set<CompletableFuture<Void>> parked;
+    private final CompletableFuture<Void> aborted = new CompletableFuture<>();
     
     int status = 200;
     String contentType = null;
     Map<String, List<String>> headers = new HashMap<>();
     
-    boolean chunked = false;
+    boolean streaming = false;
     volatile Response response = null;
-    PipedOutputStream chunkedPipe = null;
+    volatile StreamingBody streamingBody = null;
 
-    RequestContextImpl(RequestInfo requestInfo, CompletableFuture<Response> responseReceiver) {
+    RequestContextImpl(RequestInfo requestInfo, CompletableFuture<Response> responseReceiver,
+        ExecutorService executor, Set<CompletableFuture<Void>> parked) {
       this.requestInfo = requestInfo;
       this.responseReceiver = responseReceiver;
+      this.executor = executor;
+      this.parked = parked;
     }
     
-    void commit() {
-      if (chunked) {
+    void finish(Throwable error) {
+      if (error == null) {
         try {
-          chunkedPipe.close();
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+          commit();
+          return;
+        } catch (Throwable e) {
+          error = e;
         }
+      }
+      responseReceiver.completeExceptionally(error);
+      StreamingBody body = streamingBody;
+      if (body != null) {
+        body.abort();
+      }
+    }
+    
+    void abort() {
+      finish(new IOException("server was closed"));
+      aborted.complete(null);
+    }
+    
+    private void commit() {
+      if (streaming) {
+        streamingBody.end();
       } else {
         if (response == null) {
           // a status was set but nothing was written; call write() to force us to create a response
@@ -185,7 +357,7 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
 
     @Override
     public void setHeader(String name, String value) {
-      headers.remove(name);
+      headers.remove(name.toLowerCase());
       addHeader(name, value);
     }
 
@@ -202,20 +374,30 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
 
     @Override
     public void setChunked() {
-      if (!chunked) {
+      startStreaming(-1);
+    }
+
+    @Override
+    public void setFixedLength(long contentLength) {
+      if (contentLength < 0) {
+        throw new IllegalArgumentException("content length cannot be negative");
+      }
+      startStreaming(contentLength);
+    }
+
+    private void startStreaming(long contentLength) {
+      if (!streaming) {
         if (response != null) {
-          throw new RuntimeException("setChunked was called after writing a non-chunked response");
+          throw new RuntimeException("cannot start streaming after writing a non-streamed response");
         }
-        chunked = true;
-        chunkedPipe = new PipedOutputStream();
-        InputStream pipeReader;
-        try {
-          pipeReader = new PipedInputStream(chunkedPipe);
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
-        response = Response.newChunkedResponse(statusWithCode(status),
-              contentType, pipeReader);
+        streaming = true;
+        streamingBody = new StreamingBody(executor);
+        // NanoHTTPD adds the Content-Length header for a fixed-length response, and a chunked
+        // response must not have one.
+        headers.remove("content-length");
+        response = contentLength >= 0 ?
+            Response.newFixedLengthResponse(statusWithCode(status), contentType, streamingBody, contentLength) :
+            Response.newChunkedResponse(statusWithCode(status), contentType, streamingBody);
         setHeaders(response);
         response.setUseGzip(false);
         
@@ -228,15 +410,9 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
 
     @Override
     public void write(byte[] data) {
-      if (chunked) {
-        try {
-          if (data != null) {
-            chunkedPipe.write(data);
-          }
-          chunkedPipe.flush();
-          Thread.sleep(200);
-        } catch (Exception e) {
-          throw new RuntimeException(e);
+      if (streaming) {
+        if (data != null) {
+          write(data, 0, data.length);
         }
         return;
       }
@@ -255,6 +431,42 @@ class NanoHttpdServerDelegate implements HttpServer.Delegate {
       setHeaders(response);
     }
 
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      if (!streaming) {
+        // the response holds on to the array, so the caller must not be able to modify it
+        write(Arrays.copyOfRange(data, offset, offset + length));
+        return;
+      }
+      try {
+        streamingBody.write(data, offset, length);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public CompletionStage<Void> writeAsync(byte[] data) {
+      if (!streaming) {
+        return RequestContext.super.writeAsync(data);
+      }
+      return data == null ? CompletableFuture.completedFuture(null) :
+        streamingBody.writeAsync(data, 0, data.length);
+    }
+
+    @Override
+    public CompletionStage<Void> park() {
+      CompletableFuture<Void> f = new CompletableFuture<>();
+      parked.add(f);
+      f.whenComplete((v, e) -> parked.remove(f));
+      return f;
+    }
+
+    @Override
+    public CompletionStage<Void> whenAborted() {
+      return aborted;
+    }
+
     @Override
     public String getPathParam(int i) {
       return null;
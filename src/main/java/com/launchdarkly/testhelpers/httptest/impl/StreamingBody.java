@@ -0,0 +1,239 @@
+package com.launchdarkly.testhelpers.httptest.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// The response body of a streaming response. The handler writes chunks into it, and NanoHTTPD
+// reads them out on its connection thread and sends them to the client.
+//
+// This replaces a PipedOutputStream/PipedInputStream pair, which has two problems for us: the
+// writer always blocks when the pipe is full, and the reader fails if the thread that last wrote
+// to the pipe has exited, which is the normal case for an asynchronous handler. Here, blocking
+// writes wait for the buffer to drain as before, but asynchronous writes are always accepted and
+// instead return a future that completes once the buffer has drained.
+//
+// Like the pipe, it copies written data into a fixed circular buffer, so writing does not allocate
+// anything. The only exception is an asynchronous write that doesn't fit in the buffer: since it
+// can't wait, the part that doesn't fit is copied into an overflow queue, which the reader empties
+// after the buffer. Until then, further writes go to the overflow queue too, to keep them in order.
+final class StreamingBody extends InputStream {
+  static final int BUFFER_LIMIT = 8192;
+
+  private final Executor executor;
+  private final byte[] buffer = new byte[BUFFER_LIMIT];
+  private final ArrayDeque<byte[]> overflow = new ArrayDeque<>();
+  private final List<CompletableFuture<Void>> writeWaiters = new ArrayList<>();
+  private int bufferStart;
+  private int bufferCount;
+  private int overflowBytes;
+  private int overflowPos;
+  private boolean ended;
+  private boolean aborted;
+  private boolean closed;
+
+  // Callbacks for asynchronous writes are run on the executor, not on the thread that's reading,
+  // since they may go on to write more data.
+  StreamingBody(Executor executor) {
+    this.executor = executor;
+  }
+
+  // A write that is bigger than the buffer is copied in as space becomes available.
+  synchronized void write(byte[] data, int offset, int length) throws IOException {
+    while (true) {
+      checkWritable();
+      int n = copyIn(data, offset, length);
+      offset += n;
+      length -= n;
+      if (length == 0) {
+        return;
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  CompletableFuture<Void> writeAsync(byte[] data, int offset, int length) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    synchronized (this) {
+      try {
+        checkWritable();
+      } catch (IOException e) {
+        result.completeExceptionally(e);
+        return result;
+      }
+      int n = copyIn(data, offset, length);
+      if (n < length) {
+        overflow.add(Arrays.copyOfRange(data, offset + n, offset + length));
+        overflowBytes += length - n;
+        notifyAll();
+      }
+      if (bufferedBytes() >= BUFFER_LIMIT) {
+        writeWaiters.add(result);
+        return result;
+      }
+    }
+    result.complete(null);
+    return result;
+  }
+
+  // Called when the handler has finished; the reader will see end-of-stream after the buffered data.
+  synchronized void end() {
+    ended = true;
+    notifyAll();
+  }
+
+  // Called if the handler failed or the server is shutting down; the reader will get an exception,
+  // so that the client sees an incomplete response rather than a clean end-of-stream.
+  void abort() {
+    synchronized (this) {
+      aborted = true;
+      notifyAll();
+    }
+    releaseWaiters();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+  }
+
+  // Returns as much buffered data as will fit, waiting only if there is none. That way each write
+  // is sent to the client promptly, but writes that pile up while the client is slow are coalesced.
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int n = 0;
+    synchronized (this) {
+      while (bufferedBytes() == 0) {
+        if (aborted) {
+          throw new IOException("response was aborted");
+        }
+        if (ended || closed) {
+          return -1;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      while (n < len && bufferCount > 0) {
+        int count = Math.min(len - n, Math.min(bufferCount, BUFFER_LIMIT - bufferStart));
+        System.arraycopy(buffer, bufferStart, b, off + n, count);
+        n += count;
+        bufferStart = (bufferStart + count) % BUFFER_LIMIT;
+        bufferCount -= count;
+      }
+      while (n < len && !overflow.isEmpty()) {
+        byte[] chunk = overflow.peek();
+        int count = Math.min(len - n, chunk.length - overflowPos);
+        System.arraycopy(chunk, overflowPos, b, off + n, count);
+        n += count;
+        overflowPos += count;
+        overflowBytes -= count;
+        if (overflowPos == chunk.length) {
+          overflow.poll();
+          overflowPos = 0;
+        }
+      }
+      if (bufferedBytes() >= BUFFER_LIMIT) {
+        return n;
+      }
+      notifyAll();
+    }
+    releaseWaiters();
+    return n;
+  }
+
+  @Override
+  public synchronized int available() {
+    return bufferedBytes();
+  }
+
+  // NanoHTTPD closes the stream when it is done sending the response, or if the client went away.
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      bufferCount = 0;
+      overflow.clear();
+      overflowBytes = 0;
+      notifyAll();
+    }
+    releaseWaiters();
+  }
+
+  private void checkWritable() throws IOException {
+    if (closed || aborted) {
+      throw new IOException("response stream is closed");
+    }
+  }
+
+  private int bufferedBytes() {
+    return bufferCount + overflowBytes;
+  }
+
+  // Copies as much of the data as fits into the circular buffer, and returns how much that was.
+  // Nothing goes into the buffer while there is overflow data, since that was written earlier.
+  private int copyIn(byte[] data, int offset, int length) {
+    if (!overflow.isEmpty()) {
+      return 0;
+    }
+    int n = 0;
+    while (n < length && bufferCount < BUFFER_LIMIT) {
+      int end = (bufferStart + bufferCount) % BUFFER_LIMIT;
+      int count = Math.min(length - n, Math.min(BUFFER_LIMIT - bufferCount, BUFFER_LIMIT - end));
+      System.arraycopy(data, offset + n, buffer, end, count);
+      n += count;
+      bufferCount += count;
+    }
+    if (n > 0) {
+      notifyAll();
+    }
+    return n;
+  }
+
+  private void releaseWaiters() {
+    List<CompletableFuture<Void>> waiters;
+    IOException error = null;
+    synchronized (this) {
+      if (writeWaiters.isEmpty() || (bufferedBytes() >= BUFFER_LIMIT && !closed && !aborted)) {
+        return;
+      }
+      waiters = new ArrayList<>(writeWaiters);
+      writeWaiters.clear();
+      if (closed || aborted) {
+        error = new IOException("response stream is closed");
+      }
+    }
+    IOException e = error;
+    Runnable release = () -> {
+      for (CompletableFuture<Void> w: waiters) {
+        if (e == null) {
+          w.complete(null);
+        } else {
+          w.completeExceptionally(e);
+        }
+      }
+    };
+    try {
+      executor.execute(release);
+    } catch (RejectedExecutionException ignore) { // the server is shutting down
+      release.run();
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package com.launchdarkly.testhelpers.httptest.load;
+
+import com.launchdarkly.testhelpers.httptest.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a sustained load of HTTP requests to a server and measures the results.
+ * <p>
+ * There are two ways to model the load:
+ * <ul>
+ * <li> {@link #openModel(URI, double)} sends requests at a constant rate, regardless of how quickly
+ * the server responds, the way independent clients would. If the server falls behind, requests
+ * queue up on the client side, and the time they spend waiting is included in their latency. </li>
+ * <li> {@link #closedModel(URI, int)} simulates a fixed number of users who each send a request,
+ * wait for the response, optionally pause, and then send another. The request rate is therefore
+ * determined by how quickly the server responds. </li>
+ * </ul>
+ * <p>
+ * All requests are sent from a single thread using non-blocking I/O, so the generator itself adds
+ * very little overhead. Connections are kept alive and reused; each connection has at most one
+ * request outstanding at a time.
+ * <p>
+ * Latencies are recorded in nanoseconds in a {@link LatencyHistogram}. In the open model, each
+ * request's latency is measured from the time when it was scheduled to be sent, rather than the
+ * time when it was actually sent; in the closed model, you can specify the interval at which each
+ * user expects to send requests with {@link #expectedInterval(long, TimeUnit)}. Either way, a
+ * slow response is counted against all of the requests it delayed, not just itself.
+ *
+ * <pre><code>
+ *     try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+ *         server.getRecorder().setEnabled(false);
+ *         LoadResult result = LoadGenerator.openModel(server.getUri(), 500)
+ *             .request("GET", "/things")
+ *             .duration(5, TimeUnit.SECONDS)
+ *             .run();
+ *         assertThat(result.getLatency().getValueAtPercentile(99),
+ *             lessThan(TimeUnit.MILLISECONDS.toNanos(50)));
+ *     }
+ * </code></pre>
+ *
+ * Only plain HTTP is supported, not HTTPS. Configuration methods return the same instance so
+ * that they can be chained; an instance should not be used from more than one thread at a time.
+ *
+ * @since 2.1.0
+ */
+public final class LoadGenerator {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  final URI baseUri;
+  final double requestsPerSecond;
+  final int users;
+  String method = "GET";
+  String path = "";
+  final Map<String, String> headers = new LinkedHashMap<>();
+  byte[] body;
+  long durationNanos = TimeUnit.SECONDS.toNanos(1);
+  int maxConnections = 100;
+  long thinkTimeNanos;
+  long expectedIntervalNanos;
+  long drainTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+  private LoadGenerator(URI baseUri, double requestsPerSecond, int users) {
+    if (!"http".equalsIgnoreCase(baseUri.getScheme())) {
+      throw new IllegalArgumentException("only http URIs are supported");
+    }
+    this.baseUri = baseUri;
+    this.requestsPerSecond = requestsPerSecond;
+    this.users = users;
+  }
+
+  /**
+   * Creates a generator that sends requests at a constant rate.
+   *
+   * @param baseUri the server's base URI; paths passed to {@link #request(String, String)} are
+   *   resolved relative to this
+   * @param requestsPerSecond the number of requests to start per second
+   * @return a {@link LoadGenerator}
+   */
+  public static LoadGenerator openModel(URI baseUri, double requestsPerSecond) {
+    if (requestsPerSecond <= 0) {
+      throw new IllegalArgumentException("requestsPerSecond must be positive");
+    }
+    return new LoadGenerator(baseUri, requestsPerSecond, 0);
+  }
+
+  /**
+   * Creates a generator that simulates a fixed number of concurrent users, each with its
+   * own connection.
+   *
+   * @param baseUri the server's base URI; paths passed to {@link #request(String, String)} are
+   *   resolved relative to this
+   * @param users the number of users
+   * @return a {@link LoadGenerator}
+   */
+  public static LoadGenerator closedModel(URI baseUri, int users) {
+    if (users <= 0) {
+      throw new IllegalArgumentException("users must be positive");
+    }
+    return new LoadGenerator(baseUri, 0, users);
+  }
+
+  /**
+   * Specifies the request method and path. The default is a GET request for the base URI.
+   *
+   * @param method the HTTP method
+   * @param path the path, optionally with a query string, relative to the base URI
+   * @return the same instance
+   */
+  public LoadGenerator request(String method, String path) {
+    this.method = method.toUpperCase();
+    this.path = path;
+    return this;
+  }
+
+  /**
+   * Adds a request header.
+   *
+   * @param name the header name
+   * @param value the header value
+   * @return the same instance
+   */
+  public LoadGenerator header(String name, String value) {
+    headers.put(name, value);
+    return this;
+  }
+
+  /**
+   * Specifies a request body.
+   *
+   * @param contentType the Content-Type header value
+   * @param body the body
+   * @return the same instance
+   */
+  public LoadGenerator body(String contentType, byte[] body) {
+    headers.put("Content-Type", contentType);
+    this.body = body;
+    return this;
+  }
+
+  /**
+   * Specifies a request body as a UTF-8 string.
+   *
+   * @param contentType the Content-Type header value
+   * @param body the body
+   * @return the same instance
+   */
+  public LoadGenerator body(String contentType, String body) {
+    return body(contentType, body.getBytes(UTF8));
+  }
+
+  /**
+   * Specifies how long to keep starting new requests. The default is one second.
+   *
+   * @param duration the duration
+   * @param unit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public LoadGenerator duration(long duration, TimeUnit unit) {
+    this.durationNanos = toNanos(duration, unit);
+    return this;
+  }
+
+  /**
+   * Specifies the maximum number of connections for the open model. If all of them are busy
+   * when a request is due, the request waits for one to become available. The default is 100.
+   * This has no effect in the closed model, which uses one connection per user.
+   *
+   * @param maxConnections the maximum number of connections
+   * @return the same instance
+   */
+  public LoadGenerator maxConnections(int maxConnections) {
+    this.maxConnections = Math.max(1, maxConnections);
+    return this;
+  }
+
+  /**
+   * Specifies how long each user waits after receiving a response before sending the next
+   * request, in the closed model. The default is zero. This has no effect in the open model.
+   *
+   * @param thinkTime the time to wait
+   * @param unit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public LoadGenerator thinkTime(long thinkTime, TimeUnit unit) {
+    this.thinkTimeNanos = toNanos(thinkTime, unit);
+    return this;
+  }
+
+  /**
+   * Specifies the interval at which each user expects to send requests, in the closed model,
+   * for correcting latencies as described in
+   * {@link LatencyHistogram#recordValueWithExpectedInterval(long, long)}. The default is zero,
+   * meaning no correction. This has no effect in the open model, which always corrects for the
+   * requests' scheduled times.
+   *
+   * @param interval the expected interval
+   * @param unit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public LoadGenerator expectedInterval(long interval, TimeUnit unit) {
+    this.expectedIntervalNanos = toNanos(interval, unit);
+    return this;
+  }
+
+  /**
+   * Specifies how long to wait for outstanding requests to finish after the load duration has
+   * elapsed. Any requests that have not finished by then are counted as errors. The default is
+   * five seconds.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the time unit, or null for milliseconds
+   * @return the same instance
+   */
+  public LoadGenerator drainTimeout(long timeout, TimeUnit unit) {
+    this.drainTimeoutNanos = toNanos(timeout, unit);
+    return this;
+  }
+
+  /**
+   * Sends the requests, blocking until the load duration has elapsed and all outstanding
+   * requests have finished or timed out.
+   *
+   * @return the results
+   */
+  public LoadResult run() {
+    try {
+      return new LoadRunner(this).run();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  byte[] buildRequest() {
+    URI uri = baseUri.resolve(path);
+    StringBuilder head = new StringBuilder();
+    String rawPath = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    head.append(method).append(' ').append(rawPath);
+    if (uri.getRawQuery() != null) {
+      head.append('?').append(uri.getRawQuery());
+    }
+    head.append(" HTTP/1.1\r\nHost: ").append(uri.getHost());
+    if (uri.getPort() > 0) {
+      head.append(':').append(uri.getPort());
+    }
+    head.append("\r\n");
+    for (Map.Entry<String, String> h: headers.entrySet()) {
+      head.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+    }
+    if (body != null) {
+      head.append("Content-Length: ").append(body.length).append("\r\n");
+    }
+    head.append("\r\n");
+    byte[] headBytes = head.toString().getBytes(UTF8);
+    int bodyLength = body == null ? 0 : body.length;
+    byte[] ret = new byte[headBytes.length + bodyLength];
+    System.arraycopy(headBytes, 0, ret, 0, headBytes.length);
+    if (body != null) {
+      System.arraycopy(body, 0, ret, headBytes.length, bodyLength);
+    }
+    return ret;
+  }
+
+  private static long toNanos(long value, TimeUnit unit) {
+    return (unit == null ? TimeUnit.MILLISECONDS : unit).toNanos(Math.max(0, value));
+  }
+}
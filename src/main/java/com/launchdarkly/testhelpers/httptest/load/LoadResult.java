@@ -0,0 +1,119 @@
+package com.launchdarkly.testhelpers.httptest.load;
+
+import com.launchdarkly.testhelpers.httptest.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of a {@link LoadGenerator} run.
+ *
+ * @since 2.1.0
+ */
+public final class LoadResult {
+  private final LatencyHistogram latency;
+  private final long[] statusCounts;
+  private final long requestCount;
+  private final long errorCount;
+  private final long connectionsOpened;
+  private final long elapsedNanos;
+
+  LoadResult(LatencyHistogram latency, long[] statusCounts, long requestCount, long errorCount,
+      long connectionsOpened, long elapsedNanos) {
+    this.latency = latency;
+    this.statusCounts = statusCounts;
+    this.requestCount = requestCount;
+    this.errorCount = errorCount;
+    this.connectionsOpened = connectionsOpened;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Returns the distribution of response latencies in nanoseconds.
+   *
+   * @return the latency histogram
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Returns the number of requests that received a complete response, with any status.
+   *
+   * @return the number of responses
+   */
+  public long getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Returns the number of requests that did not receive a complete response, because of a
+   * connection failure, an invalid response, or a timeout. This does not include error statuses
+   * from the server; use {@link #getStatusCount(int)} for those.
+   *
+   * @return the number of failed requests
+   */
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  /**
+   * Returns the number of responses that had a specific status.
+   *
+   * @param status the HTTP status
+   * @return the number of responses with that status
+   */
+  public long getStatusCount(int status) {
+    return status >= 0 && status < statusCounts.length ? statusCounts[status] : 0;
+  }
+
+  /**
+   * Returns the number of responses for each status that was received.
+   *
+   * @return a map of status codes to counts, in ascending order of status
+   */
+  public Map<Integer, Long> getStatusCounts() {
+    Map<Integer, Long> ret = new TreeMap<>();
+    for (int i = 0; i < statusCounts.length; i++) {
+      if (statusCounts[i] != 0) {
+        ret.put(i, statusCounts[i]);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the number of connections that were opened during the run.
+   *
+   * @return the number of connections
+   */
+  public long getConnectionsOpened() {
+    return connectionsOpened;
+  }
+
+  /**
+   * Returns the total time taken by the run, including waiting for outstanding requests at the end.
+   *
+   * @param unit the time unit, or null for milliseconds
+   * @return the elapsed time
+   */
+  public long getElapsed(TimeUnit unit) {
+    return (unit == null ? TimeUnit.MILLISECONDS : unit).convert(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the number of responses received per second.
+   *
+   * @return the throughput
+   */
+  public double getThroughput() {
+    return elapsedNanos == 0 ? 0 : requestCount * 1e9 / elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("requests=%d, errors=%d, statuses=%s, throughput=%.1f/s, latency(ns): %s",
+        requestCount, errorCount, getStatusCounts(), getThroughput(), latency);
+  }
+}
@@ -0,0 +1,315 @@
+package com.launchdarkly.testhelpers.httptest.load;
+
+import com.launchdarkly.testhelpers.httptest.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The event loop for a single {@link LoadGenerator} run. All state is confined to the thread
+ * that calls {@link #run()}.
+ */
+final class LoadRunner {
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final long RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long MIN_SELECT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final LoadGenerator config;
+  private final boolean openModel;
+  private final long intervalNanos;
+  private final InetSocketAddress address;
+  private final ByteBuffer request;
+  private final boolean headRequest;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final long[] statusCounts = new long[600];
+  private final List<Conn> connections = new ArrayList<>();
+  private final ArrayDeque<Conn> idle = new ArrayDeque<>();
+  private final ArrayDeque<Long> reconnectTimes = new ArrayDeque<>();
+  private Selector selector;
+  private long requestCount;
+  private long errorCount;
+  private long connectionsOpened;
+  private int busyCount;
+
+  LoadRunner(LoadGenerator config) {
+    this.config = config;
+    this.openModel = config.users == 0;
+    this.intervalNanos = openModel ? Math.max(1, (long)(1e9 / config.requestsPerSecond)) : 0;
+    this.address = new InetSocketAddress(config.baseUri.getHost(),
+        config.baseUri.getPort() > 0 ? config.baseUri.getPort() : 80);
+    // All connections send the same request, so they can all read from the same buffer.
+    this.request = ByteBuffer.wrap(config.buildRequest()).asReadOnlyBuffer();
+    this.headRequest = config.method.equals("HEAD");
+  }
+
+  LoadResult run() throws IOException {
+    try (Selector sel = Selector.open()) {
+      selector = sel;
+      long start = System.nanoTime();
+      long end = start + config.durationNanos;
+      long deadline = end + config.drainTimeoutNanos;
+      if (openModel) {
+        runOpenModel(start, deadline);
+      } else {
+        runClosedModel(start, end, deadline);
+      }
+      long elapsed = System.nanoTime() - start;
+      for (Conn c: new ArrayList<>(connections)) {
+        c.close();
+      }
+      return new LoadResult(latency, statusCounts, requestCount, errorCount, connectionsOpened, elapsed);
+    }
+  }
+
+  // Request i is scheduled for start + i * intervalNanos. If no connection is available at that
+  // time, it waits, and its latency includes the wait.
+  private void runOpenModel(long start, long deadline) throws IOException {
+    long total = (config.durationNanos + intervalNanos - 1) / intervalNanos;
+    long dispatched = 0;
+    while (true) {
+      long now = System.nanoTime();
+      long due = Math.min(total, (now - start) / intervalNanos + 1);
+      while (dispatched < due) {
+        Conn c = idle.pollFirst();
+        if (c == null) {
+          if (connections.size() >= config.maxConnections) {
+            break;
+          }
+          c = connect();
+          if (c == null) {
+            errorCount++;
+            dispatched++;
+            continue;
+          }
+        }
+        send(c, start + dispatched * intervalNanos);
+        dispatched++;
+      }
+      if (dispatched == total && busyCount == 0) {
+        return;
+      }
+      if (now >= deadline) {
+        errorCount += busyCount + (total - dispatched);
+        return;
+      }
+      long wait = dispatched < due || dispatched == total ? deadline - now :
+        start + dispatched * intervalNanos - now;
+      select(Math.min(wait, deadline - now));
+    }
+  }
+
+  private void runClosedModel(long start, long end, long deadline) throws IOException {
+    for (int i = 0; i < config.users; i++) {
+      reconnectTimes.add(start);
+    }
+    while (true) {
+      long now = System.nanoTime();
+      boolean running = now < end;
+      long wait = (running ? end : deadline) - now;
+      if (running) {
+        while (!reconnectTimes.isEmpty() && reconnectTimes.peekFirst() <= now) {
+          reconnectTimes.pollFirst();
+          Conn c = connect();
+          if (c == null) {
+            errorCount++;
+            reconnectTimes.addLast(now + RECONNECT_DELAY_NANOS);
+          } else {
+            c.nextSendTime = now;
+          }
+        }
+        if (!reconnectTimes.isEmpty()) {
+          wait = Math.min(wait, reconnectTimes.peekFirst() - now);
+        }
+        // iterating backward because send() may remove a connection if it fails
+        for (int i = connections.size() - 1; i >= 0; i--) {
+          Conn c = connections.get(i);
+          if (!c.busy) {
+            if (c.nextSendTime <= now) {
+              send(c, now);
+            } else {
+              wait = Math.min(wait, c.nextSendTime - now);
+            }
+          }
+        }
+      } else if (busyCount == 0) {
+        return;
+      } else if (now >= deadline) {
+        errorCount += busyCount;
+        return;
+      }
+      select(wait);
+    }
+  }
+
+  private void select(long waitNanos) throws IOException {
+    // Selector timeouts have millisecond granularity; for shorter waits we poll instead, since
+    // at high request rates it matters whether a request is sent on time.
+    if (waitNanos < MIN_SELECT_NANOS) {
+      selector.selectNow();
+    } else {
+      selector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      Conn c = (Conn)key.attachment();
+      try {
+        if (key.isValid() && key.isConnectable()) {
+          c.channel.finishConnect();
+          c.connected = true;
+          if (c.busy) {
+            write(c);
+          } else {
+            key.interestOps(SelectionKey.OP_READ);
+          }
+        }
+        if (key.isValid() && key.isWritable()) {
+          write(c);
+        }
+        if (key.isValid() && key.isReadable()) {
+          read(c);
+        }
+      } catch (IOException e) {
+        fail(c);
+      }
+    }
+  }
+
+  private Conn connect() {
+    SocketChannel channel = null;
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      Conn c = new Conn(channel);
+      c.connected = channel.connect(address);
+      c.key = channel.register(selector, c.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, c);
+      connections.add(c);
+      connectionsOpened++;
+      return c;
+    } catch (IOException e) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e1) {}
+      }
+      return null;
+    }
+  }
+
+  private void send(Conn c, long startTime) {
+    c.busy = true;
+    busyCount++;
+    c.startTime = startTime;
+    c.out.rewind();
+    c.parser.reset(headRequest);
+    if (c.connected) {
+      try {
+        write(c);
+      } catch (IOException e) {
+        fail(c);
+      }
+    }
+  }
+
+  private void write(Conn c) throws IOException {
+    c.channel.write(c.out);
+    c.key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+  }
+
+  private void read(Conn c) throws IOException {
+    readBuffer.clear();
+    int n = c.channel.read(readBuffer);
+    if (n < 0) {
+      if (!c.busy) {
+        drop(c, 0); // the server closed an idle connection
+      } else if (c.parser.endOfStream()) {
+        complete(c);
+      } else {
+        fail(c);
+      }
+      return;
+    }
+    if (!c.busy) {
+      throw new IOException("unexpected data from server");
+    }
+    readBuffer.flip();
+    if (c.parser.parse(readBuffer)) {
+      complete(c);
+    }
+  }
+
+  private void complete(Conn c) {
+    long now = System.nanoTime();
+    c.busy = false;
+    busyCount--;
+    requestCount++;
+    statusCounts[c.parser.getStatus()]++;
+    if (openModel) {
+      latency.recordValue(now - c.startTime);
+    } else {
+      latency.recordValueWithExpectedInterval(now - c.startTime, config.expectedIntervalNanos);
+    }
+    if (!c.parser.isKeepAlive()) {
+      drop(c, 0);
+    } else if (openModel) {
+      idle.addFirst(c); // reusing the most recent connection first lets the others time out if not needed
+    } else {
+      c.nextSendTime = now + config.thinkTimeNanos;
+    }
+  }
+
+  private void fail(Conn c) {
+    if (c.busy) {
+      c.busy = false;
+      busyCount--;
+      errorCount++;
+    }
+    drop(c, RECONNECT_DELAY_NANOS);
+  }
+
+  private void drop(Conn c, long reconnectDelay) {
+    c.close();
+    connections.remove(c);
+    idle.remove(c);
+    if (!openModel) {
+      reconnectTimes.addLast(System.nanoTime() + reconnectDelay);
+    }
+  }
+
+  private final class Conn {
+    final SocketChannel channel;
+    final ByteBuffer out = request.duplicate();
+    final ResponseParser parser = new ResponseParser();
+    SelectionKey key;
+    boolean connected;
+    boolean busy;
+    long startTime;
+    long nextSendTime;
+
+    Conn(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void close() {
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {}
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.launchdarkly.testhelpers.httptest.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * An incremental parser for HTTP/1.1 responses. It does not keep the response headers or body,
+ * only the information that is needed to find the end of the response.
+ */
+final class ResponseParser {
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private enum State {
+    STATUS_LINE, HEADERS, BODY, BODY_UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+  }
+
+  private final StringBuilder line = new StringBuilder();
+  private State state = State.DONE;
+  private boolean headRequest;
+  private int status;
+  private boolean keepAlive;
+  private boolean chunked;
+  private long contentLength;
+  private long remaining;
+
+  void reset(boolean headRequest) {
+    this.headRequest = headRequest;
+    line.setLength(0);
+    state = State.STATUS_LINE;
+    status = 0;
+  }
+
+  int getStatus() {
+    return status;
+  }
+
+  boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Consumes data from the buffer.
+   *
+   * @return true if the response is complete
+   */
+  boolean parse(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining() && state != State.DONE) {
+      switch (state) {
+      case BODY_UNTIL_CLOSE:
+        buf.position(buf.limit());
+        break;
+      case BODY:
+      case CHUNK_DATA:
+        int n = (int)Math.min(remaining, buf.remaining());
+        buf.position(buf.position() + n);
+        remaining -= n;
+        if (remaining == 0) {
+          state = state == State.BODY ? State.DONE : State.CHUNK_END;
+        }
+        break;
+      default:
+        if (readLine(buf)) {
+          String s = line.toString();
+          line.setLength(0);
+          parseLine(s);
+        }
+      }
+    }
+    return state == State.DONE;
+  }
+
+  /**
+   * Called when the server has closed the connection.
+   *
+   * @return true if this was the expected end of the response
+   */
+  boolean endOfStream() {
+    if (state == State.BODY_UNTIL_CLOSE) {
+      state = State.DONE;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean readLine(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      byte b = buf.get();
+      if (b == '\n') {
+        return true;
+      }
+      if (b != '\r') {
+        if (line.length() >= MAX_LINE_LENGTH) {
+          throw new IOException("response line too long");
+        }
+        line.append((char)(b & 0xff));
+      }
+    }
+    return false;
+  }
+
+  private void parseLine(String s) throws IOException {
+    switch (state) {
+    case STATUS_LINE:
+      String[] parts = s.split(" ", 3);
+      if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+        throw new IOException("invalid status line: " + s);
+      }
+      try {
+        status = Integer.parseInt(parts[1]);
+      } catch (NumberFormatException e) {
+        throw new IOException("invalid status line: " + s);
+      }
+      if (status < 100 || status > 599) {
+        throw new IOException("invalid status line: " + s);
+      }
+      keepAlive = !parts[0].equals("HTTP/1.0");
+      chunked = false;
+      contentLength = -1;
+      state = State.HEADERS;
+      break;
+    case HEADERS:
+      if (s.isEmpty()) {
+        endHeaders();
+        break;
+      }
+      int colon = s.indexOf(':');
+      if (colon > 0) {
+        String name = s.substring(0, colon).trim().toLowerCase(Locale.US);
+        String value = s.substring(colon + 1).trim();
+        if (name.equals("content-length")) {
+          try {
+            contentLength = Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            throw new IOException("invalid content-length: " + value);
+          }
+        } else if (name.equals("transfer-encoding")) {
+          chunked = value.toLowerCase(Locale.US).contains("chunked");
+        } else if (name.equals("connection")) {
+          keepAlive = !value.equalsIgnoreCase("close");
+        }
+      }
+      break;
+    case CHUNK_SIZE:
+      int semicolon = s.indexOf(';');
+      try {
+        remaining = Long.parseLong((semicolon < 0 ? s : s.substring(0, semicolon)).trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("invalid chunk size: " + s);
+      }
+      state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+      break;
+    case CHUNK_END:
+      state = State.CHUNK_SIZE;
+      break;
+    case TRAILERS:
+      if (s.isEmpty()) {
+        state = State.DONE;
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  private void endHeaders() {
+    if (status < 200) {
+      state = State.STATUS_LINE; // skip interim responses such as "100 Continue"
+    } else if (headRequest || status == 204 || status == 304) {
+      state = State.DONE;
+    } else if (chunked) {
+      state = State.CHUNK_SIZE;
+    } else if (contentLength >= 0) {
+      remaining = contentLength;
+      state = contentLength == 0 ? State.DONE : State.BODY;
+    } else {
+      keepAlive = false;
+      state = State.BODY_UNTIL_CLOSE;
+    }
+  }
+}
@@ -0,0 +1,10 @@
+/**
+ * Tools for sending a sustained load of HTTP requests and measuring the latency of the responses.
+ * <p>
+ * {@link com.launchdarkly.testhelpers.httptest.load.LoadGenerator} can be pointed at an
+ * {@link com.launchdarkly.testhelpers.httptest.HttpServer} to measure the server itself, or at
+ * any other HTTP server. The latencies it reports are recorded in a
+ * {@link com.launchdarkly.testhelpers.httptest.LatencyHistogram}, which can also be used on
+ * its own.
+ */
+package com.launchdarkly.testhelpers.httptest.load;
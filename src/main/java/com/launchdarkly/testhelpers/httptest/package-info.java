@@ -27,7 +27,9 @@
  * <p>
  * You configure the server with a single {@link com.launchdarkly.testhelpers.httptest.Handler}
  * that receives all requests. The library provides a variety of handler implementations and
- * combinators, or you can define your own.
+ * combinators, or you can define your own. A handler that needs to wait for something without
+ * holding a thread, such as {@link com.launchdarkly.testhelpers.httptest.Handlers#delay(long)},
+ * can implement {@link com.launchdarkly.testhelpers.httptest.AsyncHandler} instead.
  * <h2>
  * Examples
  * </h2>
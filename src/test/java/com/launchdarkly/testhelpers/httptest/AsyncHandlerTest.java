@@ -0,0 +1,133 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class AsyncHandlerTest {
+  @Test
+  public void responseIsSentWhenStageCompletes() throws Exception {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    AsyncHandler handler = ctx -> result.thenAccept(s -> {
+      ctx.setStatus(202);
+      ctx.write(s.getBytes());
+    });
+    try (HttpServer server = HttpServer.start(handler)) {
+      new Thread(() -> {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        result.complete("done");
+      }).start();
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(202));
+        assertThat(resp.body().string(), equalTo("done"));
+      }
+    }
+  }
+
+  @Test
+  public void failedStageReturns500() throws Exception {
+    AsyncHandler handler = ctx -> AsyncSupport.delay(10, TimeUnit.MILLISECONDS).thenRun(() -> {
+      throw new IllegalStateException("sorry");
+    });
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(500));
+        assertThat(resp.body().string(), containsString("sorry"));
+      }
+    }
+  }
+
+  @Test
+  public void allContinuesAfterAsyncHandler() throws Exception {
+    Handler handler = Handlers.all(
+        Handlers.status(201),
+        Handlers.delay(200),
+        Handlers.bodyString("text/plain", "hello")
+        );
+    try (HttpServer server = HttpServer.start(handler)) {
+      long start = System.nanoTime();
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(201));
+        assertThat(resp.body().string(), equalTo("hello"));
+      }
+      assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+  }
+
+  @Test
+  public void writeAsyncStreamsChunks() throws Exception {
+    AsyncHandler handler = ctx -> {
+      ctx.setChunked();
+      return ctx.writeAsync("a".getBytes())
+          .thenCompose(v -> AsyncSupport.delay(100, TimeUnit.MILLISECONDS))
+          .thenCompose(v -> ctx.writeAsync("b".getBytes()));
+    };
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        InputStream stream = resp.body().byteStream();
+        assertThat(stream.read(), equalTo((int)'a'));
+        assertThat(stream.read(), equalTo((int)'b'));
+        assertThat(stream.read(), equalTo(-1));
+      }
+    }
+  }
+
+  @Test
+  public void manyIdleStreamsDoNotEachHoldAHandlerThread() throws Exception {
+    int count = 50;
+    Handler handler = Handlers.all(Handlers.SSE.start(), Handlers.SSE.comment("hi"), Handlers.SSE.leaveOpen());
+    try (HttpServer server = HttpServer.start(handler)) {
+      Response[] responses = new Response[count];
+      try {
+        for (int i = 0; i < count; i++) {
+          responses[i] = simpleGet(server.getUri());
+          assertThat(responses[i].body().byteStream().read(), equalTo((int)':'));
+        }
+        long handlerThreads = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().startsWith("httptest-handler-"))
+            .count();
+        assertThat(handlerThreads, lessThan(10L));
+      } finally {
+        for (Response r: responses) {
+          if (r != null) {
+            r.close();
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void blockingApplyWaitsForStage() {
+    RequestInfo request = new RequestInfo("GET", null, "/", null, null, "");
+    int[] status = new int[1];
+    RequestContext ctx = new RequestContext() {
+      public RequestInfo getRequest() { return request; }
+      public void setStatus(int s) { status[0] = s; }
+      public void setHeader(String name, String value) {}
+      public void addHeader(String name, String value) {}
+      public void setChunked() {}
+      public void write(byte[] data) {}
+      public String getPathParam(int i) { return null; }
+    };
+    CompletionStage<Void> delayed = AsyncSupport.delay(50, TimeUnit.MILLISECONDS);
+    AsyncHandler handler = c -> delayed.thenRun(() -> c.setStatus(204));
+    handler.apply(ctx);
+    assertThat(status[0], equalTo(204));
+  }
+}
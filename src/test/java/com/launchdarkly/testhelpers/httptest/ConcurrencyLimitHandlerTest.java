@@ -0,0 +1,116 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class ConcurrencyLimitHandlerTest {
+  @Test
+  public void requestOverLimitIsRejected() throws Exception {
+    Semaphore proceed = new Semaphore(0);
+    ConcurrencyLimitHandler limiter = Handlers.maxConcurrent(1,
+        Handlers.all(Handlers.waitFor(proceed), Handlers.status(200)));
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (HttpServer server = HttpServer.start(limiter)) {
+      Future<Integer> first = executor.submit(() -> getStatus(server));
+      awaitInFlight(limiter, 1);
+      
+      assertThat(getStatus(server), equalTo(503));
+      
+      proceed.release();
+      assertThat(first.get(), equalTo(200));
+      assertThat(limiter.getRejectedCount(), equalTo(1L));
+      assertThat(limiter.getCompletedCount(), equalTo(1L));
+      assertThat(limiter.getInFlightCount(), equalTo(0));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void queuedRequestRunsWhenSlotIsFree() throws Exception {
+    Semaphore proceed = new Semaphore(0);
+    ConcurrencyLimitHandler limiter = Handlers.maxConcurrent(1,
+        Handlers.all(Handlers.waitFor(proceed), Handlers.status(200))).withQueue(10, 5000, null);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (HttpServer server = HttpServer.start(limiter)) {
+      Future<Integer> first = executor.submit(() -> getStatus(server));
+      awaitInFlight(limiter, 1);
+      Future<Integer> second = executor.submit(() -> getStatus(server));
+      while (limiter.getQueuedCount() < 1) {
+        Thread.sleep(10);
+      }
+      
+      proceed.release(2);
+      assertThat(first.get(), equalTo(200));
+      assertThat(second.get(), equalTo(200));
+      assertThat(limiter.getPeakInFlightCount(), equalTo(1));
+      assertThat(limiter.getRejectedCount(), equalTo(0L));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void queuedRequestIsRejectedAfterTimeout() throws Exception {
+    Semaphore proceed = new Semaphore(0);
+    ConcurrencyLimitHandler limiter = Handlers.maxConcurrent(1,
+        Handlers.all(Handlers.waitFor(proceed), Handlers.status(200))).withQueue(10, 100, null);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (HttpServer server = HttpServer.start(limiter)) {
+      Future<Integer> first = executor.submit(() -> getStatus(server));
+      awaitInFlight(limiter, 1);
+      
+      assertThat(getStatus(server), equalTo(503));
+      
+      proceed.release();
+      assertThat(first.get(), equalTo(200));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void peakInFlightCount() throws Exception {
+    ConcurrencyLimitHandler limiter = Handlers.maxConcurrent(3,
+        Handlers.all(Handlers.delay(200), Handlers.status(200))).withQueue(10, 5000, null);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (HttpServer server = HttpServer.start(limiter)) {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        results.add(executor.submit(() -> getStatus(server)));
+      }
+      for (Future<Integer> r: results) {
+        assertThat(r.get(), equalTo(200));
+      }
+      assertThat(limiter.getPeakInFlightCount(), equalTo(3));
+      assertThat(limiter.getCompletedCount(), equalTo(6L));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static int getStatus(HttpServer server) {
+    try (Response resp = simpleGet(server.getUri())) {
+      return resp.code();
+    }
+  }
+
+  private static void awaitInFlight(ConcurrencyLimitHandler limiter, int count) throws InterruptedException {
+    while (limiter.getInFlightCount() < count) {
+      Thread.sleep(10);
+    }
+  }
+}
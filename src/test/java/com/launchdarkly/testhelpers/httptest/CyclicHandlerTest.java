@@ -0,0 +1,54 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.noOp;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class CyclicHandlerTest {
+  @Test
+  public void handlersAreCalledInRotation() throws Exception {
+    CyclicHandler handler = Handlers.cycle(Handlers.status(200), Handlers.status(201));
+    
+    try (HttpServer server = HttpServer.start(handler)) {
+      int[] expected = new int[] { 200, 201, 200, 201, 200 };
+      for (int status: expected) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(status));
+        }
+      }
+    }
+    assertThat(handler.getHitCount(0), equalTo(3L));
+    assertThat(handler.getHitCount(1), equalTo(2L));
+  }
+
+  @Test
+  public void concurrentRequestsAreSplitEvenly() throws Exception {
+    CyclicHandler handler = Handlers.cycle(noOp, noOp, noOp);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 3000; j++) {
+          handler.apply(null);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t: threads) {
+      t.join();
+    }
+    for (int i = 0; i < 3; i++) {
+      assertThat(handler.getHitCount(i), equalTo(4000L));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noHandlers() {
+    Handlers.cycle();
+  }
+}
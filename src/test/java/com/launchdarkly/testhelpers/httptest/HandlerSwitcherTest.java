@@ -2,9 +2,14 @@ package com.launchdarkly.testhelpers.httptest;
 
 import org.junit.Test;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
 import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 import okhttp3.Response;
 
@@ -24,4 +29,37 @@ public class HandlerSwitcherTest {
       assertThat(resp2.code(), equalTo(400));
     }
   }
+
+  @Test
+  public void swapAndDrainWaitsForRequestsOnOldTarget() throws Exception {
+    CompletableFuture<Void> oldRequest = new CompletableFuture<>();
+    HandlerSwitcher switchable = new HandlerSwitcher((AsyncHandler)ctx -> oldRequest);
+    CompletionStage<Void> inFlight = switchable.applyAsync(null);
+    assertThat(switchable.getInFlightCount(), equalTo(1L));
+
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {}
+      oldRequest.complete(null);
+    }).start();
+    long drainTime = switchable.swapAndDrain((AsyncHandler)ctx -> AsyncSupport.DONE, 5, TimeUnit.SECONDS);
+
+    assertThat(inFlight.toCompletableFuture().isDone(), equalTo(true));
+    assertThat(drainTime, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50)));
+    assertThat(switchable.getInFlightCount(), equalTo(0L));
+  }
+
+  @Test
+  public void swapAndDrainReturnsImmediatelyIfOldTargetIsIdle() throws Exception {
+    HandlerSwitcher switchable = new HandlerSwitcher(Handlers.status(200));
+    switchable.swapAndDrain(Handlers.status(400), 0, null);
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void swapAndDrainTimesOut() throws Exception {
+    HandlerSwitcher switchable = new HandlerSwitcher((AsyncHandler)ctx -> new CompletableFuture<>());
+    switchable.applyAsync(null);
+    switchable.swapAndDrain(Handlers.status(200), 50, TimeUnit.MILLISECONDS);
+  }
 }
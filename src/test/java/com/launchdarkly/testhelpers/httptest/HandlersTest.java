@@ -1,11 +1,14 @@
 package com.launchdarkly.testhelpers.httptest;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonWriter;
 
 import org.junit.Test;
 
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
@@ -13,6 +16,7 @@ import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.anyOf;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.nullValue;
 
 import okhttp3.Request;
@@ -132,6 +136,60 @@ public class HandlersTest {
     }
   }
   
+  @Test
+  public void jsonStreamWithChunkedEncoding() throws Exception {
+    Handlers.JsonContent content = w -> {
+      w.beginArray();
+      for (int i = 0; i < 100000; i++) {
+        w.beginObject().name("key").value(i).endObject();
+      }
+      w.endArray();
+    };
+    StringWriter expected = new StringWriter();
+    content.write(new JsonWriter(expected));
+
+    try (HttpServer server = HttpServer.start(Handlers.jsonStream(content))) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(200));
+        assertThat(resp.header("content-type"), equalTo("application/json"));
+        assertThat(resp.header("transfer-encoding"), equalTo("chunked"));
+        assertThat(resp.body().string(), equalTo(expected.toString()));
+      }
+    }
+  }
+
+  @Test
+  public void jsonStreamWithContentLength() throws Exception {
+    Handlers.JsonContent content = w -> w.beginObject().name("message").value("h\u00e9llo").endObject();
+    String expected = "{\"message\":\"h\u00e9llo\"}";
+    int length = expected.getBytes(Charset.forName("UTF-8")).length;
+
+    try (HttpServer server = HttpServer.start(Handlers.jsonStream(length, content))) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(200));
+        assertThat(resp.header("content-length"), equalTo(String.valueOf(length)));
+        assertThat(resp.header("transfer-encoding"), nullValue());
+        assertThat(resp.body().string(), equalTo(expected));
+      }
+    }
+  }
+
+  @Test
+  public void setChunkedUsesChunkedEncodingEvenIfContentLengthWasSet() throws Exception {
+    Handler handler = ctx -> {
+      ctx.setHeader("Content-Length", "5");
+      ctx.setChunked();
+      ctx.write("hello".getBytes(Charset.forName("UTF-8")));
+    };
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.header("transfer-encoding"), equalTo("chunked"));
+        assertThat(resp.header("content-length"), nullValue());
+        assertThat(resp.body().string(), equalTo("hello"));
+      }
+    }
+  }
+
   @Test
   public void chainStatusAndHeadersAndBody() throws Exception {
     Handler handler = Handlers.all(
@@ -175,4 +233,35 @@ public class HandlersTest {
       }
     }
   }
+
+  @Test
+  public void waitForDoesNotTakePermitAfterServerIsClosed() throws Exception {
+    Semaphore signal = new Semaphore(0);
+    try (HttpServer server = HttpServer.start(Handlers.all(Handlers.waitFor(signal), Handlers.status(200)))) {
+      new Thread(() -> {
+        try {
+          simpleGet(server.getUri()).close();
+        } catch (RuntimeException e) {} // the request fails when the server is closed
+      }).start();
+      Thread.sleep(200);
+    }
+    signal.release();
+    Thread.sleep(200);
+    assertThat(signal.availablePermits(), equalTo(1));
+  }
+
+  @Test
+  public void delayFromDistribution() throws Exception {
+    Handler handler = Handlers.all(
+        Handlers.delay(LatencyDistribution.uniform(100, 150, TimeUnit.MILLISECONDS)),
+        Handlers.status(200)
+        );
+    try (HttpServer server = HttpServer.start(handler)) {
+      long start = System.nanoTime();
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(200));
+      }
+      assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+  }
 }
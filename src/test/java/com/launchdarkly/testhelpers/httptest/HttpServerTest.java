@@ -5,6 +5,8 @@ import org.junit.Test;
 import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.startsWith;
 
 import okhttp3.OkHttpClient;
@@ -73,6 +75,33 @@ public class HttpServerTest {
       try (Response resp = client.newCall(new Request.Builder().url(server.getUrl()).build()).execute()) {
         assertThat(resp.code(), equalTo(419));
       }
+      
+      RequestInfo request = server.getRecorder().requireRequest();
+      assertThat(request.getConnection().getTlsSessionId(), not(nullValue()));
+    }
+  }
+
+  @Test
+  public void releaseParkedConnections() throws Exception {
+    Handler handler = Handlers.all(Handlers.SSE.start(), Handlers.SSE.comment("hi"), Handlers.SSE.leaveOpen());
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp1 = simpleGet(server.getUri())) {
+        try (Response resp2 = simpleGet(server.getUri())) {
+          assertThat(resp1.body().byteStream().read(), equalTo((int)':'));
+          assertThat(resp2.body().byteStream().read(), equalTo((int)':'));
+          long deadline = System.currentTimeMillis() + 1000;
+          while (server.getParkedConnectionCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10); // the handlers park just after writing the comment
+          }
+          assertThat(server.getParkedConnectionCount(), equalTo(2));
+          
+          server.releaseParkedConnections();
+          
+          assertThat(resp1.body().string(), equalTo("hi\n"));
+          assertThat(resp2.body().string(), equalTo("hi\n"));
+          assertThat(server.getParkedConnectionCount(), equalTo(0));
+        }
+      }
     }
   }
 }
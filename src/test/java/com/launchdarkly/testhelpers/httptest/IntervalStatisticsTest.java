@@ -0,0 +1,38 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@SuppressWarnings("javadoc")
+public class IntervalStatisticsTest {
+  @Test
+  public void statisticsForUnorderedTimestamps() {
+    IntervalStatistics stats = IntervalStatistics.fromTimestamps(1000, 1010, 1030, 1060, 1100, 1000);
+    // sorted: 1000, 1000, 1010, 1030, 1060, 1100; intervals: 0, 10, 20, 30, 40
+    assertThat(stats.getCount(), equalTo(5));
+    assertThat(stats.getMinNanos(), equalTo(0L));
+    assertThat(stats.getMaxNanos(), equalTo(40L));
+    assertThat(stats.getMeanNanos(), equalTo(20.0));
+    assertThat(stats.getPercentileNanos(0), equalTo(0L));
+    assertThat(stats.getPercentileNanos(50), equalTo(20L));
+    assertThat(stats.getPercentileNanos(80), equalTo(30L));
+    assertThat(stats.getPercentileNanos(81), equalTo(40L));
+    assertThat(stats.getPercentileNanos(100), equalTo(40L));
+  }
+
+  @Test
+  public void noIntervals() {
+    IntervalStatistics stats = IntervalStatistics.fromTimestamps(1000);
+    assertThat(stats.getCount(), equalTo(0));
+    assertThat(stats.getMinNanos(), equalTo(0L));
+    assertThat(stats.getMeanNanos(), equalTo(0.0));
+    assertThat(stats.getPercentileNanos(99), equalTo(0L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void percentileOutOfRange() {
+    IntervalStatistics.fromTimestamps(1, 2).getPercentileNanos(101);
+  }
+}
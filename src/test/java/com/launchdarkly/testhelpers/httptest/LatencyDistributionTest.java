@@ -0,0 +1,109 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@SuppressWarnings("javadoc")
+public class LatencyDistributionTest {
+  @Test
+  public void fixed() {
+    LatencyDistribution d = LatencyDistribution.fixed(3, TimeUnit.MILLISECONDS);
+    assertThat(d.nextNanos(), equalTo(3000000L));
+    assertThat(d.nextNanos(), equalTo(3000000L));
+  }
+
+  @Test
+  public void uniformStaysWithinBounds() {
+    LatencyDistribution d = LatencyDistribution.uniform(5, 10, null);
+    for (int i = 0; i < 10000; i++) {
+      long value = d.nextNanos();
+      assertThat(value, greaterThanOrEqualTo(5000000L));
+      assertThat(value, lessThanOrEqualTo(10000000L));
+    }
+  }
+
+  @Test
+  public void normalNeverReturnsNegativeValues() {
+    LatencyDistribution d = LatencyDistribution.normal(1, 10, null);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(d.nextNanos(), greaterThanOrEqualTo(0L));
+    }
+  }
+
+  @Test
+  public void paretoIsAtLeastMinimumAndRespectsMaximum() {
+    LatencyDistribution d = LatencyDistribution.pareto(10, 0.5, null).withMaximum(1, TimeUnit.SECONDS);
+    boolean sawMaximum = false;
+    for (int i = 0; i < 10000; i++) {
+      long value = d.nextNanos();
+      assertThat(value, greaterThanOrEqualTo(10000000L));
+      assertThat(value, lessThanOrEqualTo(1000000000L));
+      sawMaximum |= value == 1000000000L;
+    }
+    assertThat(sawMaximum, equalTo(true));
+  }
+
+  @Test
+  public void logNormalMedian() {
+    LatencyDistribution d = LatencyDistribution.logNormal(20, 1, null).withSeed(1);
+    int below = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (d.nextNanos() < 20000000L) {
+        below++;
+      }
+    }
+    assertThat(below, greaterThanOrEqualTo(4700));
+    assertThat(below, lessThanOrEqualTo(5300));
+  }
+
+  @Test
+  public void sameSeedProducesSameSequence() {
+    LatencyDistribution d1 = LatencyDistribution.logNormal(20, 1, null).withSeed(123);
+    LatencyDistribution d2 = LatencyDistribution.logNormal(20, 1, null).withSeed(123);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(d1.nextNanos(), equalTo(d2.nextNanos()));
+    }
+  }
+
+  @Test
+  public void empiricalUsesValuesFromFile() throws Exception {
+    Path file = Files.createTempFile("latency", ".txt");
+    try {
+      Files.write(file, ImmutableList.of("# ms, count", "12, 3", "", "15 1", "40, 0", "800.5"));
+      LatencyDistribution d = LatencyDistribution.empirical(file, TimeUnit.MILLISECONDS).withSeed(1);
+      Set<Long> seen = new HashSet<>();
+      for (int i = 0; i < 1000; i++) {
+        seen.add(d.nextNanos());
+      }
+      assertThat(seen.size(), equalTo(3));
+      assertThat(seen.contains(12000000L), equalTo(true));
+      assertThat(seen.contains(15000000L), equalTo(true));
+      assertThat(seen.contains(800500000L), equalTo(true));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void empiricalRejectsInvalidLine() throws Exception {
+    Path file = Files.createTempFile("latency", ".txt");
+    try {
+      Files.write(file, ImmutableList.of("12", "twelve"));
+      LatencyDistribution.empirical(file, null);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@SuppressWarnings("javadoc")
+public class LatencyHistogramTest {
+  @Test
+  public void emptyHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertThat(h.getCount(), equalTo(0L));
+    assertThat(h.getMin(), equalTo(0L));
+    assertThat(h.getMax(), equalTo(0L));
+    assertThat(h.getValueAtPercentile(50), equalTo(0L));
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      h.recordValue(i);
+    }
+    assertThat(h.getCount(), equalTo(100L));
+    assertThat(h.getMin(), equalTo(1L));
+    assertThat(h.getMax(), equalTo(100L));
+    assertThat(h.getMean(), equalTo(50.5));
+    assertThat(h.getValueAtPercentile(50), equalTo(50L));
+    assertThat(h.getValueAtPercentile(99), equalTo(99L));
+    assertThat(h.getValueAtPercentile(100), equalTo(100L));
+  }
+
+  @Test
+  public void largeValuesAreWithinOnePercent() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (long i = 1; i <= 10000; i++) {
+      h.recordValue(i * 1000003);
+    }
+    for (double p: new double[] { 10, 50, 90, 99, 99.9 }) {
+      long expected = (long)Math.ceil(p * 100) * 1000003;
+      long actual = h.getValueAtPercentile(p);
+      assertThat(actual, greaterThanOrEqualTo((long)(expected * 0.99)));
+      assertThat(actual, lessThanOrEqualTo((long)(expected * 1.01)));
+    }
+    assertThat(h.getMax(), equalTo(10000L * 1000003));
+  }
+
+  @Test
+  public void expectedIntervalAddsMissingValues() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.recordValueWithExpectedInterval(100, 30);
+    assertThat(h.getCount(), equalTo(4L)); // 100, 70, 40, 10 is below the interval so is omitted
+    assertThat(h.getMin(), equalTo(40L));
+    assertThat(h.getMax(), equalTo(100L));
+
+    h.recordValueWithExpectedInterval(20, 30);
+    assertThat(h.getCount(), equalTo(5L));
+  }
+
+  @Test
+  public void addHistogram() {
+    LatencyHistogram h1 = new LatencyHistogram(), h2 = new LatencyHistogram();
+    h1.recordValue(5);
+    h2.recordValue(1);
+    h2.recordValue(9);
+    h1.add(h2);
+    assertThat(h1.getCount(), equalTo(3L));
+    assertThat(h1.getMin(), equalTo(1L));
+    assertThat(h1.getMax(), equalTo(9L));
+    assertThat(h1.getValueAtPercentile(50), equalTo(5L));
+  }
+}
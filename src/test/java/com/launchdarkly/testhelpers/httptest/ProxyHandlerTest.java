@@ -0,0 +1,144 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class ProxyHandlerTest {
+  @Test
+  public void requestIsForwardedAndResponseIsRelayed() throws Exception {
+    Handler upstreamHandler = Handlers.all(Handlers.status(201), Handlers.header("name1", "value1"),
+        Handlers.bodyString("text/plain", "hello"));
+    try (HttpServer upstream = HttpServer.start(upstreamHandler)) {
+      try (ProxyHandler proxy = Handlers.proxyTo(upstream.getUri().resolve("/base/"))) {
+        try (HttpServer server = HttpServer.start(proxy)) {
+          try (Response resp = client.newCall(new Request.Builder()
+              .url(server.getUri().resolve("/path?a=b").toURL())
+              .header("name2", "value2")
+              .method("POST", RequestBody.create("{}", MediaType.parse("application/json")))
+              .build()).execute()) {
+            assertThat(resp.code(), equalTo(201));
+            assertThat(resp.header("name1"), equalTo("value1"));
+            assertThat(resp.header("content-length"), equalTo("5"));
+            assertThat(resp.body().string(), equalTo("hello"));
+          }
+
+          RequestInfo received = upstream.getRecorder().requireRequest();
+          assertThat(received.getMethod(), equalTo("POST"));
+          assertThat(received.getPath(), equalTo("/base/path"));
+          assertThat(received.getQuery(), equalTo("?a=b"));
+          assertThat(received.getHeader("name2"), equalTo("value2"));
+          assertThat(received.getBody(), equalTo("{}"));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void streamedResponseIsRelayed() throws Exception {
+    Handler upstreamHandler = Handlers.all(
+        Handlers.startChunks("text/plain", null),
+        Handlers.writeChunkString("first."),
+        Handlers.writeChunkString("second.")
+        );
+    try (HttpServer upstream = HttpServer.start(upstreamHandler)) {
+      try (ProxyHandler proxy = Handlers.proxyTo(upstream.getUri())) {
+        try (HttpServer server = HttpServer.start(proxy)) {
+          try (Response resp = simpleGet(server.getUri())) {
+            assertThat(resp.code(), equalTo(200));
+            assertThat(resp.header("content-type"), equalTo("text/plain"));
+            assertThat(resp.body().string(), equalTo("first.second."));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void upstreamConnectionIsReused() throws Exception {
+    try (HttpServer upstream = HttpServer.start(Handlers.bodyString("text/plain", "hello"))) {
+      try (ProxyHandler proxy = Handlers.proxyTo(upstream.getUri())) {
+        try (HttpServer server = HttpServer.start(proxy)) {
+          for (int i = 0; i < 3; i++) {
+            try (Response resp = simpleGet(server.getUri())) {
+              assertThat(resp.body().string(), equalTo("hello"));
+            }
+          }
+          assertThat(proxy.getIdleConnectionCount(), equalTo(1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void staleUpstreamConnectionsAreReplaced() throws Exception {
+    Handler slowHandler = Handlers.all(Handlers.delay(200), Handlers.status(200));
+    int port;
+    ProxyHandler proxy;
+    try (HttpServer upstream = HttpServer.start(slowHandler)) {
+      port = upstream.getPort();
+      proxy = Handlers.proxyTo(upstream.getUri());
+      try (HttpServer server = HttpServer.start(proxy)) {
+        // two concurrent requests leave two connections in the pool
+        CompletableFuture<Void> other = CompletableFuture.runAsync(() -> simpleGet(server.getUri()).close());
+        simpleGet(server.getUri()).close();
+        other.get();
+      }
+    }
+    assertThat(proxy.getIdleConnectionCount(), equalTo(2));
+
+    // both pooled connections are now closed at the other end, so the retry must not use the second one
+    try (HttpServer upstream = HttpServer.start(port, Handlers.status(200))) {
+      try (HttpServer server = HttpServer.start(proxy)) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(200));
+        }
+      }
+    } finally {
+      proxy.close();
+    }
+  }
+
+  @Test
+  public void requestDelayIsApplied() throws Exception {
+    try (HttpServer upstream = HttpServer.start(Handlers.status(200))) {
+      try (ProxyHandler proxy = Handlers.proxyTo(upstream.getUri()).withRequestDelay(r -> 300)) {
+        try (HttpServer server = HttpServer.start(proxy)) {
+          long start = System.currentTimeMillis();
+          try (Response resp = simpleGet(server.getUri())) {
+            assertThat(resp.code(), equalTo(200));
+          }
+          assertThat(System.currentTimeMillis() - start, greaterThan(250L));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void unreachableUpstreamReturns502() throws Exception {
+    int port;
+    try (HttpServer upstream = HttpServer.start(Handlers.status(200))) {
+      port = upstream.getPort();
+    }
+    try (ProxyHandler proxy = Handlers.proxyTo(URI.create("http://localhost:" + port))) {
+      try (HttpServer server = HttpServer.start(proxy)) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(502));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.noOp;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class RandomHandlerTest {
+  @Test
+  public void requestsGoToChosenHandler() throws Exception {
+    RandomHandler handler = Handlers.randomOf(1, Handlers.status(200), Handlers.status(201));
+    
+    try (HttpServer server = HttpServer.start(handler)) {
+      for (int i = 0; i < 10; i++) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code() == 200 || resp.code() == 201, equalTo(true));
+        }
+      }
+    }
+    assertThat(handler.getHitCount(0) + handler.getHitCount(1), equalTo(10L));
+  }
+
+  @Test
+  public void handlersAreChosenUniformlyByDefault() {
+    RandomHandler handler = Handlers.randomOf(1, noOp, noOp, noOp, noOp);
+    for (int i = 0; i < 20000; i++) {
+      handler.apply(null);
+    }
+    for (int i = 0; i < 4; i++) {
+      assertThat((double)handler.getHitCount(i), closeTo(5000, 300));
+    }
+  }
+
+  @Test
+  public void handlersAreChosenAccordingToWeights() {
+    RandomHandler handler = Handlers.randomOf(1, new double[] { 9, 1, 0 }, noOp, noOp, noOp);
+    for (int i = 0; i < 10000; i++) {
+      handler.apply(null);
+    }
+    assertThat((double)handler.getHitCount(0), closeTo(9000, 300));
+    assertThat((double)handler.getHitCount(1), closeTo(1000, 300));
+    assertThat(handler.getHitCount(2), equalTo(0L));
+  }
+
+  @Test
+  public void sameSeedGivesSameSequence() {
+    assertThat(choices(Handlers.randomOf(12345, new double[] { 1, 2, 3 }, noOp, noOp, noOp)),
+        equalTo(choices(Handlers.randomOf(12345, new double[] { 1, 2, 3 }, noOp, noOp, noOp))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongNumberOfWeights() {
+    Handlers.randomOf(1, new double[] { 1 }, noOp, noOp);
+  }
+
+  private static List<Integer> choices(RandomHandler handler) {
+    List<Integer> ret = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      long[] before = new long[] { handler.getHitCount(0), handler.getHitCount(1), handler.getHitCount(2) };
+      handler.apply(null);
+      for (int j = 0; j < 3; j++) {
+        if (handler.getHitCount(j) != before[j]) {
+          ret.add(j);
+        }
+      }
+    }
+    return ret;
+  }
+}
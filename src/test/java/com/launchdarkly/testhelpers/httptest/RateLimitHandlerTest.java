@@ -0,0 +1,70 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class RateLimitHandlerTest {
+  @Test
+  public void requestsBeyondBurstAreRejected() throws Exception {
+    RateLimitHandler limiter = Handlers.rateLimit(0.1, 2, Handlers.status(200));
+    try (HttpServer server = HttpServer.start(limiter)) {
+      for (int i = 0; i < 2; i++) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(200));
+        }
+      }
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(429));
+        int retryAfter = Integer.parseInt(resp.header("Retry-After"));
+        assertThat(retryAfter >= 9 && retryAfter <= 10, equalTo(true));
+      }
+      assertThat(limiter.getAdmittedCount(), equalTo(2L));
+      assertThat(limiter.getRejectedCount(), equalTo(1L));
+    }
+  }
+
+  @Test
+  public void permitsAreReplenished() throws Exception {
+    RateLimitHandler limiter = Handlers.rateLimit(20, 1, Handlers.status(200));
+    try (HttpServer server = HttpServer.start(limiter)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(200));
+      }
+      Thread.sleep(100);
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.code(), equalTo(200));
+      }
+    }
+  }
+
+  @Test
+  public void keyedBucketsAreIndependent() throws Exception {
+    RateLimitHandler limiter = Handlers.rateLimit(0.1, 1, Handlers.status(200)).withHeaderKey("Client");
+    try (HttpServer server = HttpServer.start(limiter)) {
+      assertThat(getWithClient(server, "a"), equalTo(200));
+      assertThat(getWithClient(server, "b"), equalTo(200));
+      assertThat(getWithClient(server, "a"), equalTo(429));
+      assertThat(getWithClient(server, "b"), equalTo(429));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void burstMustBePositive() {
+    Handlers.rateLimit(1, 0, Handlers.status(200));
+  }
+
+  private static int getWithClient(HttpServer server, String clientId) throws Exception {
+    Request req = new Request.Builder().url(server.getUrl()).header("Client", clientId).build();
+    try (Response resp = client.newCall(req).execute()) {
+      return resp.code();
+    }
+  }
+}
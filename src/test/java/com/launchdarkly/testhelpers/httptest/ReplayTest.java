@@ -0,0 +1,146 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.launchdarkly.testhelpers.TempDir;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.contextFor;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class ReplayTest {
+  @Test
+  public void recordedResponsesAreReplayed() throws Exception {
+    SimpleRouter router = new SimpleRouter()
+        .add("GET", "/flags", Handlers.all(Handlers.header("etag", "abc"), Handlers.bodyJson("{\"a\":1}")))
+        .add("POST", "/events", Handlers.status(202));
+
+    try (TempDir dir = TempDir.create()) {
+      Path file = dir.getPath().resolve("traffic.replay");
+      try (ReplayRecorder recorder = ReplayRecorder.create(file)) {
+        try (HttpServer server = HttpServer.start(recorder.wrap(router))) {
+          simpleGet(server.getUri().resolve("/flags")).close();
+          postEvents(server, "[1]").close();
+        }
+      }
+
+      try (HttpServer server = HttpServer.start(Handlers.replay(file))) {
+        try (Response resp = simpleGet(server.getUri().resolve("/flags"))) {
+          assertThat(resp.code(), equalTo(200));
+          assertThat(resp.header("etag"), equalTo("abc"));
+          assertThat(resp.header("content-type"), equalTo("application/json"));
+          assertThat(resp.body().string(), equalTo("{\"a\":1}"));
+        }
+        try (Response resp = postEvents(server, "[1]")) {
+          assertThat(resp.code(), equalTo(202));
+        }
+        try (Response resp = postEvents(server, "[2]")) {
+          assertThat(resp.code(), equalTo(500));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void repeatedRequestsAreReplayedInOrder() throws Exception {
+    Handler handler = Handlers.sequential(Handlers.status(200), Handlers.status(503));
+
+    try (TempDir dir = TempDir.create()) {
+      Path file = dir.getPath().resolve("traffic.replay");
+      try (ReplayRecorder recorder = ReplayRecorder.create(file)) {
+        try (HttpServer server = HttpServer.start(recorder.wrap(handler))) {
+          simpleGet(server.getUri()).close();
+          simpleGet(server.getUri()).close();
+        }
+      }
+
+      try (HttpServer server = HttpServer.start(Handlers.replay(file))) {
+        assertThat(simpleGet(server.getUri()).code(), equalTo(200));
+        assertThat(simpleGet(server.getUri()).code(), equalTo(503));
+        assertThat(simpleGet(server.getUri()).code(), equalTo(503));
+      }
+    }
+  }
+
+  @Test
+  public void stringsLongerThan64KBAreRecorded() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 70000; i++) {
+      sb.append('x');
+    }
+    String longString = sb.toString();
+    RequestInfo request = new RequestInfo("GET", "/flags?q=" + longString, "/flags", "?q=" + longString,
+        RequestHeaders.empty(), new byte[0], null, 0, 0, 0, 0);
+
+    try (TempDir dir = TempDir.create()) {
+      Path file = dir.getPath().resolve("traffic.replay");
+      try (ReplayRecorder recorder = ReplayRecorder.create(file)) {
+        recorder.wrap(Handlers.header("X-Long", longString)).apply(contextFor(request));
+      }
+
+      List<String> headerValues = new ArrayList<>();
+      Handlers.replay(file).apply(new RequestContext() {
+        public RequestInfo getRequest() {
+          return request;
+        }
+
+        public void setStatus(int status) {}
+
+        public void setHeader(String name, String value) {}
+
+        public void addHeader(String name, String value) {
+          headerValues.add(value);
+        }
+
+        public void setChunked() {}
+
+        public void write(byte[] data) {}
+
+        public String getPathParam(int i) {
+          return null;
+        }
+      });
+      assertThat(headerValues.size(), equalTo(1));
+      assertThat(headerValues.get(0), equalTo(longString));
+    }
+  }
+
+  @Test
+  public void requestWithSameHashButDifferentContentIsNotReplayed() throws Exception {
+    try (TempDir dir = TempDir.create()) {
+      Path file = dir.getPath().resolve("traffic.replay");
+      try (ReplayRecorder recorder = ReplayRecorder.create(file)) {
+        try (HttpServer server = HttpServer.start(recorder.wrap(Handlers.status(200)))) {
+          simpleGet(server.getUri().resolve("/flags")).close();
+        }
+      }
+
+      // Change the stored path without changing the stored hash, as if "/flagz" had collided with "/flags".
+      String data = new String(Files.readAllBytes(file), "ISO-8859-1");
+      Files.write(file, data.replace("/flags", "/flagz").getBytes("ISO-8859-1"));
+
+      try (HttpServer server = HttpServer.start(Handlers.replay(file))) {
+        assertThat(simpleGet(server.getUri().resolve("/flags")).code(), equalTo(500));
+      }
+    }
+  }
+
+  private static Response postEvents(HttpServer server, String body) throws Exception {
+    return client.newCall(new Request.Builder().url(server.getUri().resolve("/events").toURL())
+        .method("POST", RequestBody.create(body, MediaType.parse("application/json")))
+        .build()).execute();
+  }
+}
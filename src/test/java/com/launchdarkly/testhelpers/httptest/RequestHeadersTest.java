@@ -0,0 +1,62 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@SuppressWarnings("javadoc")
+public class RequestHeadersTest {
+  private static RequestHeaders parse(String s) {
+    byte[] data = ("xx" + s + "yy").getBytes(Charset.forName("UTF-8"));
+    return RequestHeaders.parse(data, 2, data.length - 4);
+  }
+
+  @Test
+  public void parseRepeatedHeaders() {
+    RequestHeaders h = parse("Accept: a\r\nX-Thing:  1 \r\nx-thing: 2\r\n\r\nNot-A-Header: 3\r\n");
+    assertThat(h.size(), equalTo(3));
+    assertThat(h.getName(1), equalTo("X-Thing"));
+    assertThat(h.getValue(1), equalTo("1"));
+    assertThat(h.get("X-THING"), equalTo("1"));
+    assertThat(h.getAll("x-thing"), contains("1", "2"));
+    assertThat(h.getNames(), contains("Accept", "X-Thing"));
+    assertThat(h.get("not-a-header"), nullValue());
+    assertThat(h.getAll("not-a-header").size(), equalTo(0));
+  }
+
+  @Test
+  public void parseLineFeedsAndContinuationLines() {
+    RequestHeaders h = parse("A: 1\nB: 2\n  more\n\tand more\nno colon\nC: \u00e9\n");
+    assertThat(h.size(), equalTo(3));
+    assertThat(h.get("b"), equalTo("2 more and more"));
+    assertThat(h.get("c"), equalTo("\u00e9"));
+  }
+
+  @Test
+  public void fromNamesAndValues() {
+    RequestHeaders h = RequestHeaders.of("a", "1", "B", "2", "A", "3");
+    assertThat(h.getAll("a"), contains("1", "3"));
+    assertThat(h.getNames(), contains("a", "B"));
+    assertThat(h.toString(), equalTo("a: 1\nB: 2\nA: 3\n"));
+  }
+
+  @Test
+  public void fromMap() {
+    RequestHeaders h = RequestHeaders.fromMap(ImmutableMap.of("a", "1", "b", "2"));
+    assertThat(h.get("A"), equalTo("1"));
+    assertThat(h.getNames(), contains("a", "b"));
+    assertThat(RequestHeaders.fromMap(null).size(), equalTo(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void oddNumberOfNamesAndValues() {
+    RequestHeaders.of("a", "1", "b");
+  }
+}
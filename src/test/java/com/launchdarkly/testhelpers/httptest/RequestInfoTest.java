@@ -0,0 +1,47 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@SuppressWarnings("javadoc")
+public class RequestInfoTest {
+  private static RequestInfo request(String uri, String query) {
+    return new RequestInfo("GET", uri, "/path", query, null, null, null, 0, 0, 0, 0);
+  }
+
+  @Test
+  public void uriIsParsedFromString() {
+    RequestInfo r = request("http://localhost:8000/path?a=b", "?a=b");
+    assertThat(r.getUri(), equalTo(URI.create("http://localhost:8000/path?a=b")));
+    assertThat(request(null, null).getUri(), nullValue());
+  }
+
+  @Test
+  public void queryParameters() {
+    RequestInfo r = request(null, "?a=1&b=x+y&a=%3D2&flag&&c=");
+    assertThat(r.getQueryParameters().keySet(), contains("a", "b", "flag", "c"));
+    assertThat(r.getQueryParameters().get("a"), contains("1", "=2"));
+    assertThat(r.getQueryParameter("a"), equalTo("1"));
+    assertThat(r.getQueryParameter("b"), equalTo("x y"));
+    assertThat(r.getQueryParameter("flag"), equalTo(""));
+    assertThat(r.getQueryParameter("c"), equalTo(""));
+    assertThat(r.getQueryParameter("d"), nullValue());
+  }
+
+  @Test
+  public void noQueryParameters() {
+    assertThat(request(null, null).getQueryParameters().size(), equalTo(0));
+    assertThat(request(null, null).getQueryParameter("a"), nullValue());
+  }
+
+  @Test
+  public void invalidEscapeIsLeftUndecoded() {
+    assertThat(request(null, "?a=%zz").getQueryParameter("a"), equalTo("%zz"));
+  }
+}
@@ -0,0 +1,128 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.launchdarkly.testhelpers.TempDir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.contextFor;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+@SuppressWarnings("javadoc")
+public class RequestLogTest {
+  @Test
+  public void requestsAreWrittenToFileAndCanBeReadBack() throws Exception {
+    try (TempDir dir = TempDir.create()) {
+      try (RequestLog log = RequestLog.create(dir.getPath().resolve("requests.ndjson"))) {
+        try (HttpServer server = HttpServer.start(Handlers.all(log, Handlers.status(200)))) {
+          server.getRecorder().setEnabled(false);
+
+          simpleGet(server.getUri().resolve("/path1?a=b"));
+          client.newCall(new Request.Builder().url(server.getUri().resolve("/path2").toURL())
+              .header("name1", "value1")
+              .method("POST", RequestBody.create("{}", MediaType.parse("application/json")))
+              .build()).execute();
+
+          assertThat(server.getRecorder().count(), equalTo(0));
+        }
+
+        assertThat(log.count(), equalTo(2));
+
+        RequestInfo r1 = log.get(0);
+        assertThat(r1.getMethod(), equalTo("GET"));
+        assertThat(r1.getPath(), equalTo("/path1"));
+        assertThat(r1.getQuery(), equalTo("?a=b"));
+
+        RequestInfo r2 = log.get(1);
+        assertThat(r2.getMethod(), equalTo("POST"));
+        assertThat(r2.getPath(), equalTo("/path2"));
+        assertThat(r2.getHeader("name1"), equalTo("value1"));
+        assertThat(r2.getBody(), equalTo("{}"));
+
+        List<String> paths = new ArrayList<>();
+        for (RequestInfo r: log) {
+          paths.add(r.getPath());
+        }
+        assertThat(paths.size(), equalTo(2));
+        assertThat(paths.get(0), equalTo("/path1"));
+        assertThat(paths.get(1), equalTo("/path2"));
+      }
+    }
+  }
+
+  @Test
+  public void entriesLargerThanBatchSizeAreWritten() throws Exception {
+    try (TempDir dir = TempDir.create()) {
+      try (RequestLog log = RequestLog.create(dir.getPath().resolve("requests.ndjson"))) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < RequestLog.BATCH_SIZE_BYTES; i++) {
+          body.append('x');
+        }
+        log.apply(contextFor(new RequestInfo("GET", null, "/small", null, null, "")));
+        log.apply(contextFor(new RequestInfo("POST", null, "/large", null, null, body.toString())));
+        log.apply(contextFor(new RequestInfo("GET", null, "/small", null, null, "")));
+
+        assertThat(log.count(), equalTo(3));
+        assertThat(log.get(1).getBody(), equalTo(body.toString()));
+        assertThat(log.get(2).getPath(), equalTo("/small"));
+      }
+    }
+  }
+
+  @Test
+  public void iteratorReadsEntriesAcrossBatches() throws Exception {
+    try (TempDir dir = TempDir.create()) {
+      try (RequestLog log = RequestLog.create(dir.getPath().resolve("requests.ndjson"))) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < RequestLog.BATCH_SIZE_BYTES; i++) {
+          body.append('x');
+        }
+        for (int i = 0; i < 2000; i++) {
+          log.apply(contextFor(new RequestInfo("POST", null, "/" + i, null, null,
+              i == 1000 ? body.toString() : "")));
+        }
+
+        int n = 0;
+        for (RequestInfo r: log) {
+          assertThat(r.getPath(), equalTo("/" + n));
+          assertThat(r.getBody().length(), equalTo(n == 1000 ? body.length() : 0));
+          n++;
+        }
+        assertThat(n, equalTo(2000));
+
+        // stopping early leaves nothing open, so the file can be read again
+        Iterator<RequestInfo> it = log.iterator();
+        assertThat(it.next().getPath(), equalTo("/0"));
+        assertThat(log.iterator().next().getPath(), equalTo("/0"));
+      }
+    }
+  }
+
+  @Test
+  public void binaryBodiesAreReadBackUnchanged() throws Exception {
+    try (TempDir dir = TempDir.create()) {
+      try (RequestLog log = RequestLog.create(dir.getPath().resolve("requests.ndjson"))) {
+        byte[] binary = new byte[] { 0x1f, (byte)0x8b, 0, (byte)0xff };
+        byte[] latin1 = "caf\u00e9".getBytes("ISO-8859-1");
+        log.apply(contextFor(new RequestInfo("POST", null, "/a", null,
+            RequestHeaders.of("Content-Encoding", "gzip"), binary, null, 0, 0, 0, 0)));
+        log.apply(contextFor(new RequestInfo("POST", null, "/b", null,
+            RequestHeaders.of("Content-Type", "text/plain;charset=iso-8859-1"), latin1, null, 0, 0, 0, 0)));
+
+        assertThat(log.get(0).getBodyBytes(), equalTo(binary));
+        assertThat(log.get(1).getBodyBytes(), equalTo(latin1));
+        assertThat(log.get(1).getBody(), equalTo("caf\u00e9"));
+      }
+    }
+  }
+}
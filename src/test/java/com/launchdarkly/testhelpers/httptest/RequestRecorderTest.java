@@ -3,14 +3,23 @@ package com.launchdarkly.testhelpers.httptest;
 import org.junit.Test;
 
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.contextFor;
 import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.startsWith;
 
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -54,9 +63,21 @@ public class RequestRecorderTest {
       assertThat(received.getUri(), equalTo(requestedUri));
       assertThat(received.getPath(), equalTo("/request/path"));
       assertThat(received.getQuery(), equalTo("?a=b"));
+      assertThat(received.getQueryParameter("a"), equalTo("b"));
     }    
   }
 
+  @Test
+  public void repeatedQueryParameters() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      simpleGet(server.getUri().resolve("/request/path?a=1&b=2&a=3"));
+
+      RequestInfo received = server.getRecorder().requireRequest();
+      assertThat(received.getQueryParameters().get("a"), contains("1", "3"));
+      assertThat(received.getQueryParameter("b"), equalTo("2"));
+    }
+  }
+
   @Test
   public void requestHeaders() throws Exception {
     try (HttpServer server = HttpServer.start(Handlers.status(200))) {
@@ -75,6 +96,26 @@ public class RequestRecorderTest {
     }
   }
 
+  @Test
+  public void repeatedRequestHeaders() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      Response resp = client.newCall(
+          new Request.Builder().url(server.getUri().toURL())
+            .addHeader("Name1", "value1")
+            .addHeader("name1", "value2")
+            .build()
+          ).execute();
+
+      assertThat(resp.code(), equalTo(200));
+      
+      RequestInfo received = server.getRecorder().requireRequest();
+      assertThat(received.getHeader("NAME1"), equalTo("value2"));
+      assertThat(received.getHeaderValues("name1"), contains("value1", "value2"));
+      assertThat(received.getHeaderNames(), hasItem("name1"));
+      assertThat(received.getHeaders().getNames(), hasItem("Name1"));
+    }
+  }
+
   @Test
   public void emptyRequestBodyByDefault() throws Exception {
     try (HttpServer server = HttpServer.start(Handlers.status(200))) {
@@ -126,6 +167,43 @@ public class RequestRecorderTest {
     }
   }
   
+  @Test
+  public void binaryRequestBody() throws Exception {
+    byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte)i;
+    }
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      Response resp = client.newCall(
+          new Request.Builder().url(server.getUri().toURL())
+            .post(RequestBody.create(data, MediaType.parse("application/octet-stream")))
+            .build()
+          ).execute();
+
+      assertThat(resp.code(), equalTo(200));
+      
+      RequestInfo received = server.getRecorder().requireRequest();
+      assertThat(received.getBodyBytes(), equalTo(data));
+    }
+  }
+
+  @Test
+  public void requestBodyIsDecodedWithContentTypeCharset() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      Response resp = client.newCall(
+          new Request.Builder().url(server.getUri().toURL())
+            .post(RequestBody.create("caf\u00e9".getBytes("ISO-8859-1"), MediaType.parse("text/plain; charset=ISO-8859-1")))
+            .build()
+          ).execute();
+
+      assertThat(resp.code(), equalTo(200));
+      
+      RequestInfo received = server.getRecorder().requireRequest();
+      assertThat(received.getBodyBytes().length, equalTo(4));
+      assertThat(received.getBody(), equalTo("caf\u00e9"));
+    }
+  }
+
   @Test
   public void canDisableRecorder() throws Exception {
     try (HttpServer server = HttpServer.start(Handlers.status(200))) {
@@ -149,4 +227,139 @@ public class RequestRecorderTest {
       assertThat(server.getRecorder().count(), equalTo(0));
     }
   }
+
+  @Test
+  public void requireRequestByPathSkipsOtherRequests() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      simpleGet(server.getUri().resolve("/path1"));
+      simpleGet(server.getUri().resolve("/path2"));
+      simpleGet(server.getUri().resolve("/path1"));
+
+      RequestRecorder recorder = server.getRecorder();
+      assertThat(recorder.requireRequestWithPath("/path2", 1, TimeUnit.SECONDS).getPath(), equalTo("/path2"));
+      assertThat(recorder.count(), equalTo(2));
+      assertThat(recorder.requireRequest().getPath(), equalTo("/path1"));
+      assertThat(recorder.requireRequest().getPath(), equalTo("/path1"));
+    }
+  }
+
+  @Test
+  public void requireRequestByMethodAndHeader() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      RequestRecorder recorder = server.getRecorder().indexHeader("X-Client");
+      client.newCall(new Request.Builder().url(server.getUri().toURL()).header("X-Client", "a").build()).execute();
+      client.newCall(new Request.Builder().url(server.getUri().toURL()).header("X-Client", "b")
+          .method("POST", RequestBody.create(new byte[0])).build()).execute();
+
+      assertThat(recorder.requireRequestWithHeader("x-client", "b", 1, TimeUnit.SECONDS).getMethod(), equalTo("POST"));
+      assertThat(recorder.requireRequestWithMethod("get", 1, TimeUnit.SECONDS).getHeader("x-client"), equalTo("a"));
+      assertThat(recorder.count(), equalTo(0));
+    }
+  }
+
+  @Test
+  public void requireRequestWithMatcherWaitsForMatchingRequest() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      new Thread(() -> {
+        simpleGet(server.getUri().resolve("/other"));
+        simpleGet(server.getUri().resolve("/wanted"));
+      }).start();
+
+      RequestInfo received = server.getRecorder().requireRequest(
+          r -> r.getPath().equals("/wanted"), 5, TimeUnit.SECONDS);
+      assertThat(received.getPath(), equalTo("/wanted"));
+      assertThat(server.getRecorder().requireRequest().getPath(), equalTo("/other"));
+    }
+  }
+
+  @Test
+  public void consumedRequestsAreNotKeptInIndexes() throws Exception {
+    RequestRecorder recorder = new RequestRecorder().indexHeader("X-Client");
+    for (int i = 0; i < 10000; i++) {
+      RequestHeaders headers = RequestHeaders.of("X-Client", String.valueOf(i % 7));
+      recorder.apply(contextFor(new RequestInfo(i % 2 == 0 ? "GET" : "POST", "/path" + (i % 10),
+          "/path" + (i % 10), null, headers, new byte[100], null, 0, 0, 0, 0)));
+      if (i >= 10) { // keep a few requests queued, so consumed ones are not always the only ones
+        recorder.requireRequest();
+        assertThat(recorder.storedEntryCount(), lessThanOrEqualTo(100));
+      }
+    }
+    for (int i = 0; i < 10; i++) {
+      recorder.requireRequest();
+    }
+    assertThat(recorder.storedEntryCount(), equalTo(0));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void requireRequestWithPathTimesOut() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      simpleGet(server.getUri().resolve("/path1"));
+      server.getRecorder().requireRequestWithPath("/path2", 100, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Test
+  public void requestsOnReusedConnection() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      simpleGet(server.getUri()).close();
+      simpleGet(server.getUri()).close();
+
+      RequestInfo r1 = server.getRecorder().requireRequest();
+      RequestInfo r2 = server.getRecorder().requireRequest();
+      assertThat(r1.getConnection(), not(nullValue()));
+      assertThat(r1.getConnection().getRemoteAddress(), startsWith("127.0.0.1:"));
+      assertThat(r1.getConnection().getTlsSessionId(), nullValue());
+      assertThat(r2.getConnection(), equalTo(r1.getConnection()));
+      assertThat(r1.getConnectionSequenceNumber(), equalTo(1));
+      assertThat(r2.getConnectionSequenceNumber(), equalTo(2));
+
+      assertThat(server.getRecorder().getConnectionCount(), equalTo(1));
+      assertThat(server.getRecorder().getRequestCountsByConnection().get(r1.getConnection().getId()), equalTo(2));
+    }
+  }
+
+  @Test
+  public void requestsOnSeparateConnections() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      for (int i = 0; i < 2; i++) {
+        // a client with no pooling has to open a new connection each time
+        client.newBuilder().connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS)).build()
+          .newCall(new Request.Builder().url(server.getUrl()).build()).execute().close();
+      }
+
+      RequestInfo r1 = server.getRecorder().requireRequest();
+      RequestInfo r2 = server.getRecorder().requireRequest();
+      assertThat(r2.getConnection().getId(), not(equalTo(r1.getConnection().getId())));
+      assertThat(r1.getConnectionSequenceNumber(), equalTo(1));
+      assertThat(r2.getConnectionSequenceNumber(), equalTo(1));
+      assertThat(server.getRecorder().getConnectionCount(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void requestTimestamps() throws Exception {
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      long before = System.nanoTime();
+      simpleGet(server.getUri()).close();
+      Thread.sleep(50);
+      client.newCall(new Request.Builder().url(server.getUrl())
+          .method("POST", RequestBody.create("{}", MediaType.parse("application/json")))
+          .build()).execute().close();
+      long after = System.nanoTime();
+
+      RequestInfo r1 = server.getRecorder().requireRequest();
+      RequestInfo r2 = server.getRecorder().requireRequest();
+      assertThat(r1.getArrivalTime(), greaterThanOrEqualTo(before));
+      assertThat(r1.getHeadersCompleteTime(), greaterThanOrEqualTo(r1.getArrivalTime()));
+      assertThat(r1.getBodyCompleteTime(), equalTo(r1.getHeadersCompleteTime()));
+      assertThat(r2.getArrivalTime() - r1.getArrivalTime(), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50)));
+      assertThat(r2.getBodyCompleteTime(), greaterThanOrEqualTo(r2.getHeadersCompleteTime()));
+      assertThat(r2.getBodyCompleteTime(), lessThanOrEqualTo(after));
+
+      IntervalStatistics stats = server.getRecorder().getInterArrivalStatistics();
+      assertThat(stats.getCount(), equalTo(1));
+      assertThat(stats.getMinNanos(), greaterThan(0L));
+      assertThat(stats.getMinNanos(), equalTo(r2.getArrivalTime() - r1.getArrivalTime()));
+    }
+  }
 }
@@ -0,0 +1,84 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.RequestTimingMatchers.batchedWithin;
+import static com.launchdarkly.testhelpers.httptest.RequestTimingMatchers.requestRateAtMost;
+import static com.launchdarkly.testhelpers.httptest.RequestTimingMatchers.requestsFollowExponentialBackoff;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.contextFor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+
+@SuppressWarnings("javadoc")
+public class RequestTimingMatchersTest {
+  @Test
+  public void rateAtMost() {
+    RequestRecorder recorder = recorderWithArrivals(0, 400, 900, 1000, 2100);
+    assertThat(recorder, requestRateAtMost(3, 1, TimeUnit.SECONDS));
+    assertThat(recorder, not(requestRateAtMost(2, 1, TimeUnit.SECONDS)));
+    assertThat(recorder, requestRateAtMost(1, 100, null));
+  }
+
+  @Test
+  public void rateAtMostUsesSlidingWindow() {
+    // these would pass if we only counted the requests in each whole second
+    RequestRecorder recorder = recorderWithArrivals(900, 1100);
+    assertThat(recorder, not(requestRateAtMost(1, 1, TimeUnit.SECONDS)));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void rateAtMostRejectsZeroPeriod() {
+    requestRateAtMost(1, 0, TimeUnit.SECONDS);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void rateAtMostRejectsNegativeCount() {
+    requestRateAtMost(-1, 1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void batched() {
+    RequestRecorder recorder = recorderWithArrivals(0, 10, 50, 5000, 5020, 10000);
+    assertThat(recorder, batchedWithin(100, TimeUnit.MILLISECONDS));
+    assertThat(recorder, not(batchedWithin(45, TimeUnit.MILLISECONDS)));
+  }
+
+  @Test
+  public void continuousRequestsAreNotBatched() {
+    RequestRecorder recorder = recorderWithArrivals(0, 50, 100, 150, 200);
+    assertThat(recorder, not(batchedWithin(100, TimeUnit.MILLISECONDS)));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void batchedRejectsZeroWindow() {
+    batchedWithin(0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void exponentialBackoff() {
+    RequestRecorder recorder = recorderWithArrivals(0, 1000, 3100, 6900, 15000);
+    assertThat(recorder, requestsFollowExponentialBackoff(1000, 2, 0.1, TimeUnit.MILLISECONDS));
+    assertThat(recorder, not(requestsFollowExponentialBackoff(1000, 1.5, 0.1, TimeUnit.MILLISECONDS)));
+    assertThat(recorder, not(requestsFollowExponentialBackoff(1000, 2, 0.01, TimeUnit.MILLISECONDS)));
+  }
+
+  @Test
+  public void boundedExponentialBackoff() {
+    RequestRecorder recorder = recorderWithArrivals(0, 1000, 3000, 7000, 11000, 15000);
+    assertThat(recorder, requestsFollowExponentialBackoff(1000, 2, 0.1, 4000, TimeUnit.MILLISECONDS));
+    assertThat(recorder, not(requestsFollowExponentialBackoff(1000, 2, 0.1, TimeUnit.MILLISECONDS)));
+  }
+
+  private static RequestRecorder recorderWithArrivals(long... millis) {
+    RequestRecorder recorder = new RequestRecorder();
+    for (long t: millis) {
+      // add an arbitrary offset, since nanoTime values have no fixed origin; a zero would mean unknown
+      RequestInfo request = new RequestInfo("GET", null, "/", null, null, new byte[0], null, 0,
+          TimeUnit.MILLISECONDS.toNanos(t) + 123456789L, 0, 0);
+      recorder.apply(contextFor(request));
+    }
+    return recorder;
+  }
+}
@@ -0,0 +1,232 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import com.launchdarkly.testhelpers.httptest.SSEBroadcaster.SlowConsumerPolicy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.client;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class SSEBroadcasterTest {
+  @Test
+  public void eventIsSentToAllSubscribers() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster();
+    try (HttpServer server = HttpServer.start(broadcaster)) {
+      try (Response resp1 = simpleGet(server.getUri());
+           Response resp2 = simpleGet(server.getUri())) {
+        assertThat(resp1.header("Content-Type"), equalTo("text/event-stream;charset=utf-8"));
+        broadcaster.awaitSubscribers(2, 5, TimeUnit.SECONDS);
+
+        assertThat(broadcaster.publish("put", "line1\nline2"), equalTo(2));
+        broadcaster.publishComment("hi");
+
+        String expected = "event: put\ndata: line1\ndata: line2\n\n:hi\n";
+        assertThat(readString(resp1.body().byteStream(), expected.length()), equalTo(expected));
+        assertThat(readString(resp2.body().byteStream(), expected.length()), equalTo(expected));
+        assertThat(broadcaster.getPublishedCount(), equalTo(2L));
+        assertThat(broadcaster.getFanOutLatency().getCount(), equalTo(4L));
+      }
+    }
+  }
+
+  @Test
+  public void closeEndsStreams() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster();
+    try (HttpServer server = HttpServer.start(broadcaster)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+        broadcaster.publish("data: x");
+        broadcaster.close();
+        assertThat(resp.body().string(), equalTo("data: x\n\n"));
+        assertThat(broadcaster.getSubscriberCount(), equalTo(0));
+      }
+    }
+  }
+
+  @Test
+  public void reconnectingClientReceivesMissedEventsFromLog() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster().withEventLog(3).withRetry(500, null);
+    for (int i = 1; i <= 5; i++) {
+      broadcaster.publish("data: " + i);
+    }
+    assertThat(broadcaster.getLastEventId(), equalTo(5L));
+
+    try (HttpServer server = HttpServer.start(broadcaster)) {
+      Request.Builder req = new Request.Builder().url(server.getUri().toURL());
+      try (Response resp = client.newCall(req.header("Last-Event-ID", "3").build()).execute()) {
+        broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+        broadcaster.publish("data: 6");
+        String expected = "retry: 500\n\nid: 4\ndata: 4\n\nid: 5\ndata: 5\n\nid: 6\ndata: 6\n\n";
+        assertThat(readString(resp.body().byteStream(), expected.length()), equalTo(expected));
+      }
+
+      // events 1 through 3 are no longer in the log
+      try (Response resp = client.newCall(req.header("Last-Event-ID", "1").build()).execute()) {
+        String expected = "retry: 500\n\nid: 4\ndata: 4\n\nid: 5\ndata: 5\n\nid: 6\ndata: 6\n\n";
+        assertThat(readString(resp.body().byteStream(), expected.length()), equalTo(expected));
+      }
+      assertThat(broadcaster.getReplayedCount(), equalTo(5L));
+    }
+  }
+
+  @Test
+  public void clientWithInvalidLastEventIdDoesNotReceiveEventsFromLog() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster().withEventLog(3);
+    broadcaster.publish("data: 1");
+    broadcaster.publish("data: 2");
+
+    try (HttpServer server = HttpServer.start(broadcaster)) {
+      Request req = new Request.Builder().url(server.getUri().toURL())
+          .header("Last-Event-ID", "not-a-number").build();
+      try (Response resp = client.newCall(req).execute()) {
+        broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+        broadcaster.publish("data: 3");
+        String expected = "id: 3\ndata: 3\n\n";
+        assertThat(readString(resp.body().byteStream(), expected.length()), equalTo(expected));
+      }
+      assertThat(broadcaster.getReplayedCount(), equalTo(0L));
+    }
+  }
+
+  @Test
+  public void dropPolicyDiscardsEventsForSlowSubscriber() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster().withQueueCapacity(2)
+        .withSlowConsumerPolicy(SlowConsumerPolicy.DROP);
+    SlowContext slow = new SlowContext();
+    new Thread(() -> broadcaster.apply(slow)).start();
+    broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+
+    broadcaster.publish("data: 1");
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 1\n\n")); // now blocked writing
+    broadcaster.publish("data: 2");
+    broadcaster.publish("data: 3");
+    broadcaster.publish("data: 4");
+    assertThat(broadcaster.getDroppedCount(), equalTo(1L));
+
+    slow.allowWrites.release(10);
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 2\n\n"));
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 3\n\n"));
+    broadcaster.close();
+  }
+
+  @Test
+  public void disconnectPolicyEndsStreamOfSlowSubscriber() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster().withQueueCapacity(1)
+        .withSlowConsumerPolicy(SlowConsumerPolicy.DISCONNECT);
+    SlowContext slow = new SlowContext();
+    Thread t = new Thread(() -> broadcaster.apply(slow));
+    t.start();
+    broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+
+    broadcaster.publish("data: 1");
+    slow.written.poll(5, TimeUnit.SECONDS);
+    broadcaster.publish("data: 2");
+    assertThat(broadcaster.publish("data: 3"), equalTo(0));
+    assertThat(broadcaster.getDisconnectedCount(), equalTo(1L));
+    assertThat(broadcaster.getSubscriberCount(), equalTo(0));
+
+    slow.allowWrites.release(10);
+    t.join(5000);
+    assertThat(t.isAlive(), equalTo(false));
+  }
+
+  @Test
+  public void blockPolicyDoesNotStopNewSubscribersFromConnecting() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster().withQueueCapacity(1);
+    SlowContext slow = new SlowContext();
+    new Thread(() -> broadcaster.apply(slow)).start();
+    broadcaster.awaitSubscribers(1, 5, TimeUnit.SECONDS);
+
+    broadcaster.publish("data: 1");
+    slow.written.poll(5, TimeUnit.SECONDS); // now blocked writing
+    broadcaster.publish("data: 2"); // fills the queue
+    Thread publisher = new Thread(() -> broadcaster.publish("data: 3"));
+    publisher.start();
+    Thread.sleep(100);
+    assertThat(publisher.isAlive(), equalTo(true)); // waiting for the slow subscriber
+
+    SlowContext other = new SlowContext();
+    new Thread(() -> broadcaster.apply(other)).start();
+    broadcaster.awaitSubscribers(2, 5, TimeUnit.SECONDS);
+
+    slow.allowWrites.release(10);
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 2\n\n"));
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 3\n\n"));
+    publisher.join(5000);
+    assertThat(publisher.isAlive(), equalTo(false));
+    broadcaster.close();
+  }
+
+  @Test
+  public void subscriberDoesNotHoldCallingThread() throws Exception {
+    SSEBroadcaster broadcaster = Handlers.SSE.broadcaster();
+    SlowContext slow = new SlowContext();
+    slow.allowWrites.release(100);
+    CompletableFuture<Void> done = broadcaster.applyAsync(slow).toCompletableFuture();
+    assertThat(done.isDone(), equalTo(false));
+    assertThat(broadcaster.getSubscriberCount(), equalTo(1));
+
+    broadcaster.publish("data: 1");
+    assertThat(slow.written.poll(5, TimeUnit.SECONDS), equalTo("data: 1\n\n"));
+    broadcaster.close();
+    done.get(5, TimeUnit.SECONDS);
+    assertThat(broadcaster.getSubscriberCount(), equalTo(0));
+  }
+
+  private static String readString(InputStream stream, int length) throws Exception {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    byte[] b = new byte[length];
+    while (buf.size() < length) {
+      int n = stream.read(b, 0, length - buf.size());
+      if (n < 0) {
+        break;
+      }
+      buf.write(b, 0, n);
+    }
+    return new String(buf.toByteArray(), Charset.forName("UTF-8"));
+  }
+
+  // A context that blocks after writing each chunk until allowWrites is released.
+  private static final class SlowContext implements RequestContext {
+    final BlockingQueue<String> written = new LinkedBlockingQueue<>();
+    final Semaphore allowWrites = new Semaphore(0);
+
+    public RequestInfo getRequest() {
+      return new RequestInfo("GET", null, "/", null, null, "");
+    }
+
+    public void setStatus(int status) {}
+
+    public void setHeader(String name, String value) {}
+
+    public void addHeader(String name, String value) {}
+
+    public void setChunked() {}
+
+    public void write(byte[] data) {
+      if (data != null && data.length != 0) {
+        written.add(new String(data, Charset.forName("UTF-8")));
+        allowWrites.acquireUninterruptibly();
+      }
+    }
+
+    public String getPathParam(int i) {
+      return null;
+    }
+  }
+}
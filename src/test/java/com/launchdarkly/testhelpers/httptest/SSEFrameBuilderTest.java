@@ -0,0 +1,62 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@SuppressWarnings("javadoc")
+public class SSEFrameBuilderTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Test
+  public void eventWithAllFields() {
+    SSEFrameBuilder b = new SSEFrameBuilder().id(42).event("put").retry(1000).data("{}").end();
+    assertThat(new String(b.toByteArray(), UTF8), equalTo("id: 42\nevent: put\nretry: 1000\ndata: {}\n\n"));
+  }
+
+  @Test
+  public void multiLineDataIsSplit() {
+    SSEFrameBuilder b = new SSEFrameBuilder().data("a\nb\r\nc\rd\n").end();
+    assertThat(new String(b.toByteArray(), UTF8), equalTo("data: a\ndata: b\ndata: c\ndata: d\ndata: \n\n"));
+  }
+
+  @Test
+  public void multiLineCommentIsSplit() {
+    SSEFrameBuilder b = new SSEFrameBuilder().comment("x\ny");
+    assertThat(new String(b.toByteArray(), UTF8), equalTo(":x\n:y\n"));
+  }
+
+  @Test
+  public void textIsEncodedAsUtf8() {
+    String s = "caf\u00e9 \u20ac \ud83d\ude00"; // 2-, 3-, and 4-byte UTF-8 sequences
+    SSEFrameBuilder b = new SSEFrameBuilder().data(s);
+    assertThat(b.toByteArray(), equalTo(("data: " + s + "\n").getBytes(UTF8)));
+  }
+
+  @Test
+  public void numericFields() {
+    SSEFrameBuilder b = new SSEFrameBuilder().id(0).id(-5).id(Long.MAX_VALUE).id(Long.MIN_VALUE);
+    assertThat(new String(b.toByteArray(), UTF8),
+        equalTo("id: 0\nid: -5\nid: " + Long.MAX_VALUE + "\nid: " + Long.MIN_VALUE + "\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void eventNameCannotContainLineBreak() {
+    new SSEFrameBuilder().event("a\nb");
+  }
+
+  @Test
+  public void builderCanBeReused() {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      large.append("0123456789");
+    }
+    SSEFrameBuilder b = new SSEFrameBuilder().data(large.toString()).end();
+    assertThat(b.size(), equalTo(large.length() + 8));
+    b.reset().event("x").end();
+    assertThat(new String(b.toByteArray(), UTF8), equalTo("event: x\n\n"));
+  }
+}
@@ -7,12 +7,18 @@ import org.junit.Test;
 
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 import okhttp3.Response;
 
@@ -63,6 +69,71 @@ public class StreamingTest {
         );
   }
   
+  @Test
+  public void sseStreamWithReusedFrameBuilder() throws Exception {
+    SSEFrameBuilder frame = new SSEFrameBuilder();
+    doStreamingTest(
+        Handlers.SSE.start(),
+        new Handler[] {
+             ctx -> frame.reset().id(1).event("e1").data("line1\nline2").end().writeTo(ctx),
+             ctx -> frame.reset().id(2).event("e2").data("d2").end().writeTo(ctx)
+        },
+        Handlers.SSE.leaveOpen(),
+        "text/event-stream;charset=utf-8",
+        ImmutableList.of(
+            "id: 1\nevent: e1\ndata: line1\ndata: line2\n\n",
+            "id: 2\nevent: e2\ndata: d2\n\n"
+            )
+        );
+  }
+  
+  @Test
+  public void streamChunksFromSupplier() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+    byte[] chunk = new byte[1000];
+    Arrays.fill(chunk, (byte)'x');
+    Handler handler = Handlers.all(
+        Handlers.startChunks("text/plain", null),
+        Handlers.streamChunks(() -> count.incrementAndGet() <= 1000 ? chunk : null)
+        );
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        byte[] body = resp.body().bytes();
+        assertThat(body.length, equalTo(1000 * 1000));
+        assertThat(body[body.length - 1], equalTo((byte)'x'));
+      }
+    }
+  }
+
+  @Test
+  public void streamChunksFromStreamClosesStream() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    Stream<byte[]> chunks = Stream.of("a", "b", "c").map(String::getBytes).onClose(() -> closed.set(true));
+    Handler handler = Handlers.all(Handlers.startChunks("text/plain", null), Handlers.streamChunks(chunks));
+    try (HttpServer server = HttpServer.start(handler)) {
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.body().string(), equalTo("abc"));
+      }
+    }
+    assertThat(closed.get(), equalTo(true));
+  }
+
+  @Test
+  public void streamChunksWithInterval() throws Exception {
+    Handler handler = Handlers.all(
+        Handlers.startChunks("text/plain", null),
+        Handlers.streamChunks(ImmutableList.of("a".getBytes(), "b".getBytes(), "c".getBytes()).iterator(),
+            100, TimeUnit.MILLISECONDS)
+        );
+    try (HttpServer server = HttpServer.start(handler)) {
+      long start = System.nanoTime();
+      try (Response resp = simpleGet(server.getUri())) {
+        assertThat(resp.body().string(), equalTo("abc"));
+      }
+      assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+  }
+  
   private void doStreamingTest(
       Handler startAction,
       Handler[] chunkActions,
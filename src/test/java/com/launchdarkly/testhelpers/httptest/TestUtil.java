@@ -13,6 +13,9 @@ public class TestUtil {
       .readTimeout(5, TimeUnit.MINUTES)
       .retryOnConnectionFailure(false)
       .build();
+
+  // A handler that does nothing, so it can be called without a server.
+  public static final Handler noOp = ctx -> {};
   
   public static Response simpleGet(URI uri) {
     try {
@@ -21,4 +24,27 @@ public class TestUtil {
       throw new RuntimeException(e);
     }
   }
+
+  // A RequestContext that ignores the response, for calling handlers without a server.
+  public static RequestContext contextFor(RequestInfo request) {
+    return new RequestContext() {
+      public RequestInfo getRequest() {
+        return request;
+      }
+
+      public void setStatus(int status) {}
+
+      public void setHeader(String name, String value) {}
+
+      public void addHeader(String name, String value) {}
+
+      public void setChunked() {}
+
+      public void write(byte[] data) {}
+
+      public String getPathParam(int i) {
+        return null;
+      }
+    };
+  }
 }
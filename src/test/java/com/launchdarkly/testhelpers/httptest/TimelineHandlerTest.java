@@ -0,0 +1,85 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.noOp;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class TimelineHandlerTest {
+  @Test
+  public void phasesEndAfterRequestCount() throws Exception {
+    TimelineHandler timeline = Handlers.timeline()
+        .forRequests(2, Handlers.status(200))
+        .forRequests(1, Handlers.status(503))
+        .thereafter(Handlers.status(201));
+
+    try (HttpServer server = HttpServer.start(timeline)) {
+      int[] expected = new int[] { 200, 200, 503, 201, 201 };
+      for (int status: expected) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(status));
+        }
+      }
+    }
+    assertThat(timeline.getCurrentPhase(), equalTo(2));
+    assertThat(timeline.getRequestCount(0), equalTo(2));
+    assertThat(timeline.getRequestCount(1), equalTo(1));
+    assertThat(timeline.getRequestCount(2), equalTo(2));
+  }
+
+  @Test
+  public void phasesEndAfterDuration() throws Exception {
+    TimelineHandler timeline = Handlers.timeline()
+        .during(100, TimeUnit.MILLISECONDS, noOp)
+        .during(100, TimeUnit.MILLISECONDS, noOp)
+        .thereafter(noOp);
+    assertThat(timeline.getCurrentPhase(), equalTo(-1));
+
+    timeline.start();
+    assertThat(timeline.getCurrentPhase(), equalTo(0));
+    timeline.apply(null);
+
+    Thread.sleep(150);
+    assertThat(timeline.getCurrentPhase(), equalTo(1));
+    timeline.apply(null);
+
+    Thread.sleep(100);
+    assertThat(timeline.getCurrentPhase(), equalTo(2));
+    timeline.apply(null);
+
+    assertThat(timeline.getRequestCount(0), equalTo(1));
+    assertThat(timeline.getRequestCount(1), equalTo(1));
+    assertThat(timeline.getRequestCount(2), equalTo(1));
+  }
+
+  @Test
+  public void firstRequestStartsTimeline() throws Exception {
+    TimelineHandler timeline = Handlers.timeline().forRequests(1, noOp).thereafter(noOp);
+    timeline.apply(null);
+    assertThat(timeline.getCurrentPhase(), equalTo(0));
+    timeline.apply(null);
+    assertThat(timeline.getCurrentPhase(), equalTo(1));
+  }
+
+  @Test
+  public void lastPhaseNeverEnds() throws Exception {
+    TimelineHandler timeline = Handlers.timeline().forRequests(1, noOp);
+    for (int i = 0; i < 3; i++) {
+      timeline.apply(null);
+    }
+    assertThat(timeline.getCurrentPhase(), equalTo(0));
+    assertThat(timeline.getRequestCount(0), equalTo(3));
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void cannotAddPhasesAfterStart() {
+    Handlers.timeline().forRequests(1, noOp).start().thereafter(noOp);
+  }
+}
@@ -0,0 +1,44 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+@SuppressWarnings("javadoc")
+public class TimerWheelTest {
+  @Test
+  public void timersRunInDeadlineOrderAndNotEarly() throws Exception {
+    // with 8 slots of 1ms, the longer delays need more than one revolution of the wheel
+    TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-timer");
+    BlockingQueue<Long> results = new LinkedBlockingQueue<>();
+    long start = System.nanoTime();
+    long[] delays = new long[] { 30, 0, 7, 8, 9, 100 };
+    for (long d: delays) {
+      wheel.schedule(() -> results.add(d), d, TimeUnit.MILLISECONDS);
+    }
+    long[] expectedOrder = new long[] { 0, 7, 8, 9, 30, 100 };
+    for (long d: expectedOrder) {
+      assertThat(results.poll(1, TimeUnit.SECONDS), equalTo(d));
+      assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(d)));
+    }
+  }
+
+  @Test
+  public void timerCanBeScheduledAfterWheelWasIdle() throws Exception {
+    TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-timer");
+    BlockingQueue<String> results = new LinkedBlockingQueue<>();
+    wheel.schedule(() -> results.add("a"), 1, TimeUnit.MILLISECONDS);
+    assertThat(results.poll(1, TimeUnit.SECONDS), equalTo("a"));
+    Thread.sleep(50);
+    long start = System.nanoTime();
+    wheel.schedule(() -> results.add("b"), 20, TimeUnit.MILLISECONDS);
+    assertThat(results.poll(1, TimeUnit.SECONDS), equalTo("b"));
+    assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+  }
+}
@@ -0,0 +1,70 @@
+package com.launchdarkly.testhelpers.httptest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.testhelpers.httptest.TestUtil.noOp;
+import static com.launchdarkly.testhelpers.httptest.TestUtil.simpleGet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import okhttp3.Response;
+
+@SuppressWarnings("javadoc")
+public class WeightedHandlerSwitcherTest {
+  @Test
+  public void allRequestsGoToFirstHandlerByDefault() throws Exception {
+    WeightedHandlerSwitcher switcher = new WeightedHandlerSwitcher(Handlers.status(200), Handlers.status(500));
+    try (HttpServer server = HttpServer.start(switcher)) {
+      for (int i = 0; i < 5; i++) {
+        try (Response resp = simpleGet(server.getUri())) {
+          assertThat(resp.code(), equalTo(200));
+        }
+      }
+    }
+    assertThat(switcher.getHitCount(0), equalTo(5L));
+    assertThat(switcher.getHitCount(1), equalTo(0L));
+  }
+
+  @Test
+  public void requestsAreSplitAccordingToWeights() {
+    WeightedHandlerSwitcher switcher = new WeightedHandlerSwitcher(noOp, noOp, noOp);
+    switcher.setWeights(70, 30, 0);
+    for (int i = 0; i < 10000; i++) {
+      switcher.apply(null);
+    }
+    assertThat((double)switcher.getHitCount(0), closeTo(7000, 300));
+    assertThat((double)switcher.getHitCount(1), closeTo(3000, 300));
+    assertThat(switcher.getHitCount(2), equalTo(0L));
+  }
+
+  @Test
+  public void rampMovesWeightsGradually() throws Exception {
+    WeightedHandlerSwitcher switcher = new WeightedHandlerSwitcher(noOp, noOp);
+    switcher.rampWeights(400, TimeUnit.MILLISECONDS, 0, 1);
+    Thread.sleep(200);
+    double[] midway = switcher.getWeights();
+    assertThat(midway[1], greaterThan(0.25));
+    assertThat(midway[1], lessThan(0.9));
+    Thread.sleep(300);
+    assertThat(switcher.getWeights()[1], equalTo(1.0));
+    for (int i = 0; i < 100; i++) {
+      switcher.apply(null);
+    }
+    assertThat(switcher.getHitCount(1), equalTo(100L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongNumberOfWeights() {
+    new WeightedHandlerSwitcher(noOp, noOp).setWeights(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void allWeightsZero() {
+    new WeightedHandlerSwitcher(noOp, noOp).setWeights(0, 0);
+  }
+}
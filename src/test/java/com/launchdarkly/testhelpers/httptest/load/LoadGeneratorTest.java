@@ -0,0 +1,93 @@
+package com.launchdarkly.testhelpers.httptest.load;
+
+import com.launchdarkly.testhelpers.httptest.Handlers;
+import com.launchdarkly.testhelpers.httptest.HttpServer;
+import com.launchdarkly.testhelpers.httptest.RequestInfo;
+import com.launchdarkly.testhelpers.httptest.SimpleRouter;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@SuppressWarnings("javadoc")
+public class LoadGeneratorTest {
+  @Test
+  public void openModelSendsRequestsAtFixedRate() {
+    try (HttpServer server = HttpServer.start(Handlers.bodyString("text/plain", "hello"))) {
+      server.getRecorder().setEnabled(false);
+      LoadResult result = LoadGenerator.openModel(server.getUri(), 200)
+          .duration(500, TimeUnit.MILLISECONDS)
+          .run();
+      assertThat(result.getRequestCount(), equalTo(100L));
+      assertThat(result.getErrorCount(), equalTo(0L));
+      assertThat(result.getStatusCount(200), equalTo(100L));
+      assertThat(result.getLatency().getCount(), equalTo(100L));
+    }
+  }
+
+  @Test
+  public void openModelIncludesQueueingDelayInLatency() {
+    AtomicBoolean first = new AtomicBoolean(true);
+    try (HttpServer server = HttpServer.start(ctx -> {
+      if (first.getAndSet(false)) {
+        Handlers.delay(200).apply(ctx);
+      }
+      ctx.setStatus(200);
+    })) {
+      server.getRecorder().setEnabled(false);
+      LoadResult result = LoadGenerator.openModel(server.getUri(), 100)
+          .duration(500, TimeUnit.MILLISECONDS)
+          .maxConnections(1)
+          .run();
+      assertThat(result.getRequestCount(), equalTo(50L));
+      assertThat(result.getConnectionsOpened(), equalTo(1L));
+      // the requests that were scheduled during the first 200ms had to wait for the first one
+      assertThat(result.getLatency().getValueAtPercentile(90), greaterThan(TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+  }
+
+  @Test
+  public void closedModelUsesOneConnectionPerUser() {
+    SimpleRouter router = new SimpleRouter();
+    router.add("POST", "/things", Handlers.status(201));
+    try (HttpServer server = HttpServer.start(router)) {
+      LoadResult result = LoadGenerator.closedModel(server.getUri(), 3)
+          .request("POST", "/things")
+          .body("application/json", "{}")
+          .thinkTime(10, TimeUnit.MILLISECONDS)
+          .duration(300, TimeUnit.MILLISECONDS)
+          .run();
+      assertThat(result.getConnectionsOpened(), equalTo(3L));
+      assertThat(result.getErrorCount(), equalTo(0L));
+      assertThat(result.getStatusCount(201), equalTo(result.getRequestCount()));
+      assertThat(result.getRequestCount(), greaterThanOrEqualTo(3L));
+      assertThat(result.getRequestCount(), lessThanOrEqualTo(3L * 31));
+
+      RequestInfo r = server.getRecorder().requireRequest();
+      assertThat(r.getMethod(), equalTo("POST"));
+      assertThat(r.getPath(), equalTo("/things"));
+      assertThat(r.getBody(), equalTo("{}"));
+    }
+  }
+
+  @Test
+  public void connectionFailuresAreCountedAsErrors() {
+    URI uri;
+    try (HttpServer server = HttpServer.start(Handlers.status(200))) {
+      uri = server.getUri();
+    }
+    LoadResult result = LoadGenerator.openModel(uri, 100)
+        .duration(100, TimeUnit.MILLISECONDS)
+        .run();
+    assertThat(result.getRequestCount(), equalTo(0L));
+    assertThat(result.getErrorCount(), equalTo(10L));
+  }
+}